@@ -25,34 +25,25 @@
 
 package com.erigitic.commands;
 
-import com.erigitic.config.TEAccount;
 import com.erigitic.main.TotalEconomy;
+import com.erigitic.util.NameCache;
+import com.erigitic.util.RankedIndex;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import java.math.BigDecimal;
-import java.sql.Connection;
-import java.sql.ResultSet;
-import java.sql.SQLException;
-import java.sql.Statement;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
-import java.util.concurrent.atomic.AtomicInteger;
 
-import ninja.leaping.configurate.ConfigurationNode;
-import org.spongepowered.api.Sponge;
 import org.spongepowered.api.command.CommandResult;
 import org.spongepowered.api.command.CommandSource;
 import org.spongepowered.api.command.args.CommandContext;
 import org.spongepowered.api.command.args.GenericArguments;
 import org.spongepowered.api.command.spec.CommandExecutor;
 import org.spongepowered.api.command.spec.CommandSpec;
-import org.spongepowered.api.entity.living.player.User;
-import org.spongepowered.api.scheduler.Task;
 import org.spongepowered.api.service.economy.Currency;
-import org.spongepowered.api.service.user.UserStorageService;
 import org.spongepowered.api.text.Text;
 import org.spongepowered.api.text.action.TextActions;
 import org.spongepowered.api.text.format.TextColors;
@@ -62,6 +53,11 @@ public class BalanceTopCommand implements CommandExecutor {
 
     private static DecimalFormat formatter = new DecimalFormat("#,###.00");
 
+    // Rendered pages by currency and page number, shown again until the ranking has changed enough
+    private static final Cache<String, RenderedPage> renderedPages = CacheBuilder.newBuilder()
+            .maximumSize(256)
+            .build();
+
     public static CommandSpec commandSpec() {
         return CommandSpec.builder()
                 .description(Text.of("Display top balances"))
@@ -102,57 +98,28 @@ public class BalanceTopCommand implements CommandExecutor {
         // the changes here aren't very neat, but it'll do for now
         int fOffset = offset;
         int cmdPageNum = pageNum + 1;
-        Task.builder().execute(() -> {
-            if (TotalEconomy.getTotalEconomy().isDatabaseEnabled()) {
-                try (
-                     Connection connection = TotalEconomy.getTotalEconomy().getSqlManager().dataSource.getConnection();
-                     Statement statement = connection.createStatement()
-                ) {
-                    String currencyColumn = fCurrency.getName() + "_balance";
-                    statement.execute("SELECT * FROM accounts ORDER BY `" + currencyColumn + "` DESC LIMIT " + fOffset + ", " + rowsPerPage);
-
-                    AtomicInteger position = new AtomicInteger(fOffset + 1);
-                    try (ResultSet set = statement.getResultSet()) {
-                        while (set.next()) {
-                            BigDecimal amount = set.getBigDecimal(currencyColumn);
-                            UUID uuid = UUID.fromString(set.getString("uid"));
-                            Optional<User> optUser = Sponge.getServiceManager().provideUnchecked(UserStorageService.class).get(uuid);
-                            String username = optUser.map(User::getName).orElse("unknown");
-
-                            accountBalances.add(Text.of(TextColors.WHITE, position.getAndIncrement() + ". ", TextColors.GRAY, username, ": ", TextColors.GOLD, fCurrency.getSymbol(), formatter.format(amount)));
-                        }
-                    }
-                } catch (SQLException e) {
-                    System.out.println("Failed to query db for ranking.");
-                    e.printStackTrace();
-                }
-            } else {
-                ConfigurationNode accountNode = TotalEconomy.getTotalEconomy().getAccountManager().getAccountConfig();
-                Map<String, BigDecimal> accountBalancesMap = new HashMap<>();
-
-                accountNode.getChildrenMap().keySet().forEach(accountUUID -> {
-                    UUID uuid;
-
-                    // Check if the account is virtual or not. If virtual, skip the rest of the execution and move on to next account.
-                    try {
-                        uuid = UUID.fromString(accountUUID.toString());
-                    } catch (IllegalArgumentException e) {
-                        return;
-                    }
-
-                    TEAccount playerAccount = (TEAccount) TotalEconomy.getTotalEconomy().getAccountManager().getOrCreateAccount(uuid).get();
-                    Text playerName = playerAccount.getDisplayName();
-
-                    accountBalancesMap.put(playerName.toPlain(), playerAccount.getBalance(fCurrency));
-                });
-
-                AtomicInteger position = new AtomicInteger(fOffset + 1);
-                accountBalancesMap.entrySet().stream()
-                        .sorted(Map.Entry.<String, BigDecimal>comparingByValue().reversed())
-                        .limit(rowsPerPage)
-                        .forEach(entry ->
-                            accountBalances.add(Text.of(TextColors.WHITE, position.getAndIncrement() + ". ", TextColors.GRAY, entry.getKey(), ": ", TextColors.GOLD, fCurrency.getSymbol(), formatter.format(entry.getValue())))
-                );
+        RankedIndex<UUID, BigDecimal> ranking = TotalEconomy.getTotalEconomy().getAccountManager().getBalanceLeaderboard().getRanking(currency);
+        String pageKey = currency.getId() + ":" + cmdPageNum;
+        RenderedPage renderedPage = renderedPages.getIfPresent(pageKey);
+        long version = ranking.getVersion();
+
+        if (renderedPage != null && renderedPage.isCurrent(version)) {
+            src.sendMessage(renderedPage.text);
+
+            return CommandResult.success();
+        }
+
+        List<RankedIndex.Entry<UUID, BigDecimal>> entries = ranking.getRange(offset, rowsPerPage);
+        boolean hasNextPage = offset + rowsPerPage < ranking.size();
+
+        TotalEconomy.getTotalEconomy().getAccountManager().supplyAsync(() -> {
+            NameCache nameCache = TotalEconomy.getTotalEconomy().getNameCache();
+            int position = fOffset + 1;
+
+            for (RankedIndex.Entry<UUID, BigDecimal> entry : entries) {
+                String username = nameCache.getName(entry.getKey()).orElse("unknown");
+
+                accountBalances.add(Text.of(TextColors.WHITE, position++ + ". ", TextColors.GRAY, username, ": ", TextColors.GOLD, fCurrency.getSymbol(), formatter.format(entry.getScore())));
             }
 
             Text.Builder backBuilder = Text.builder();
@@ -166,7 +133,7 @@ public class BalanceTopCommand implements CommandExecutor {
             }
 
             Text.Builder fwrdBuilder = Text.builder();
-            if (accountBalances.size() == rowsPerPage) {
+            if (hasNextPage) {
                 fwrdBuilder = fwrdBuilder.append(TextSerializers.FORMATTING_CODE.deserialize("&6 \u00BB "))
                             .onHover(TextActions.showText(TextSerializers.FORMATTING_CODE.deserialize("&a&lClick here to go to the next page")))
                             .onClick(TextActions.runCommand("/baltop " + (cmdPageNum + 1) + " " + fCurrency.getName().replace(' ', '_')));
@@ -188,9 +155,42 @@ public class BalanceTopCommand implements CommandExecutor {
             accountBalances.forEach(entry -> messageBuilder.append(entry).append(Text.of("\n")));
             messageBuilder.append(footer);
 
-            src.sendMessage(messageBuilder.build());
-        }).async().submit(TotalEconomy.getTotalEconomy());
+            return messageBuilder.build();
+        }).thenAccept(message -> {
+            renderedPages.put(pageKey, new RenderedPage(message, version));
+            src.sendMessage(message);
+        });
 
         return CommandResult.success();
     }
+
+    private static class RenderedPage {
+
+        private final Text text;
+        private final long version;
+        private final long renderedAt = System.currentTimeMillis();
+
+        private RenderedPage(Text text, long version) {
+            this.text = text;
+            this.version = version;
+        }
+
+        /**
+         * Whether the page can still be shown. A page is rendered again once the ranking changed and either the refresh
+         * interval passed or the number of changes reached the refresh threshold.
+         *
+         * @param currentVersion The current version of the ranking
+         * @return boolean If the page can be shown
+         */
+        private boolean isCurrent(long currentVersion) {
+            if (currentVersion == version) {
+                return true;
+            }
+
+            long refreshInterval = TotalEconomy.getTotalEconomy().getBalanceTopRefreshInterval() * 1000L;
+
+            return System.currentTimeMillis() - renderedAt < refreshInterval
+                    && currentVersion - version < TotalEconomy.getTotalEconomy().getBalanceTopRefreshThreshold();
+        }
+    }
 }
@@ -26,11 +26,15 @@
 package com.erigitic.commands;
 
 import com.erigitic.jobs.JobBasedRequirement;
+import com.erigitic.jobs.JobManager;
+import com.erigitic.jobs.LevelCurve;
 import com.erigitic.jobs.TEAction;
 import com.erigitic.jobs.TEActionReward;
 import com.erigitic.jobs.TEJob;
 import com.erigitic.jobs.TEJobSet;
 import com.erigitic.main.TotalEconomy;
+import com.erigitic.util.NameCache;
+import com.erigitic.util.RankedIndex;
 import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -38,6 +42,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.UUID;
 import org.spongepowered.api.Sponge;
 import org.spongepowered.api.command.CommandException;
 import org.spongepowered.api.command.CommandResult;
@@ -52,6 +57,7 @@ import org.spongepowered.api.service.economy.Currency;
 import org.spongepowered.api.service.pagination.PaginationList;
 import org.spongepowered.api.service.pagination.PaginationService;
 import org.spongepowered.api.text.Text;
+import org.spongepowered.api.text.action.TextActions;
 import org.spongepowered.api.text.format.TextColors;
 
 public class JobCommand implements CommandExecutor {
@@ -61,12 +67,14 @@ public class JobCommand implements CommandExecutor {
         Info jobInfoCommand = new Info();
         Reload jobReloadCommand = new Reload();
         Toggle jobToggleCommand = new Toggle();
+        Top jobTopCommand = new Top();
 
         return CommandSpec.builder()
                 .child(jobSetCommand.commandSpec(), "set", "s")
                 .child(jobInfoCommand.commandSpec(), "info", "i")
                 .child(jobReloadCommand.commandSpec(), "reload")
                 .child(jobToggleCommand.commandSpec(), "toggle", "t")
+                .child(jobTopCommand.commandSpec(), "top")
                 .description(Text.of("Display job information"))
                 .permission("totaleconomy.command.job")
                 .arguments(GenericArguments.none())
@@ -286,6 +294,66 @@ public class JobCommand implements CommandExecutor {
         }
     }
 
+    private class Top implements CommandExecutor {
+
+        private static final int ROWS_PER_PAGE = 10;
+
+        public CommandSpec commandSpec() {
+            return CommandSpec.builder()
+                    .description(Text.of("Display the players with the most exp in a job"))
+                    .permission("totaleconomy.command.job.top")
+                    .executor(this)
+                    .arguments(
+                            GenericArguments.string(Text.of("jobName")),
+                            GenericArguments.optional(GenericArguments.integer(Text.of("page")))
+                    )
+                    .build();
+        }
+
+        @Override
+        public CommandResult execute(CommandSource src, CommandContext args) throws CommandException {
+            JobManager jobManager = TotalEconomy.getTotalEconomy().getJobManager();
+            String jobName = args.<String>getOne("jobName").get().toLowerCase();
+            int page = Math.max(1, args.<Integer>getOne("page").orElse(1));
+
+            if (jobName.equals("unemployed") || !jobManager.getJob(jobName, false).isPresent()) {
+                throw new CommandException(Text.of(TextColors.RED, "Unknown job: \"" + jobName + "\""));
+            }
+
+            RankedIndex<UUID, Integer> ranking = jobManager.getJobRanking(jobName);
+            LevelCurve curve = jobManager.getLevelCurve(jobName);
+            List<RankedIndex.Entry<UUID, Integer>> entries = ranking.getRange((page - 1) * ROWS_PER_PAGE, ROWS_PER_PAGE);
+            boolean hasNextPage = page * ROWS_PER_PAGE < ranking.size();
+
+            // Names of players that haven't been seen in a while may have to be looked up, which is kept off the main thread
+            TotalEconomy.getTotalEconomy().getAccountManager().supplyAsync(() -> {
+                NameCache nameCache = TotalEconomy.getTotalEconomy().getNameCache();
+                List<Text> lines = new ArrayList<>();
+                int position = (page - 1) * ROWS_PER_PAGE + 1;
+
+                lines.add(Text.of(TextColors.GRAY, "Top ", TextColors.GOLD, jobManager.titleize(jobName), TextColors.GRAY, " players (page ", page, ")"));
+
+                for (RankedIndex.Entry<UUID, Integer> entry : entries) {
+                    String username = nameCache.getName(entry.getKey()).orElse("unknown");
+
+                    lines.add(Text.of(TextColors.WHITE, position++, ". ", TextColors.GRAY, username, ": ", TextColors.GOLD,
+                            "Level ", curve.getLevel(entry.getScore()), TextColors.GRAY, " (", entry.getScore(), " EXP)"));
+                }
+
+                if (hasNextPage) {
+                    lines.add(Text.builder()
+                            .append(Text.of(TextColors.GOLD, "\u00BB Next page"))
+                            .onClick(TextActions.runCommand("/job top " + jobName + " " + (page + 1)))
+                            .build());
+                }
+
+                return lines;
+            }).thenAccept(lines -> lines.forEach(src::sendMessage));
+
+            return CommandResult.success();
+        }
+    }
+
     private class Toggle implements CommandExecutor {
 
         private final String[] TOGGLE_PLAYER_OPTIONS = {"block-break-info", "block-place-info", "entity-kill-info", "entity-fish-info"};
@@ -313,7 +381,7 @@ public class JobCommand implements CommandExecutor {
                 Optional<String> optionOpt = args.<String>getOne("option");
 
                 if (!optionOpt.isPresent()) {
-                    TotalEconomy.getTotalEconomy().getAccountManager().toggleNotifications(sender);
+                    TotalEconomy.getTotalEconomy().getJobManager().toggleNotifications(sender);
 
                     return CommandResult.success();
                 } else {
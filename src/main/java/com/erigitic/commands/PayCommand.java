@@ -25,7 +25,8 @@
 
 package com.erigitic.commands;
 
-import com.erigitic.config.TEAccount;
+import com.erigitic.config.AccountManager;
+import com.erigitic.config.TEAsyncAccount;
 import com.erigitic.config.TECurrency;
 import java.math.BigDecimal;
 import java.util.HashMap;
@@ -47,8 +48,8 @@ import org.spongepowered.api.event.cause.Cause;
 import org.spongepowered.api.event.cause.EventContext;
 import org.spongepowered.api.service.economy.Currency;
 import org.spongepowered.api.service.economy.transaction.ResultType;
-import org.spongepowered.api.service.economy.transaction.TransferResult;
 import org.spongepowered.api.text.Text;
+import org.spongepowered.api.text.format.TextColors;
 
 public class PayCommand implements CommandExecutor {
 
@@ -83,27 +84,34 @@ public class PayCommand implements CommandExecutor {
 
             if (m.matches()) {
                 BigDecimal amount = new BigDecimal(amountStr).setScale(2, BigDecimal.ROUND_DOWN);
-                TEAccount senderAccount = (TEAccount) TotalEconomy.getTotalEconomy().getAccountManager().getOrCreateAccount(sender.getUniqueId()).get();
-                TEAccount recipientAccount = (TEAccount) TotalEconomy.getTotalEconomy().getAccountManager().getOrCreateAccount(recipient.getUniqueId()).get();
-                TransferResult transferResult = getTransferResult(senderAccount, recipientAccount, amount, optCurrencyName);
-
-                if (transferResult.getResult() == ResultType.SUCCESS) {
-                    Text amountText = Text.of(transferResult.getCurrency().format(amount));
-                    Map<String, String> messageValues = new HashMap<>();
-                    messageValues.put("sender", src.getName());
-                    messageValues.put("recipient", recipient.getName());
-                    messageValues.put("amount", amountText.toPlain());
-
-                    sender.sendMessage(TotalEconomy.getTotalEconomy().getMessageManager().getMessage("command.pay.sender", messageValues));
-
-                    recipient.sendMessage(TotalEconomy.getTotalEconomy().getMessageManager().getMessage("command.pay.recipient", messageValues));
-
-                    return CommandResult.success();
-                } else if (transferResult.getResult() == ResultType.ACCOUNT_NO_FUNDS) {
-                    throw new CommandException(Text.of("[TE] Insufficient funds!"));
-                } else {
-                    throw new CommandException(Text.of("[TE] An error occurred while paying another player!"));
-                }
+                AccountManager accountManager = TotalEconomy.getTotalEconomy().getAccountManager();
+                TEAsyncAccount senderAccount = accountManager.getAsyncAccount(sender.getUniqueId());
+                TEAsyncAccount recipientAccount = accountManager.getAsyncAccount(recipient.getUniqueId());
+                Currency currency = getTransferCurrency(optCurrencyName);
+                Cause cause = Cause.builder()
+                        .append(TotalEconomy.getTotalEconomy().getPluginContainer())
+                        .build(EventContext.empty());
+
+                // The transfer runs off the server thread, the outcome is reported once it completes
+                senderAccount.transfer(recipientAccount, currency, amount, cause).thenAccept(transferResult -> {
+                    if (transferResult.getResult() == ResultType.SUCCESS) {
+                        Text amountText = Text.of(transferResult.getCurrency().format(amount));
+                        Map<String, String> messageValues = new HashMap<>();
+                        messageValues.put("sender", src.getName());
+                        messageValues.put("recipient", recipient.getName());
+                        messageValues.put("amount", amountText.toPlain());
+
+                        sender.sendMessage(TotalEconomy.getTotalEconomy().getMessageManager().getMessage("command.pay.sender", messageValues));
+
+                        recipient.sendMessage(TotalEconomy.getTotalEconomy().getMessageManager().getMessage("command.pay.recipient", messageValues));
+                    } else if (transferResult.getResult() == ResultType.ACCOUNT_NO_FUNDS) {
+                        sender.sendMessage(Text.of(TextColors.RED, "[TE] Insufficient funds!"));
+                    } else {
+                        sender.sendMessage(Text.of(TextColors.RED, "[TE] An error occurred while paying another player!"));
+                    }
+                });
+
+                return CommandResult.success();
             } else {
                 throw new CommandException(Text.of("[TE] Invalid amount! Must be a positive number!"));
             }
@@ -112,11 +120,7 @@ public class PayCommand implements CommandExecutor {
         }
     }
 
-    private TransferResult getTransferResult(TEAccount senderAccount, TEAccount recipientAccount, BigDecimal amount, Optional<String> optCurrencyName) throws CommandException {
-        Cause cause = Cause.builder()
-                .append(TotalEconomy.getTotalEconomy().getPluginContainer())
-                .build(EventContext.empty());
-
+    private Currency getTransferCurrency(Optional<String> optCurrencyName) throws CommandException {
         if (optCurrencyName.isPresent()) {
             Optional<Currency> optCurrency = TotalEconomy.getTotalEconomy().getTECurrencyRegistryModule().getById("totaleconomy:" + optCurrencyName.get().toLowerCase());
 
@@ -124,7 +128,7 @@ public class PayCommand implements CommandExecutor {
                 TECurrency teCurrency = (TECurrency) optCurrency.get();
 
                 if (teCurrency.isTransferable()) {
-                    return senderAccount.transfer(recipientAccount, optCurrency.get(), amount, cause);
+                    return teCurrency;
                 } else {
                     throw new CommandException(Text.of("[TE] ", teCurrency.getPluralDisplayName(), " can't be transferred!"));
                 }
@@ -132,7 +136,7 @@ public class PayCommand implements CommandExecutor {
                 throw new CommandException(Text.of("[TE] The specified currency does not exist!"));
             }
         } else {
-            return senderAccount.transfer(recipientAccount, TotalEconomy.getTotalEconomy().getDefaultCurrency(), amount, cause);
+            return TotalEconomy.getTotalEconomy().getDefaultCurrency();
         }
     }
 }
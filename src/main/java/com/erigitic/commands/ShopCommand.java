@@ -29,13 +29,20 @@ import com.erigitic.config.TEAccount;
 import com.erigitic.main.TotalEconomy;
 import com.erigitic.shops.Shop;
 import com.erigitic.shops.ShopItem;
+import com.erigitic.shops.ShopSale;
+import com.erigitic.shops.ShopSalesLedger;
 import com.erigitic.shops.data.ShopData;
 import com.erigitic.shops.data.ShopItemData;
-import com.erigitic.shops.data.ShopKeys;
 import com.erigitic.util.InventoryUtils;
+import com.erigitic.util.NameCache;
 import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
@@ -62,6 +69,7 @@ import org.spongepowered.api.item.inventory.ItemStackSnapshot;
 import org.spongepowered.api.service.economy.transaction.ResultType;
 import org.spongepowered.api.service.economy.transaction.TransactionResult;
 import org.spongepowered.api.text.Text;
+import org.spongepowered.api.text.action.TextActions;
 import org.spongepowered.api.text.format.TextColors;
 import org.spongepowered.api.text.format.TextStyles;
 
@@ -70,10 +78,12 @@ public class ShopCommand implements CommandExecutor {
     public CommandSpec commandSpec() {
         Stock shopStockCommand = new Stock();
         Buy shopBuyCommand = new Buy();
+        Sales shopSalesCommand = new Sales();
 
         return CommandSpec.builder()
                 .child(shopStockCommand.getCommandSpec(), "stock", "s")
                 .child(shopBuyCommand.getCommandSpec(), "buy", "b")
+                .child(shopSalesCommand.getCommandSpec(), "sales")
                 .permission("totaleconomy.command.shop")
                 .executor(this)
                 .build();
@@ -119,7 +129,7 @@ public class ShopCommand implements CommandExecutor {
 
                 if (isTileEntityAChest(tileEntity)) {
                     Chest chest = (Chest) tileEntity;
-                    Optional<Shop> shopOpt = chest.get(ShopKeys.SINGLE_SHOP);
+                    Optional<Shop> shopOpt = TotalEconomy.getTotalEconomy().getShopManager().getShopRegistry().getShop(chest.getLocation());
 
                     if (shopOpt.isPresent()) {
                         Optional<ItemStack> itemInHandOpt = player.getItemInHand(HandTypes.MAIN_HAND);
@@ -227,7 +237,7 @@ public class ShopCommand implements CommandExecutor {
                         throw new CommandException(TotalEconomy.getTotalEconomy().getMessageManager().getMessage("command.shop.buy.doublechest"));
                     }
 
-                    if (!chest.get(ShopKeys.SINGLE_SHOP).isPresent()) {
+                    if (!TotalEconomy.getTotalEconomy().getShopManager().getShopRegistry().getShop(chest.getLocation()).isPresent()) {
                         if (creatorOpt.isPresent()) {
                             UUID creatorUniqueId = creatorOpt.get();
 
@@ -251,6 +261,7 @@ public class ShopCommand implements CommandExecutor {
 
                                         chest.offer(Keys.DISPLAY_NAME, Text.of(TextStyles.BOLD, TextColors.BLUE, shop.getTitle()));
                                         chest.offer(new ShopData(shop));
+                                        TotalEconomy.getTotalEconomy().getShopManager().getShopRegistry().addShop(chest.getLocation(), shop);
 
                                         player.sendMessage(TotalEconomy.getTotalEconomy().getMessageManager().getMessage("command.shop.buy.success"));
                                     } else {
@@ -293,4 +304,68 @@ public class ShopCommand implements CommandExecutor {
             return shop;
         }
     }
+
+    private class Sales implements CommandExecutor {
+
+        private static final int ROWS_PER_PAGE = 10;
+
+        private final DateTimeFormatter dateFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm").withZone(ZoneId.systemDefault());
+
+        public CommandSpec getCommandSpec() {
+            return CommandSpec.builder()
+                    .description(Text.of("Display the most recent sales of your shops"))
+                    .permission("totaleconomy.command.shop.sales")
+                    .executor(this)
+                    .arguments(
+                            GenericArguments.optional(GenericArguments.integer(Text.of("page")))
+                    )
+                    .build();
+        }
+
+        @Override
+        public CommandResult execute(CommandSource src, CommandContext args) throws CommandException {
+            if (!(src instanceof Player)) {
+                throw new CommandException(Text.of("[TE] This command can only be run by a player!"));
+            }
+
+            UUID ownerUniqueId = ((Player) src).getUniqueId();
+            int page = Math.max(1, args.<Integer>getOne("page").orElse(1));
+            ShopSalesLedger salesLedger = TotalEconomy.getTotalEconomy().getShopManager().getSalesLedger();
+
+            // The sales are read from storage, which is kept off the main thread
+            TotalEconomy.getTotalEconomy().getAccountManager().supplyAsync(() -> {
+                NameCache nameCache = TotalEconomy.getTotalEconomy().getNameCache();
+                List<ShopSale> sales = salesLedger.getRecentSales(ownerUniqueId, page * ROWS_PER_PAGE + 1);
+                List<Text> lines = new ArrayList<>();
+
+                if (sales.isEmpty()) {
+                    lines.add(Text.of(TextColors.GRAY, "Your shops haven't made any sales yet."));
+
+                    return lines;
+                }
+
+                lines.add(Text.of(TextColors.GRAY, "Recent shop sales (page ", page, ")"));
+
+                for (ShopSale sale : sales.subList(Math.min((page - 1) * ROWS_PER_PAGE, sales.size()), Math.min(page * ROWS_PER_PAGE, sales.size()))) {
+                    String buyer = nameCache.getName(sale.getBuyer()).orElse("unknown");
+
+                    lines.add(Text.of(TextColors.WHITE, dateFormatter.format(Instant.ofEpochMilli(sale.getTimestamp())), " ",
+                            TextColors.GRAY, buyer, " bought ", TextColors.GOLD, sale.getQuantity(), "x", sale.getItemId(),
+                            TextColors.GRAY, " for ", TextColors.GOLD, TotalEconomy.getTotalEconomy().getDefaultCurrency().format(sale.getPrice()),
+                            TextColors.GRAY, " at ", sale.getX(), ", ", sale.getY(), ", ", sale.getZ()));
+                }
+
+                if (sales.size() > page * ROWS_PER_PAGE) {
+                    lines.add(Text.builder()
+                            .append(Text.of(TextColors.GOLD, "\u00BB Next page"))
+                            .onClick(TextActions.runCommand("/shop sales " + (page + 1)))
+                            .build());
+                }
+
+                return lines;
+            }).thenAccept(lines -> lines.forEach(src::sendMessage));
+
+            return CommandResult.success();
+        }
+    }
 }
@@ -25,52 +25,111 @@
 
 package com.erigitic.config;
 
+import com.erigitic.jobs.LevelCurve;
 import com.erigitic.main.TotalEconomy;
+import com.erigitic.sql.AccountCreationQueue;
+import com.erigitic.sql.BalanceLedger;
+import com.erigitic.sql.JobProgressMigrator;
 import com.erigitic.sql.SqlManager;
 import com.erigitic.sql.SqlQuery;
 import com.erigitic.util.MessageManager;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.Striped;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import java.io.File;
 import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Supplier;
 
 import ninja.leaping.configurate.ConfigurationNode;
-import ninja.leaping.configurate.commented.CommentedConfigurationNode;
-import ninja.leaping.configurate.hocon.HoconConfigurationLoader;
-import ninja.leaping.configurate.loader.ConfigurationLoader;
+import ninja.leaping.configurate.ConfigurationOptions;
+import ninja.leaping.configurate.util.MapFactories;
 
 import org.slf4j.Logger;
 import org.spongepowered.api.Sponge;
-import org.spongepowered.api.entity.living.player.Player;
 import org.spongepowered.api.entity.living.player.User;
+import org.spongepowered.api.event.cause.Cause;
+import org.spongepowered.api.scheduler.SpongeExecutorService;
 import org.spongepowered.api.service.context.ContextCalculator;
 import org.spongepowered.api.service.economy.Currency;
 import org.spongepowered.api.service.economy.EconomyService;
 import org.spongepowered.api.service.economy.account.Account;
 import org.spongepowered.api.service.economy.account.UniqueAccount;
-import org.spongepowered.api.text.Text;
-import org.spongepowered.api.text.format.TextColors;
+import org.spongepowered.api.service.economy.transaction.ResultType;
+import org.spongepowered.api.service.economy.transaction.TransactionResult;
+import org.spongepowered.api.service.economy.transaction.TransactionTypes;
 
 public class AccountManager implements EconomyService {
 
     private static final ExecutorService executor = Executors.newSingleThreadExecutor();
 
+    // Number of lock stripes guarding the accounts in the account configuration file
+    private static final int ACCOUNT_LOCK_STRIPES = 64;
+
+    // Maximum number of account objects kept for repeat lookups
+    private static final int ACCOUNT_CACHE_SIZE = 2048;
+
+    // Milliseconds between each batch of queued account creations in database mode
+    private static final long ACCOUNT_CREATION_INTERVAL = 500;
+
+    // Threads and queued calls of the async economy API
+    private static final int ASYNC_THREADS = 4;
+    private static final int ASYNC_QUEUE_SIZE = 1024;
+
     private TotalEconomy totalEconomy;
     private MessageManager messageManager;
     private Logger logger;
-    private ConfigurationLoader<CommentedConfigurationNode> loader;
-    private ConfigurationNode accountConfig;
+    private AccountStorage accountStorage;
+    private BalanceJournal balanceJournal;
+    private volatile ConfigurationNode accountConfig;
+    private final Striped<Lock> accountLocks = Striped.lock(ACCOUNT_LOCK_STRIPES);
+
+    private final Cache<UUID, Optional<UniqueAccount>> accountCache = CacheBuilder.newBuilder()
+            .maximumSize(ACCOUNT_CACHE_SIZE)
+            .build();
+    private final Cache<String, Optional<Account>> virtualAccountCache = CacheBuilder.newBuilder()
+            .maximumSize(ACCOUNT_CACHE_SIZE)
+            .build();
+
+    // Once the queue is full, callers run their economy call themselves instead of queueing without bound
+    private final ExecutorService asyncExecutor = new ThreadPoolExecutor(ASYNC_THREADS, ASYNC_THREADS, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(ASYNC_QUEUE_SIZE),
+            new ThreadFactoryBuilder().setNameFormat("TotalEconomy Async %d").setDaemon(true).build(),
+            new ThreadPoolExecutor.CallerRunsPolicy());
+    private final SpongeExecutorService syncExecutor;
+
+    // Transaction events raised by an async economy call, posted on the server thread once the call completes
+    private final ThreadLocal<List<TEEconomyTransactionEvent>> pendingEvents = new ThreadLocal<>();
 
     private SqlManager sqlManager;
+    private BalanceLedger accountLedger;
+    private BalanceLedger virtualAccountLedger;
+    private AccountCreationQueue accountCreationQueue;
+    private BalanceLeaderboard balanceLeaderboard;
 
     private boolean databaseActive;
 
-    private boolean confSaveRequested = false;
+    private volatile boolean confSaveRequested = false;
+    private volatile boolean journalCompactRequested = false;
 
     public static final int CONTENT_VERSION = 1;
 
@@ -85,14 +144,26 @@ public class AccountManager implements EconomyService {
         this.messageManager = messageManager;
         this.logger = logger;
 
+        syncExecutor = Sponge.getScheduler().createSyncExecutor(totalEconomy);
         databaseActive = totalEconomy.isDatabaseEnabled();
+        balanceLeaderboard = new BalanceLeaderboard(logger);
 
         if (databaseActive) {
             sqlManager = totalEconomy.getSqlManager();
 
             setupDatabase();
+
+            if (totalEconomy.isDatabaseWriteBehindEnabled() && totalEconomy.getSaveInterval() > 0) {
+                setupBalanceLedgers();
+            }
+
+            accountCreationQueue = new AccountCreationQueue(totalEconomy, sqlManager, logger, accountLedger, balanceLeaderboard, this::warmAccount);
+            accountCreationQueue.startFlushTask(ACCOUNT_CREATION_INTERVAL);
+
+            balanceLeaderboard.load(sqlManager, getCurrencies());
         } else {
             setupConfig();
+            balanceLeaderboard.load(accountConfig, getCurrencies());
 
             if (totalEconomy.getSaveInterval() > 0) {
                 setupAutosave();
@@ -101,54 +172,77 @@ public class AccountManager implements EconomyService {
     }
 
     /**
-     * Setup the config file that will contain the user accounts.
+     * Setup the storage that will contain the user accounts.
      */
     private void setupConfig() {
         File accountsFile = new File(totalEconomy.getConfigDir(), "accounts.conf");
-        loader = HoconConfigurationLoader.builder().setFile(accountsFile).build();
+
+        // Back the account nodes with concurrent maps so the tree can be saved and iterated while accounts are created
+        ConfigurationOptions options = ConfigurationOptions.defaults().setMapFactory(MapFactories.unordered());
+
+        if (totalEconomy.getStorageFormat().equals("sharded")) {
+            File shardDirectory = new File(totalEconomy.getConfigDir(), "accounts");
+
+            accountStorage = new ShardedAccountStorage(logger, shardDirectory, accountsFile, options, totalEconomy.getStorageShards());
+        } else {
+            accountStorage = new HoconAccountStorage(accountsFile, options);
+        }
 
         try {
-            accountConfig = loader.load();
-
-            if (!accountsFile.exists()) {
-                executor.submit(() -> {
-                    try {
-                        loader.save(accountConfig);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                });
-            } else {
-                if (accountConfig.getNode("version").getInt(0) != CONTENT_VERSION) {
-                    accountConfig.getChildrenMap().entrySet().parallelStream().forEach(nodeEntry -> {
-                        ConfigurationNode accountNode = nodeEntry.getValue();
-
-                        accountNode.getNode("jobstats").getChildrenMap().entrySet().parallelStream().forEach(jobNodeEntry -> {
-                            ConfigurationNode jobNode = jobNodeEntry.getValue();
-                            ConfigurationNode expNode = jobNode.getNode("exp");
-
-                            int exp = expNode.getInt(0);
-                            int level = jobNode.getNode("level").getInt(0);
-
-                            expNode.setValue((int) (exp + (((Math.pow(level, 2) + level) / 2) * 100 - (level * 100))));
-
-                            executor.submit(() -> {
-                                try {
-                                    loader.save(accountConfig);
-                                } catch (IOException e) {
-                                    e.printStackTrace();
-                                    logger.warn("Error migrating account experience values!");
-                                }
-                            });
-                        });
+            accountConfig = accountStorage.load();
+
+            if (accountConfig.getNode("version").getInt(0) != CONTENT_VERSION) {
+                accountConfig.getChildrenMap().entrySet().parallelStream().forEach(nodeEntry -> {
+                    ConfigurationNode accountNode = nodeEntry.getValue();
+
+                    accountNode.getNode("jobstats").getChildrenMap().entrySet().parallelStream().forEach(jobNodeEntry -> {
+                        ConfigurationNode jobNode = jobNodeEntry.getValue();
+                        ConfigurationNode expNode = jobNode.getNode("exp");
+
+                        int exp = expNode.getInt(0);
+                        int level = jobNode.getNode("level").getInt(0);
+
+                        // Exp used to be kept per level, it is the total exp of the job now
+                        expNode.setValue(exp + LevelCurve.DEFAULT.getExpForLevel(level));
                     });
+                });
 
-                    accountConfig.getNode("version").setValue(CONTENT_VERSION);
-                }
+                accountConfig.getNode("version").setValue(CONTENT_VERSION);
+                accountStorage.markAllDirty();
+
+                // The version node isn't an account, so sharded storage only writes it once it is marked like one
+                accountStorage.markDirty("version");
+                saveConfiguration();
+            }
+
+            if (totalEconomy.isStorageJournalEnabled()) {
+                setupJournal();
             }
         } catch (IOException e) {
-            logger.warn("Error creating accounts configuration file!");
+            logger.warn("Error loading the account storage!");
+        }
+    }
+
+    /**
+     * Setup the balance journal. Changes left in the journal by the last run are replayed and compacted into a new
+     * snapshot straight away, then a scheduler compacts the journal every compact interval.
+     *
+     * @throws IOException Error reading or creating the journal files
+     */
+    private void setupJournal() throws IOException {
+        balanceJournal = new BalanceJournal(logger, totalEconomy.getConfigDir());
+
+        int replayed = balanceJournal.replay(accountConfig, accountStorage);
+
+        if (replayed > 0) {
+            logger.info("Replayed " + replayed + " balance changes from the journal.");
         }
+
+        compactJournal();
+
+        Sponge.getScheduler().createTaskBuilder().interval(totalEconomy.getJournalCompactInterval(), TimeUnit.SECONDS)
+                .execute(this::compactJournal)
+                .submit(totalEconomy);
     }
 
     /**
@@ -175,23 +269,37 @@ public class AccountManager implements EconomyService {
                 + "PRIMARY KEY (uid)"
         );
 
-        sqlManager.createTable("levels", "uid varchar(60),"
-                + "miner int(10) unsigned NOT NULL DEFAULT '1',"
-                + "lumberjack int(10) unsigned NOT NULL DEFAULT '1',"
-                + "warrior int(10) unsigned NOT NULL DEFAULT '1',"
-                + "fisherman int(10) unsigned NOT NULL DEFAULT '1',"
-                + "farmer int(10) unsigned NOT NULL DEFAULT '1',"
+        sqlManager.createTable("job_progress", "uid varchar(60) NOT NULL,"
+                + "job varchar(50) NOT NULL,"
+                + "level int(10) unsigned NOT NULL DEFAULT '1',"
+                + "exp int(10) unsigned NOT NULL DEFAULT '0',"
+                + "PRIMARY KEY (uid, job),"
                 + "FOREIGN KEY (uid) REFERENCES accounts(uid) ON DELETE CASCADE"
         );
 
-        sqlManager.createTable("experience", "uid varchar(60),"
-                + "miner int(10) unsigned NOT NULL DEFAULT '0',"
-                + "lumberjack int(10) unsigned NOT NULL DEFAULT '0',"
-                + "warrior int(10) unsigned NOT NULL DEFAULT '0',"
-                + "fisherman int(10) unsigned NOT NULL DEFAULT '0',"
-                + "farmer int(10) unsigned NOT NULL DEFAULT '0',"
-                + "FOREIGN KEY (uid) REFERENCES accounts(uid) ON DELETE CASCADE"
-        );
+        // Per job leaderboards walk this index instead of sorting every player's progress
+        sqlManager.createIndex("job_progress", "job_progress_job_exp_idx", "job, exp");
+
+        new JobProgressMigrator(sqlManager, logger).migrate();
+
+        // Index the balances so balance top can walk them in order instead of sorting every account
+        for (Currency currency : getCurrencies()) {
+            String balanceColumn = ((TECurrency) currency).getName().toLowerCase() + "_balance";
+
+            sqlManager.createIndex("accounts", "accounts_" + balanceColumn + "_idx", "`" + balanceColumn + "`");
+        }
+    }
+
+    /**
+     * Setup the ledgers that keep the balances of resident accounts in memory and write them back to the database
+     * every save interval.
+     */
+    private void setupBalanceLedgers() {
+        accountLedger = new BalanceLedger(totalEconomy, sqlManager, logger, "accounts");
+        virtualAccountLedger = new BalanceLedger(totalEconomy, sqlManager, logger, "virtual_accounts");
+
+        accountLedger.startFlushTask(totalEconomy.getSaveInterval());
+        virtualAccountLedger.startFlushTask(totalEconomy.getSaveInterval());
     }
 
     /**
@@ -208,11 +316,26 @@ public class AccountManager implements EconomyService {
     }
 
     /**
-     * Reload the account config.
+     * Reload the account config. Cached account objects are dropped so accounts get checked for new currencies again.
      */
     public void reloadConfig() {
+        accountCache.invalidateAll();
+        virtualAccountCache.invalidateAll();
+
+        if (databaseActive) {
+            return;
+        }
+
         try {
-            accountConfig = loader.load();
+            accountConfig = accountStorage.load();
+
+            if (balanceJournal != null) {
+                balanceJournal.replay(accountConfig, accountStorage);
+            }
+
+            balanceLeaderboard.clear();
+            balanceLeaderboard.load(accountConfig, getCurrencies());
+
             logger.info("Reloading account configuration file.");
         } catch (IOException e) {
             logger.warn("An error occurred while reloading the account configuration file!");
@@ -227,6 +350,27 @@ public class AccountManager implements EconomyService {
      */
     @Override
     public Optional<UniqueAccount> getOrCreateAccount(UUID uuid) {
+        Optional<UniqueAccount> account = accountCache.getIfPresent(uuid);
+
+        if (account != null) {
+            return account;
+        }
+
+        return accountCache.asMap().computeIfAbsent(uuid, this::loadAccount);
+    }
+
+    /**
+     * Create the account object for a UUID, creating the account itself first if it doesn't exist yet.
+     *
+     * @param uuid {@link UUID} of the player an account is being loaded for
+     * @return Optional An optional account object
+     */
+    private Optional<UniqueAccount> loadAccount(UUID uuid) {
+        // Make sure an account queued on join has been written before it's used
+        if (accountCreationQueue != null && accountCreationQueue.isPending(uuid)) {
+            accountCreationQueue.flush();
+        }
+
         TEAccount playerAccount = new TEAccount(totalEconomy, this, uuid);
         boolean hasAccount = hasAccount(uuid);
 
@@ -247,6 +391,20 @@ public class AccountManager implements EconomyService {
         return Optional.of(playerAccount);
     }
 
+    /**
+     * Cache the account object and balances of a player whose queued account has been written, so their first economy
+     * call doesn't go to the database. Called off the server thread by the account creation queue.
+     *
+     * @param uuid {@link UUID} of the player
+     */
+    private void warmAccount(UUID uuid) {
+        accountCache.asMap().putIfAbsent(uuid, Optional.of(new TEAccount(totalEconomy, this, uuid)));
+
+        if (accountLedger != null) {
+            accountLedger.preload(uuid.toString());
+        }
+    }
+
     /**
      * Gets or creates a virtual account for the passed in identifier.
      *
@@ -255,6 +413,22 @@ public class AccountManager implements EconomyService {
      */
     @Override
     public Optional<Account> getOrCreateAccount(String identifier) {
+        Optional<Account> account = virtualAccountCache.getIfPresent(identifier);
+
+        if (account != null) {
+            return account;
+        }
+
+        return virtualAccountCache.asMap().computeIfAbsent(identifier, this::loadVirtualAccount);
+    }
+
+    /**
+     * Create the account object for a virtual account, creating the account itself first if it doesn't exist yet.
+     *
+     * @param identifier The virtual accounts identifier
+     * @return Optional An optional account object
+     */
+    private Optional<Account> loadVirtualAccount(String identifier) {
         TEVirtualAccount virtualAccount = new TEVirtualAccount(totalEconomy, this, identifier);
         boolean hasAccount = hasAccount(identifier);
 
@@ -275,6 +449,122 @@ public class AccountManager implements EconomyService {
         return Optional.of(virtualAccount);
     }
 
+    /**
+     * Prepare the account of a player that joined. In database mode the account is queued, so the accounts of players
+     * joining at the same time get created together, and cached once it has been written. Otherwise it's loaded
+     * straight away.
+     *
+     * @param uuid {@link UUID} of the player
+     */
+    public void preloadAccount(UUID uuid) {
+        if (accountCreationQueue != null) {
+            accountCreationQueue.enqueue(uuid);
+        } else {
+            getOrCreateAccount(uuid);
+        }
+    }
+
+    /**
+     * Get a non-blocking view of a unique account. The account is created on first use if it doesn't exist.
+     *
+     * @param uuid {@link UUID} of the player
+     * @return TEAsyncAccount The async account
+     */
+    public TEAsyncAccount getAsyncAccount(UUID uuid) {
+        return new TEAsyncAccount(this, () -> getOrCreateAccount(uuid).get());
+    }
+
+    /**
+     * Get a non-blocking view of a virtual account. The account is created on first use if it doesn't exist.
+     *
+     * @param identifier The virtual accounts identifier
+     * @return TEAsyncAccount The async account
+     */
+    public TEAsyncAccount getAsyncAccount(String identifier) {
+        return new TEAsyncAccount(this, () -> getOrCreateAccount(identifier).get());
+    }
+
+    /**
+     * Run an economy call on the economy I/O threads. The returned future completes on the server thread.
+     *
+     * @param task The economy call
+     * @return CompletableFuture The result of the call
+     */
+    public <T> CompletableFuture<T> supplyAsync(Supplier<T> task) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        List<TEEconomyTransactionEvent> events = new ArrayList<>();
+
+        CompletableFuture.supplyAsync(() -> {
+            List<TEEconomyTransactionEvent> outerEvents = pendingEvents.get();
+            pendingEvents.set(events);
+
+            try {
+                return task.get();
+            } finally {
+                pendingEvents.set(outerEvents);
+            }
+        }, asyncExecutor).whenComplete((value, throwable) -> syncExecutor.execute(() -> {
+            events.forEach(totalEconomy.getGame().getEventManager()::post);
+
+            if (throwable != null) {
+                logger.warn("An error occurred while running an async economy call!", throwable);
+                result.completeExceptionally(throwable);
+            } else {
+                result.complete(value);
+            }
+        }));
+
+        return result;
+    }
+
+    /**
+     * Post a {@link TEEconomyTransactionEvent} on the server thread. Events raised by an async economy call are posted
+     * when the call completes, events raised on any other thread are handed to the server thread.
+     *
+     * @param transactionResult The result of the transaction
+     */
+    void postTransactionEvent(TransactionResult transactionResult) {
+        postEvent(new TEEconomyTransactionEvent(transactionResult));
+    }
+
+    /**
+     * Post a {@link TEEconomyTransactionEvent} with the cause of the transaction on the server thread.
+     *
+     * @param transactionResult The result of the transaction
+     * @param cause The cause of the transaction
+     */
+    void postTransactionEvent(TransactionResult transactionResult, Cause cause) {
+        postEvent(new TEEconomyTransactionEvent(transactionResult, cause));
+    }
+
+    private void postEvent(TEEconomyTransactionEvent event) {
+        List<TEEconomyTransactionEvent> events = pendingEvents.get();
+
+        if (events != null) {
+            events.add(event);
+        } else if (Sponge.getServer().isMainThread()) {
+            totalEconomy.getGame().getEventManager().post(event);
+        } else {
+            syncExecutor.execute(() -> totalEconomy.getGame().getEventManager().post(event));
+        }
+    }
+
+    /**
+     * Stop accepting async economy calls and wait for the queued ones to finish, so their changes are part of the final
+     * save.
+     */
+    public void shutdownAsyncExecutor() {
+        asyncExecutor.shutdown();
+
+        try {
+            if (!asyncExecutor.awaitTermination(10, TimeUnit.SECONDS)) {
+                logger.warn("Timed out waiting for async economy calls to finish!");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     /**
      * Determines if a unique account is associated with the passed in UUID.
      *
@@ -351,33 +641,7 @@ public class AccountManager implements EconomyService {
      * @throws IOException Test
      */
     private void createAccountInDatabase(TEAccount playerAccount) {
-        UUID uuid = playerAccount.getUniqueId();
-
-        SqlQuery.builder(sqlManager.dataSource).insert("accounts")
-                .columns("uid", "job", "job_notifications")
-                .values(uuid.toString(), "unemployed", String.valueOf(totalEconomy.isJobNotificationEnabled()))
-                .build();
-
-        SqlQuery.builder(sqlManager.dataSource).insert("levels")
-                .columns("uid")
-                .values(uuid.toString())
-                .build();
-
-        SqlQuery.builder(sqlManager.dataSource).insert("experience")
-                .columns("uid")
-                .values(uuid.toString())
-                .build();
-
-        for (Currency currency : totalEconomy.getCurrencies()) {
-            TECurrency teCurrency = (TECurrency) currency;
-
-            SqlQuery.builder(sqlManager.dataSource).update("accounts")
-                    .set("`" + teCurrency.getName().toLowerCase() + "_balance`")
-                    .equals(playerAccount.getDefaultBalance(teCurrency).toString())
-                    .where("uid")
-                    .equals(uuid.toString())
-                    .build();
-        }
+        accountCreationQueue.createAccounts(Collections.singletonList(playerAccount.getUniqueId().toString()));
     }
 
     /**
@@ -393,15 +657,23 @@ public class AccountManager implements EconomyService {
                 .values(identifier)
                 .build();
 
+        Map<String, BigDecimal> balances = new HashMap<>();
+
         for (Currency currency : totalEconomy.getCurrencies()) {
             TECurrency teCurrency = (TECurrency) currency;
 
             SqlQuery.builder(sqlManager.dataSource).update("virtual_accounts")
                     .set("`" + teCurrency.getName().toLowerCase() + "_balance`")
-                    .equals(virtualAccount.getDefaultBalance(teCurrency).toString())
+                    .equals(virtualAccount.getDefaultBalance(teCurrency))
                     .where("uid")
                     .equals(identifier)
                     .build();
+
+            balances.put(teCurrency.getName().toLowerCase(), virtualAccount.getDefaultBalance(teCurrency));
+        }
+
+        if (virtualAccountLedger != null) {
+            virtualAccountLedger.cacheAccount(identifier, balances);
         }
     }
 
@@ -418,18 +690,13 @@ public class AccountManager implements EconomyService {
             TECurrency teCurrency = (TECurrency) currency;
 
             accountConfig.getNode(uuid.toString(), teCurrency.getName().toLowerCase() + "-balance").setValue(playerAccount.getDefaultBalance(teCurrency));
+            balanceLeaderboard.addAccount(uuid.toString(), teCurrency.getName().toLowerCase(), playerAccount.getDefaultBalance(teCurrency));
         }
 
         accountConfig.getNode(uuid.toString(), "job").setValue("unemployed");
         accountConfig.getNode(uuid.toString(), "jobnotifications").setValue(totalEconomy.isJobNotificationEnabled());
 
-        executor.submit(() -> {
-            try {
-                loader.save(accountConfig);
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        });
+        requestConfigurationSave(uuid.toString());
     }
 
     /**
@@ -447,13 +714,7 @@ public class AccountManager implements EconomyService {
             accountConfig.getNode(identifier, teCurrency.getName().toLowerCase() + "-balance").setValue(virtualAccount.getDefaultBalance(teCurrency));
         }
 
-        executor.submit(() -> {
-            try {
-                loader.save(accountConfig);
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        });
+        requestConfigurationSave(identifier);
     }
 
     /**
@@ -471,16 +732,11 @@ public class AccountManager implements EconomyService {
 
             if (!playerAccount.hasBalance(teCurrency)) {
                 accountConfig.getNode(uuid.toString(), teCurrency.getName().toLowerCase() + "-balance").setValue(playerAccount.getDefaultBalance(teCurrency));
+                balanceLeaderboard.addAccount(uuid.toString(), teCurrency.getName().toLowerCase(), playerAccount.getDefaultBalance(teCurrency));
             }
         }
 
-        executor.submit(() -> {
-            try {
-                loader.save(accountConfig);
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        });
+        requestConfigurationSave(uuid.toString());
     }
 
     /**
@@ -501,142 +757,426 @@ public class AccountManager implements EconomyService {
             }
         }
 
+        requestConfigurationSave(identifier);
+    }
+
+    /**
+     * Used for the debugging information provided by the listeners in the JobManager.
+     * Exists to allow administrators to retrieve the necessary information from mods in order to integrate them into jobs.
+     */
+    public Optional<String> getUserOption(String option, User user) {
+        // Currently no db support for this - Shouldn't be that necessary anyways
+        if (databaseActive) {
+            return Optional.empty();
+        }
+
+        return Optional.ofNullable(accountConfig.getNode(user.getUniqueId().toString(), "options", option).getString(null));
+    }
+
+    public void setUserOption(String option, User user, String value) {
+        // Currently no db support for this - Shouldn't be that necessary anyways
+        if (databaseActive) {
+            return;
+        }
+
+        accountConfig.getNode(user.getUniqueId().toString(), "options", option).setValue(value);
+        requestConfigurationSave(user.getUniqueId().toString());
+    }
+
+    /**
+     * Request for the account configuration file to be saved.
+     *
+     * @param identifier The identifier of the changed account
+     */
+    public void requestConfigurationSave(String identifier) {
+        accountStorage.markDirty(identifier);
+
+        if (totalEconomy.getSaveInterval() > 0) {
+            confSaveRequested = true;
+        } else {
+            saveConfiguration();
+        }
+    }
+
+    /**
+     * Save the changed accounts. The balance journal is left alone, unless a balance change couldn't be journaled since
+     * the last compaction, in which case the journal is compacted instead.
+     */
+    public void saveConfiguration() {
+        if (balanceJournal != null && journalCompactRequested) {
+            compactJournal();
+            return;
+        }
+
         executor.submit(() -> {
             try {
-                loader.save(accountConfig);
+                accountStorage.save(accountConfig);
             } catch (IOException e) {
                 e.printStackTrace();
+                logger.error("An error occurred while saving the account configuration file!");
             }
         });
     }
 
     /**
-     * Gets the passed in player's notification state.
-     *
-     * @param player The {@link Player} who's notification state to get
-     * @return boolean The notification state
+     * Compact the balance journal. A new journal generation is started, the changed accounts are saved, and the older
+     * generations are deleted once the save has completed.
      */
-    public boolean getJobNotificationState(Player player) {
-        UUID playerUniqueId = player.getUniqueId();
+    private void compactJournal() {
+        long snapshotGeneration = 0;
 
-        if (databaseActive) {
-            SqlQuery sqlQuery = SqlQuery.builder(sqlManager.dataSource).select("job_notifications")
-                    .from("accounts")
-                    .where("uid")
-                    .equals(playerUniqueId.toString())
-                    .build();
+        journalCompactRequested = false;
 
-            return sqlQuery.getBoolean(true);
-        } else {
-            return accountConfig.getNode(player.getUniqueId().toString(), "jobnotifications").getBoolean(true);
+        try {
+            snapshotGeneration = balanceJournal.rotate();
+        } catch (IOException e) {
+            logger.warn("An error occurred while starting a new balance journal!");
         }
+
+        // Generations started by later compactions may hold changes this snapshot missed, so only older ones are deleted
+        long keptGeneration = snapshotGeneration;
+
+        executor.submit(() -> {
+            try {
+                accountStorage.save(accountConfig);
+                balanceJournal.deleteOldGenerations(keptGeneration);
+            } catch (IOException e) {
+                e.printStackTrace();
+                logger.error("An error occurred while saving the account configuration file!");
+            }
+        });
     }
 
     /**
-     * Toggle a player's exp/money notifications for jobs.
+     * Get the lock guarding an account in the account configuration file. Accounts share a fixed number of locks, so
+     * the lock must only be held while the account's nodes are read and written.
      *
-     * @param player Player toggling notifications
+     * @param identifier The identifier of the account
+     * @return Lock The lock for the account
      */
-    public void toggleNotifications(Player player) {
-        boolean jobNotifications = !getJobNotificationState(player);
-        UUID playerUniqueId = player.getUniqueId();
+    Lock getAccountLock(String identifier) {
+        return accountLocks.get(identifier);
+    }
 
-        if (databaseActive) {
-            SqlQuery sqlQuery = SqlQuery.builder(sqlManager.dataSource).update("accounts")
-                    .set("job_notifications")
-                    .equals(jobNotifications ? "1" : "0")
-                    .where("uid")
-                    .equals(playerUniqueId.toString())
-                    .build();
+    /**
+     * Set the balance of an account in the account configuration file.
+     *
+     * @param identifier The identifier of the account
+     * @param currency The currency of the balance
+     * @param amount The new balance
+     * @return ResultType SUCCESS, or FAILED if the account has no balance for the currency
+     */
+    ResultType setBalanceInConfig(String identifier, Currency currency, BigDecimal amount) {
+        String currencyName = currency.getDisplayName().toPlain().toLowerCase();
+        Lock lock = getAccountLock(identifier);
+        ResultType resultType;
+
+        lock.lock();
 
-            if (sqlQuery.getRowsAffected() <= 0) {
-                player.sendMessage(Text.of(TextColors.RED, "Error toggling notifications! Try again. If this keeps showing up, notify the server owner or plugin developer."));
-                logger.warn("An error occurred while updating the notification state in the database!");
+        try {
+            ConfigurationNode balanceNode = accountConfig.getNode(identifier, currencyName + "-balance");
+
+            if (balanceNode.getValue() != null) {
+                balanceNode.setValue(amount.setScale(2, BigDecimal.ROUND_DOWN));
+                balanceChanged(identifier, currencyName, amount);
+                resultType = ResultType.SUCCESS;
+            } else {
+                resultType = ResultType.FAILED;
             }
-        } else {
-            accountConfig.getNode(player.getUniqueId().toString(), "jobnotifications").setValue(jobNotifications);
-
-            executor.submit(() -> {
-                try {
-                    loader.save(accountConfig);
-                } catch (IOException e) {
-                    e.printStackTrace();
-                    player.sendMessage(Text.of(TextColors.RED, "Error toggling notifications! Try again. If this keeps showing up, notify the server owner or plugin developer."));
-                    logger.warn("An error occurred while updating the notification state!");
-                }
-            });
+        } finally {
+            lock.unlock();
         }
 
-        if (jobNotifications) {
-            player.sendMessage(messageManager.getMessage("notifications.on"));
-        } else {
-            player.sendMessage(messageManager.getMessage("notifications.off"));
+        return resultType;
+    }
+
+    /**
+     * Add to or remove from the balance of an account in the account configuration file. The balance is read and
+     * written while holding the account's lock so concurrent changes to the same account are never lost.
+     *
+     * @param identifier The identifier of the account
+     * @param currency The currency of the balance
+     * @param delta The amount to add, negative to remove
+     * @return ResultType SUCCESS, ACCOUNT_NO_FUNDS if the balance is too low, or FAILED
+     */
+    ResultType adjustBalanceInConfig(String identifier, Currency currency, BigDecimal delta) {
+        String currencyName = currency.getDisplayName().toPlain().toLowerCase();
+        Lock lock = getAccountLock(identifier);
+        ResultType resultType;
+
+        lock.lock();
+
+        try {
+            resultType = applyBalanceDelta(identifier, currencyName, delta);
+        } finally {
+            lock.unlock();
         }
+
+        return resultType;
     }
 
     /**
-     * Used for the debugging information provided by the listeners in the JobManager.
-     * Exists to allow administrators to retrieve the necessary information from mods in order to integrate them into jobs.
+     * Move money between two accounts in the account configuration file. The locks of both accounts are taken in stripe
+     * order, so two transfers running in opposite directions can't deadlock.
+     *
+     * @param fromIdentifier The identifier of the account the money is taken from
+     * @param toIdentifier The identifier of the account the money is given to
+     * @param currency The currency to transfer
+     * @param amount The amount to transfer
+     * @return ResultType SUCCESS, ACCOUNT_NO_FUNDS if the sender can't afford it, or FAILED
      */
-    public Optional<String> getUserOption(String option, User user) {
-        // Currently no db support for this - Shouldn't be that necessary anyways
-        if (databaseActive) {
-            return Optional.empty();
+    ResultType transferInConfig(String fromIdentifier, String toIdentifier, Currency currency, BigDecimal amount) {
+        String currencyName = currency.getDisplayName().toPlain().toLowerCase();
+        Iterable<Lock> locks = accountLocks.bulkGet(Arrays.asList(fromIdentifier, toIdentifier));
+        ResultType resultType;
+
+        locks.forEach(Lock::lock);
+
+        try {
+            if (accountConfig.getNode(toIdentifier, currencyName + "-balance").getValue() == null) {
+                resultType = ResultType.FAILED;
+            } else {
+                resultType = applyBalanceDelta(fromIdentifier, currencyName, amount.negate());
+
+                if (resultType == ResultType.SUCCESS) {
+                    resultType = applyBalanceDelta(toIdentifier, currencyName, amount);
+                }
+            }
+        } finally {
+            locks.forEach(Lock::unlock);
         }
 
-        return Optional.ofNullable(accountConfig.getNode(user.getUniqueId().toString(), "options", option).getString(null));
+        return resultType;
     }
 
-    public void setUserOption(String option, User user, String value) {
-        // Currently no db support for this - Shouldn't be that necessary anyways
-        if (databaseActive) {
-            return;
+    /**
+     * Apply a change to a balance node. Callers must hold the account's lock.
+     */
+    private ResultType applyBalanceDelta(String identifier, String currencyName, BigDecimal delta) {
+        ConfigurationNode balanceNode = accountConfig.getNode(identifier, currencyName + "-balance");
+
+        if (balanceNode.getValue() == null) {
+            return ResultType.FAILED;
         }
 
-        accountConfig.getNode(user.getUniqueId().toString(), "options", option).setValue(value);
+        BigDecimal newBalance = new BigDecimal(balanceNode.getString()).add(delta);
+
+        if (newBalance.compareTo(BigDecimal.ZERO) < 0) {
+            return ResultType.ACCOUNT_NO_FUNDS;
+        }
+
+        newBalance = newBalance.min(totalEconomy.getMoneyCap()).setScale(2, BigDecimal.ROUND_DOWN);
+
+        balanceNode.setValue(newBalance);
+        balanceChanged(identifier, currencyName, newBalance);
+
+        return ResultType.SUCCESS;
     }
 
     /**
-     * Request for the account configuration file to be saved.
+     * Record a changed balance. The change is appended to the balance journal when enabled, in which case the account
+     * is only written at the next compaction. Callers must hold the account's lock so journal records of an account are
+     * in the same order as its changes.
      */
-    public void requestConfigurationSave() {
-        if (totalEconomy.getSaveInterval() > 0) {
-            confSaveRequested = true;
+    private void balanceChanged(String identifier, String currencyName, BigDecimal balance) {
+        balanceLeaderboard.setBalance(identifier, currencyName, balance);
+
+        if (balanceJournal != null && balanceJournal.append(identifier, currencyName, balance)) {
+            accountStorage.markDirty(identifier);
         } else {
-            saveConfiguration();
+            // Older journal records of the account would be replayed over the saved balance, so they're compacted away
+            if (balanceJournal != null) {
+                journalCompactRequested = true;
+            }
+
+            requestConfigurationSave(identifier);
         }
     }
 
     /**
-     * Save the account configuration file.
+     * Atomically add to or remove from the balance of a database backed account. Goes through the balance ledger when
+     * write-behind is enabled, otherwise a single conditional update is run against the database.
+     *
+     * @param account The {@link TEAccount} or {@link TEVirtualAccount} to update
+     * @param currency The currency of the balance
+     * @param delta The amount to add, negative to remove
+     * @return ResultType SUCCESS, ACCOUNT_NO_FUNDS if the balance is too low, or FAILED
      */
-    public void saveConfiguration() {
-        executor.submit(() -> {
-            try {
-                loader.save(accountConfig);
-            } catch (IOException e) {
-                e.printStackTrace();
-                logger.error("An error occurred while saving the account configuration file!");
+    ResultType adjustBalanceInDatabase(Account account, Currency currency, BigDecimal delta) {
+        String currencyName = currency.getDisplayName().toPlain().toLowerCase();
+        BalanceLedger ledger = getBalanceLedger(account);
+
+        ResultType resultType = ledger != null
+                ? ledger.adjustBalance(account.getIdentifier(), currencyName, delta, getMoneyCap())
+                : sqlManager.adjustBalance(getTableName(account), account.getIdentifier(), currencyName, delta, getMoneyCap());
+
+        if (resultType == ResultType.SUCCESS) {
+            balanceLeaderboard.adjustBalance(account.getIdentifier(), currencyName, delta, getMoneyCap());
+        }
+
+        return resultType;
+    }
+
+    /**
+     * Deposit into many player accounts at once. In database mode without write-behind all deposits are applied in a
+     * single batched transaction, otherwise each one is a cheap in-memory update. A transaction event is posted for
+     * each deposit with the cause of that deposit.
+     *
+     * @param currency The currency to deposit
+     * @param amounts The amount to deposit into each account
+     * @param causes The cause of each deposit
+     * @return Map The result of each deposit
+     */
+    public Map<UUID, TransactionResult> depositAll(Currency currency, Map<UUID, BigDecimal> amounts, Map<UUID, Cause> causes) {
+        String currencyName = currency.getDisplayName().toPlain().toLowerCase();
+        Map<UUID, TransactionResult> results = new HashMap<>();
+        Map<String, ResultType> resultTypes = new HashMap<>();
+        Map<UUID, TEAccount> accounts = new HashMap<>();
+
+        amounts.forEach((uuid, amount) -> getOrCreateAccount(uuid).ifPresent(account -> accounts.put(uuid, (TEAccount) account)));
+
+        if (databaseActive && accountLedger == null) {
+            Map<String, BigDecimal> deltas = new HashMap<>();
+            accounts.keySet().forEach(uuid -> deltas.put(uuid.toString(), amounts.get(uuid)));
+
+            if (!deltas.isEmpty()) {
+                resultTypes.putAll(sqlManager.adjustBalances("accounts", deltas, currencyName, getMoneyCap()));
             }
+        } else {
+            accounts.forEach((uuid, account) -> {
+                ResultType resultType = databaseActive
+                        ? accountLedger.adjustBalance(uuid.toString(), currencyName, amounts.get(uuid), getMoneyCap())
+                        : adjustBalanceInConfig(uuid.toString(), currency, amounts.get(uuid));
+
+                resultTypes.put(uuid.toString(), resultType);
+            });
+        }
+
+        amounts.forEach((uuid, amount) -> {
+            TEAccount account = accounts.get(uuid);
+            ResultType resultType = resultTypes.getOrDefault(uuid.toString(), ResultType.FAILED);
+
+            if (account == null) {
+                logger.warn("Could not find the account of " + uuid + " to deposit into!");
+
+                return;
+            }
+
+            // Balances in the configuration file are ranked as they are written
+            if (databaseActive && resultType == ResultType.SUCCESS) {
+                balanceLeaderboard.adjustBalance(uuid.toString(), currencyName, amount, getMoneyCap());
+            }
+
+            TransactionResult transactionResult = new TETransactionResult(account, currency, amount, new HashSet<>(), resultType, TransactionTypes.DEPOSIT);
+            postTransactionEvent(transactionResult, causes.get(uuid));
+
+            results.put(uuid, transactionResult);
         });
+
+        return results;
     }
 
     /**
-     * Get the account configuration file.
+     * Atomically move money between two database backed accounts. Goes through the balance ledgers when write-behind is
+     * enabled, otherwise both legs run in a single database transaction.
      *
-     * @return ConfigurationNode the account configuration
+     * @param from The {@link TEAccount} or {@link TEVirtualAccount} the money is taken from
+     * @param to The {@link TEAccount} or {@link TEVirtualAccount} the money is given to
+     * @param currency The currency to transfer
+     * @param amount The amount to transfer
+     * @return ResultType SUCCESS, ACCOUNT_NO_FUNDS if the sender can't afford it, or FAILED
      */
-    public ConfigurationNode getAccountConfig() {
-        return accountConfig;
+    ResultType transferInDatabase(Account from, Account to, Currency currency, BigDecimal amount) {
+        String currencyName = currency.getDisplayName().toPlain().toLowerCase();
+        BalanceLedger fromLedger = getBalanceLedger(from);
+        BalanceLedger toLedger = getBalanceLedger(to);
+
+        ResultType resultType = fromLedger != null && toLedger != null
+                ? BalanceLedger.transfer(fromLedger, from.getIdentifier(), toLedger, to.getIdentifier(), currencyName, amount, getMoneyCap())
+                : sqlManager.transferBalance(getTableName(from), from.getIdentifier(), getTableName(to), to.getIdentifier(), currencyName, amount, getMoneyCap());
+
+        if (resultType == ResultType.SUCCESS) {
+            balanceLeaderboard.adjustBalance(from.getIdentifier(), currencyName, amount.negate(), getMoneyCap());
+            balanceLeaderboard.adjustBalance(to.getIdentifier(), currencyName, amount, getMoneyCap());
+        }
+
+        return resultType;
+    }
+
+    private BalanceLedger getBalanceLedger(Account account) {
+        return account instanceof TEVirtualAccount ? virtualAccountLedger : accountLedger;
+    }
+
+    private String getTableName(Account account) {
+        return account instanceof TEVirtualAccount ? "virtual_accounts" : "accounts";
+    }
+
+    private BigDecimal getMoneyCap() {
+        return totalEconomy.isMoneyCapEnabled() ? totalEconomy.getMoneyCap() : null;
+    }
+
+    /**
+     * Flush every dirty balance held by the balance ledgers to the database. Blocks until the balances are written.
+     */
+    public void flushBalanceLedgers() {
+        if (accountLedger != null) {
+            accountLedger.stopFlushTask();
+            accountLedger.flush();
+        }
+
+        if (virtualAccountLedger != null) {
+            virtualAccountLedger.stopFlushTask();
+            virtualAccountLedger.flush();
+        }
+    }
+
+    /**
+     * Release the cached account object of a unique account, and its in-memory balances once they have been written to
+     * the database.
+     *
+     * @param uuid {@link UUID} of the account to release
+     */
+    public void unloadAccount(UUID uuid) {
+        accountCache.invalidate(uuid);
+
+        if (accountLedger != null) {
+            accountLedger.evict(uuid.toString());
+        }
+    }
+
+    /**
+     * Get the balance ledger for unique accounts.
+     *
+     * @return BalanceLedger The ledger, null if write-behind is disabled or the database is not in use
+     */
+    public BalanceLedger getAccountLedger() {
+        return accountLedger;
     }
 
     /**
-     * Get the configuration manager.
+     * Get the leaderboard that ranks player accounts by balance.
      *
-     * @return ConfigurationLoader The configuration loader for the account config
+     * @return BalanceLeaderboard The balance leaderboard
      */
-    public ConfigurationLoader<CommentedConfigurationNode> getConfigManager() {
-        return loader;
+    public BalanceLeaderboard getBalanceLeaderboard() {
+        return balanceLeaderboard;
     }
 
+    /**
+     * Get the balance ledger for virtual accounts.
+     *
+     * @return BalanceLedger The ledger, null if write-behind is disabled or the database is not in use
+     */
+    public BalanceLedger getVirtualAccountLedger() {
+        return virtualAccountLedger;
+    }
+
+    /**
+     * Get the account configuration file.
+     *
+     * @return ConfigurationNode the account configuration
+     */
+    public ConfigurationNode getAccountConfig() {
+        return accountConfig;
+    }
 }
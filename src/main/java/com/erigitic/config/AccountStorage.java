@@ -0,0 +1,65 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.erigitic.config;
+
+import java.io.IOException;
+
+import ninja.leaping.configurate.ConfigurationNode;
+
+/**
+ * Persists the account tree used in flat-file mode. Each top level child of the tree is one account, keyed by its
+ * identifier.
+ */
+public interface AccountStorage {
+
+    /**
+     * Load the account tree.
+     *
+     * @return ConfigurationNode The root of the account tree
+     * @throws IOException Error reading the accounts
+     */
+    ConfigurationNode load() throws IOException;
+
+    /**
+     * Mark an account as changed so the next save writes it.
+     *
+     * @param identifier The identifier of the changed account
+     */
+    void markDirty(String identifier);
+
+    /**
+     * Mark every account as changed so the next save writes all of them.
+     */
+    void markAllDirty();
+
+    /**
+     * Write the changed accounts of the account tree.
+     *
+     * @param accountConfig The root of the account tree
+     * @throws IOException Error writing the accounts
+     */
+    void save(ConfigurationNode accountConfig) throws IOException;
+}
@@ -0,0 +1,278 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.erigitic.config;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import ninja.leaping.configurate.ConfigurationNode;
+
+import org.slf4j.Logger;
+
+/**
+ * Append-only log of balance changes made in flat-file mode. Every change is appended to the journal file as a fixed
+ * size record holding the new balance, so it survives a crash of the server between two snapshots of the account
+ * storage without rewriting any account file.
+ *
+ * <p>The journal is split into generations. Compacting starts a new generation, writes a snapshot of the account
+ * storage, and then deletes the older generations, whose changes are all part of the snapshot. On startup every
+ * remaining generation is replayed on top of the last snapshot. Records hold absolute balances, so replaying a change
+ * that already made it into the snapshot is harmless.</p>
+ *
+ * <p>Record layout: identifier length and up to 63 bytes of identifier, currency length and up to 15 bytes of currency
+ * name, the balance as an unscaled long with a scale of 2, and the time of the change.</p>
+ */
+public class BalanceJournal {
+
+    public static final int RECORD_SIZE = 96;
+
+    private static final int IDENTIFIER_BYTES = 63;
+    private static final int CURRENCY_BYTES = 15;
+    private static final int BALANCE_SCALE = 2;
+
+    private static final String FILE_PREFIX = "accounts.journal.";
+
+    private final Logger logger;
+    private final File directory;
+
+    private long generation;
+    private FileChannel channel;
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+
+    /**
+     * Constructor for the BalanceJournal class.
+     *
+     * @param logger The plugin logger
+     * @param directory The directory holding the journal files
+     */
+    public BalanceJournal(Logger logger, File directory) {
+        this.logger = logger;
+        this.directory = directory;
+    }
+
+    /**
+     * Replay every journal generation on top of the loaded account tree, oldest generation first. Every account that
+     * gets changed is marked dirty in the account storage.
+     *
+     * @param accountConfig The root of the account tree
+     * @param accountStorage The storage the account tree was loaded from
+     * @return int The number of records replayed
+     * @throws IOException Error reading a journal file
+     */
+    public int replay(ConfigurationNode accountConfig, AccountStorage accountStorage) throws IOException {
+        int replayed = 0;
+
+        for (Path journalFile : getJournalFiles()) {
+            generation = Math.max(generation, getGeneration(journalFile));
+
+            ByteBuffer records = ByteBuffer.wrap(Files.readAllBytes(journalFile));
+
+            while (records.remaining() >= RECORD_SIZE) {
+                int recordStart = records.position();
+                int identifierLength = records.get() & 0xFF;
+
+                // Journal files written by older versions were memory mapped, their unused part is zero filled
+                if (identifierLength == 0) {
+                    break;
+                }
+
+                String identifier = readString(records, identifierLength, IDENTIFIER_BYTES);
+                String currencyName = readString(records, records.get() & 0xFF, CURRENCY_BYTES);
+                BigDecimal balance = new BigDecimal(BigInteger.valueOf(records.getLong()), BALANCE_SCALE);
+
+                records.getLong();
+                records.position(recordStart + RECORD_SIZE);
+
+                accountConfig.getNode(identifier, currencyName + "-balance").setValue(balance);
+                accountStorage.markDirty(identifier);
+                replayed++;
+            }
+        }
+
+        return replayed;
+    }
+
+    /**
+     * Start a new journal generation. Records appended from now on go to the new generation.
+     *
+     * @return long The new generation
+     * @throws IOException Error creating the journal file
+     */
+    public synchronized long rotate() throws IOException {
+        close();
+
+        generation++;
+
+        Path journalFile = directory.toPath().resolve(FILE_PREFIX + generation);
+
+        channel = FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+
+        return generation;
+    }
+
+    /**
+     * Delete every journal generation before the passed in one. Must only be called once a snapshot holding every change
+     * of those generations has been written. Takes the generation started for that snapshot rather than the current
+     * one, since a later rotate may have started a generation whose changes aren't part of the snapshot.
+     *
+     * @param keptGeneration The generation started right before the snapshot was taken
+     */
+    public void deleteOldGenerations(long keptGeneration) {
+        List<Path> journalFiles;
+
+        try {
+            journalFiles = getJournalFiles();
+        } catch (IOException e) {
+            logger.warn("An error occurred while listing the balance journal files!");
+            return;
+        }
+
+        // A file that can't be deleted now is tried again after the next compaction
+        for (Path journalFile : journalFiles) {
+            if (getGeneration(journalFile) < keptGeneration) {
+                try {
+                    Files.delete(journalFile);
+                } catch (IOException e) {
+                    logger.warn("Could not delete compacted journal file " + journalFile.getFileName() + "!");
+                }
+            }
+        }
+    }
+
+    /**
+     * Append the new balance of an account.
+     *
+     * @param identifier The identifier of the account
+     * @param currencyName The name of the currency
+     * @param balance The new balance
+     * @return boolean If the change was journaled, false if the identifier, currency name or balance doesn't fit in a
+     *     record
+     */
+    public synchronized boolean append(String identifier, String currencyName, BigDecimal balance) {
+        byte[] identifierBytes = identifier.getBytes(StandardCharsets.UTF_8);
+        byte[] currencyBytes = currencyName.getBytes(StandardCharsets.UTF_8);
+        long unscaledBalance;
+
+        if (channel == null || identifierBytes.length > IDENTIFIER_BYTES || currencyBytes.length > CURRENCY_BYTES) {
+            return false;
+        }
+
+        try {
+            unscaledBalance = balance.setScale(BALANCE_SCALE, BigDecimal.ROUND_DOWN).unscaledValue().longValueExact();
+        } catch (ArithmeticException e) {
+            return false;
+        }
+
+        record.clear();
+        record.put((byte) identifierBytes.length);
+        record.put(identifierBytes);
+        record.position(1 + IDENTIFIER_BYTES);
+        record.put((byte) currencyBytes.length);
+        record.put(currencyBytes);
+        record.position(2 + IDENTIFIER_BYTES + CURRENCY_BYTES);
+        record.putLong(unscaledBalance);
+        record.putLong(System.currentTimeMillis());
+        record.flip();
+
+        try {
+            while (record.hasRemaining()) {
+                channel.write(record);
+            }
+        } catch (IOException e) {
+            logger.warn("An error occurred while writing to the balance journal!");
+
+            // A partly written record would shift every record after it, so nothing more goes into this generation
+            try {
+                close();
+            } catch (IOException closeException) {
+                logger.warn("An error occurred while closing the balance journal!");
+            }
+
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Close the current journal generation.
+     *
+     * @throws IOException Error closing the journal file
+     */
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            try {
+                channel.force(false);
+            } finally {
+                channel.close();
+                channel = null;
+            }
+        }
+    }
+
+    private List<Path> getJournalFiles() throws IOException {
+        List<Path> journalFiles = new ArrayList<>();
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory.toPath(), FILE_PREFIX + "*")) {
+            for (Path journalFile : files) {
+                if (getGeneration(journalFile) >= 0) {
+                    journalFiles.add(journalFile);
+                }
+            }
+        }
+
+        journalFiles.sort((a, b) -> Long.compare(getGeneration(a), getGeneration(b)));
+
+        return journalFiles;
+    }
+
+    private long getGeneration(Path journalFile) {
+        try {
+            return Long.parseLong(journalFile.getFileName().toString().substring(FILE_PREFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private String readString(ByteBuffer records, int length, int fieldBytes) {
+        byte[] bytes = new byte[fieldBytes];
+
+        records.get(bytes);
+
+        return new String(bytes, 0, Math.min(length, fieldBytes), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.erigitic.config;
+
+import com.erigitic.sql.SqlManager;
+import com.erigitic.util.RankedIndex;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import ninja.leaping.configurate.ConfigurationNode;
+import org.slf4j.Logger;
+import org.spongepowered.api.service.economy.Currency;
+
+/**
+ * Ranks player accounts by their balance in each currency. The rankings are built from storage once at startup and
+ * every balance change is applied to them as it happens, so any page of balance top is read without touching storage.
+ * Virtual accounts aren't ranked.
+ */
+public class BalanceLeaderboard {
+
+    private final Logger logger;
+    private final Map<String, RankedIndex<UUID, BigDecimal>> rankings = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor for the BalanceLeaderboard class.
+     *
+     * @param logger Logger
+     */
+    public BalanceLeaderboard(Logger logger) {
+        this.logger = logger;
+    }
+
+    /**
+     * Rank the balances of every account in the database.
+     *
+     * @param sqlManager The {@link SqlManager} of the database
+     * @param currencies The currencies to rank
+     */
+    public void load(SqlManager sqlManager, Collection<Currency> currencies) {
+        StringBuilder columns = new StringBuilder("uid");
+
+        for (Currency currency : currencies) {
+            columns.append(", `").append(getCurrencyName(currency)).append("_balance`");
+        }
+
+        try (Connection conn = sqlManager.dataSource.getConnection();
+             PreparedStatement statement = conn.prepareStatement("SELECT " + columns + " FROM accounts");
+             ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                UUID uuid = toUniqueId(resultSet.getString("uid"));
+
+                if (uuid != null) {
+                    for (Currency currency : currencies) {
+                        String currencyName = getCurrencyName(currency);
+
+                        getRanking(currencyName).put(uuid, resultSet.getBigDecimal(currencyName + "_balance"));
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            logger.warn("An error occurred while loading the balance leaderboard!", e);
+        }
+    }
+
+    /**
+     * Rank the balances of every account in the account configuration.
+     *
+     * @param accountConfig The account configuration
+     * @param currencies The currencies to rank
+     */
+    public void load(ConfigurationNode accountConfig, Collection<Currency> currencies) {
+        accountConfig.getChildrenMap().forEach((identifier, accountNode) -> {
+            UUID uuid = toUniqueId(identifier.toString());
+
+            if (uuid == null) {
+                return;
+            }
+
+            for (Currency currency : currencies) {
+                String currencyName = getCurrencyName(currency);
+                String balance = accountNode.getNode(currencyName + "-balance").getString();
+
+                if (balance != null) {
+                    getRanking(currencyName).put(uuid, new BigDecimal(balance));
+                }
+            }
+        });
+    }
+
+    /**
+     * Remove every account from the rankings.
+     */
+    public void clear() {
+        rankings.clear();
+    }
+
+    /**
+     * Get the ranking of player accounts by their balance in a currency.
+     *
+     * @param currency The currency
+     * @return RankedIndex The accounts, highest balance first
+     */
+    public RankedIndex<UUID, BigDecimal> getRanking(Currency currency) {
+        return getRanking(getCurrencyName(currency));
+    }
+
+    private RankedIndex<UUID, BigDecimal> getRanking(String currencyName) {
+        return rankings.computeIfAbsent(currencyName, k -> new RankedIndex<>());
+    }
+
+    /**
+     * Record the new balance of an account.
+     *
+     * @param identifier The identifier of the account
+     * @param currencyName The lower case name of the currency
+     * @param balance The new balance
+     */
+    public void setBalance(String identifier, String currencyName, BigDecimal balance) {
+        UUID uuid = toUniqueId(identifier);
+
+        if (uuid != null) {
+            getRanking(currencyName).put(uuid, balance);
+        }
+    }
+
+    /**
+     * Record the starting balance of a new account. Accounts that are already ranked keep their balance.
+     *
+     * @param identifier The identifier of the account
+     * @param currencyName The lower case name of the currency
+     * @param balance The starting balance
+     */
+    public void addAccount(String identifier, String currencyName, BigDecimal balance) {
+        UUID uuid = toUniqueId(identifier);
+
+        if (uuid != null) {
+            getRanking(currencyName).putIfAbsent(uuid, balance);
+        }
+    }
+
+    /**
+     * Record a change that was applied to the balance of an account, for storage that doesn't report the new balance.
+     *
+     * @param identifier The identifier of the account
+     * @param currencyName The lower case name of the currency
+     * @param delta The amount that was added, negative if removed
+     * @param cap The largest balance allowed, null if there is none
+     */
+    public void adjustBalance(String identifier, String currencyName, BigDecimal delta, BigDecimal cap) {
+        UUID uuid = toUniqueId(identifier);
+
+        if (uuid == null) {
+            return;
+        }
+
+        RankedIndex<UUID, BigDecimal> ranking = getRanking(currencyName);
+
+        // Two changes to the same account must not both start from the old balance
+        synchronized (ranking) {
+            ranking.getScore(uuid).ifPresent(balance -> {
+                BigDecimal newBalance = balance.add(delta);
+
+                if (cap != null) {
+                    newBalance = newBalance.min(cap);
+                }
+
+                ranking.put(uuid, newBalance.setScale(2, BigDecimal.ROUND_DOWN));
+            });
+        }
+    }
+
+    private String getCurrencyName(Currency currency) {
+        return currency.getDisplayName().toPlain().toLowerCase();
+    }
+
+    /**
+     * Get the {@link UUID} of a player account from its identifier.
+     *
+     * @param identifier The identifier of the account
+     * @return UUID The UUID, null for virtual accounts
+     */
+    private UUID toUniqueId(String identifier) {
+        // Avoid throwing for every virtual account, most of which look nothing like a UUID
+        if (identifier.length() != 36 || identifier.charAt(8) != '-') {
+            return null;
+        }
+
+        try {
+            return UUID.fromString(identifier);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
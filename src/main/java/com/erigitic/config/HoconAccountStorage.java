@@ -0,0 +1,68 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.erigitic.config;
+
+import java.io.File;
+import java.io.IOException;
+
+import ninja.leaping.configurate.ConfigurationNode;
+import ninja.leaping.configurate.ConfigurationOptions;
+import ninja.leaping.configurate.commented.CommentedConfigurationNode;
+import ninja.leaping.configurate.hocon.HoconConfigurationLoader;
+import ninja.leaping.configurate.loader.ConfigurationLoader;
+
+/**
+ * Stores every account in a single HOCON file. Any change rewrites the whole file.
+ */
+public class HoconAccountStorage implements AccountStorage {
+
+    private final ConfigurationLoader<CommentedConfigurationNode> loader;
+
+    public HoconAccountStorage(File accountsFile, ConfigurationOptions options) {
+        loader = HoconConfigurationLoader.builder()
+                .setFile(accountsFile)
+                .setDefaultOptions(options)
+                .build();
+    }
+
+    @Override
+    public ConfigurationNode load() throws IOException {
+        return loader.load();
+    }
+
+    @Override
+    public void markDirty(String identifier) {
+    }
+
+    @Override
+    public void markAllDirty() {
+    }
+
+    @Override
+    public void save(ConfigurationNode accountConfig) throws IOException {
+        loader.save(accountConfig);
+    }
+}
@@ -0,0 +1,501 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.erigitic.config;
+
+import com.erigitic.util.FileUtils;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import ninja.leaping.configurate.ConfigurationNode;
+import ninja.leaping.configurate.ConfigurationOptions;
+import ninja.leaping.configurate.SimpleConfigurationNode;
+import ninja.leaping.configurate.hocon.HoconConfigurationLoader;
+
+import org.slf4j.Logger;
+
+/**
+ * Stores accounts spread over a fixed number of binary shard files. An account always lives in the shard picked by the
+ * hash of its identifier, and a save only rewrites the shards holding a changed account. Each shard is written to a
+ * temporary file first and then moved over the old one, so a crash mid-save never leaves a half written shard behind.
+ *
+ * <p>Shard layout: magic, format version, account count, then for each account its identifier followed by its node
+ * tree. Nodes are encoded as a type tag followed by the value, maps and lists as a child count followed by the
+ * children.</p>
+ */
+public class ShardedAccountStorage implements AccountStorage {
+
+    private static final int MAGIC = 0x54454143;
+    private static final byte FORMAT_VERSION = 1;
+
+    private static final String SHARD_PREFIX = "shard-";
+    private static final String SHARD_SUFFIX = ".dat";
+
+    private static final byte TYPE_NULL = 0;
+    private static final byte TYPE_MAP = 1;
+    private static final byte TYPE_LIST = 2;
+    private static final byte TYPE_STRING = 3;
+    private static final byte TYPE_BOOLEAN = 4;
+    private static final byte TYPE_INT = 5;
+    private static final byte TYPE_LONG = 6;
+    private static final byte TYPE_DOUBLE = 7;
+    private static final byte TYPE_DECIMAL = 8;
+
+    private final Logger logger;
+    private final Path directory;
+    private final File legacyFile;
+    private final ConfigurationOptions options;
+    private final int shardCount;
+
+    private final Set<String>[] shardMembers;
+    private final BitSet dirtyShards;
+    private final Set<Path> unreadableFiles = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Constructor for the ShardedAccountStorage class.
+     *
+     * @param logger The plugin logger
+     * @param directory The directory holding the shard files
+     * @param legacyFile The accounts.conf file to import when no shards exist yet
+     * @param options The options of the account tree
+     * @param shardCount The number of shards the accounts are spread over
+     */
+    @SuppressWarnings("unchecked")
+    public ShardedAccountStorage(Logger logger, File directory, File legacyFile, ConfigurationOptions options, int shardCount) {
+        this.logger = logger;
+        this.directory = directory.toPath();
+        this.legacyFile = legacyFile;
+        this.options = options;
+        this.shardCount = Math.max(1, shardCount);
+
+        shardMembers = new Set[this.shardCount];
+        dirtyShards = new BitSet(this.shardCount);
+
+        for (int i = 0; i < this.shardCount; i++) {
+            shardMembers[i] = ConcurrentHashMap.newKeySet();
+        }
+    }
+
+    /**
+     * Load every shard into a single account tree. When there are no shards yet, the accounts are imported from the
+     * legacy accounts.conf file and written out as shards straight away.
+     *
+     * <p>A shard that can't be read doesn't stop the others from loading. It is recovered from its temporary file when
+     * a complete one was left behind, otherwise it is moved aside so the next save can't overwrite it.</p>
+     *
+     * @return ConfigurationNode The root of the account tree
+     * @throws IOException Error listing the shard directory
+     */
+    @Override
+    public ConfigurationNode load() throws IOException {
+        Files.createDirectories(directory);
+
+        ConfigurationNode root = SimpleConfigurationNode.root(options);
+        boolean foundShards = false;
+        boolean reshard = false;
+        List<Path> shardFiles = new ArrayList<>();
+
+        // Listed up front, since a shard that can't be read gets renamed while loading
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SHARD_PREFIX + "*" + SHARD_SUFFIX)) {
+            stream.forEach(shardFiles::add);
+        }
+
+        for (Path shardFile : shardFiles) {
+            foundShards = true;
+
+            int fileIndex = getFileIndex(shardFile);
+            Optional<ConfigurationNode> shardRootOpt = loadShard(shardFile, fileIndex);
+
+            if (!shardRootOpt.isPresent()) {
+                continue;
+            }
+
+            for (Map.Entry<Object, ? extends ConfigurationNode> account : shardRootOpt.get().getChildrenMap().entrySet()) {
+                String identifier = account.getKey().toString();
+                int shard = getShard(identifier);
+
+                root.getNode(identifier).setValue(account.getValue());
+                shardMembers[shard].add(identifier);
+
+                if (shard != fileIndex) {
+                    reshard = true;
+                }
+            }
+        }
+
+        if (!foundShards && legacyFile.exists()) {
+            return importLegacyFile();
+        }
+
+        // The shard count changed since the shards were written, so every account gets moved to its new shard
+        if (reshard) {
+            logger.info("Redistributing accounts over " + shardCount + " shards.");
+            markAllDirty();
+            save(root);
+        }
+
+        return root;
+    }
+
+    @Override
+    public void markDirty(String identifier) {
+        int shard = getShard(identifier);
+
+        shardMembers[shard].add(identifier);
+
+        synchronized (dirtyShards) {
+            dirtyShards.set(shard);
+        }
+    }
+
+    @Override
+    public void markAllDirty() {
+        synchronized (dirtyShards) {
+            dirtyShards.set(0, shardCount);
+        }
+    }
+
+    /**
+     * Write every dirty shard. A shard is marked clean before it is written, so a change made during the save marks it
+     * dirty again for the next one.
+     *
+     * @param accountConfig The root of the account tree
+     * @throws IOException Error writing a shard
+     */
+    @Override
+    public synchronized void save(ConfigurationNode accountConfig) throws IOException {
+        BitSet toWrite;
+
+        synchronized (dirtyShards) {
+            toWrite = (BitSet) dirtyShards.clone();
+            dirtyShards.clear();
+        }
+
+        try {
+            for (int shard = toWrite.nextSetBit(0); shard >= 0; shard = toWrite.nextSetBit(shard + 1)) {
+                if (!unreadableFiles.contains(getShardFile(shard))) {
+                    writeShard(shard, accountConfig);
+                }
+
+                toWrite.clear(shard);
+            }
+        } finally {
+            // Shards that weren't written get retried on the next save
+            if (!toWrite.isEmpty()) {
+                synchronized (dirtyShards) {
+                    dirtyShards.or(toWrite);
+                }
+            }
+        }
+
+        deleteStaleShards();
+    }
+
+    /**
+     * Import the accounts from the legacy accounts.conf file. The file is renamed once every shard has been written.
+     */
+    private ConfigurationNode importLegacyFile() throws IOException {
+        logger.info("Importing accounts from " + legacyFile.getName() + " into sharded storage.");
+
+        ConfigurationNode root = HoconConfigurationLoader.builder()
+                .setFile(legacyFile)
+                .setDefaultOptions(options)
+                .build()
+                .load();
+
+        for (Object key : root.getChildrenMap().keySet()) {
+            String identifier = key.toString();
+
+            shardMembers[getShard(identifier)].add(identifier);
+        }
+
+        markAllDirty();
+        save(root);
+
+        File importedFile = new File(legacyFile.getParentFile(), legacyFile.getName() + ".imported");
+
+        if (!legacyFile.renameTo(importedFile)) {
+            logger.warn("Could not rename " + legacyFile.getName() + " after importing it into sharded storage!");
+        }
+
+        logger.info("Imported " + root.getChildrenMap().size() + " accounts.");
+
+        return root;
+    }
+
+    private int getShard(String identifier) {
+        return Math.floorMod(identifier.hashCode(), shardCount);
+    }
+
+    private Path getShardFile(int shard) {
+        return directory.resolve(SHARD_PREFIX + shard + SHARD_SUFFIX);
+    }
+
+    private int getFileIndex(Path shardFile) {
+        String fileName = shardFile.getFileName().toString();
+
+        try {
+            return Integer.parseInt(fileName.substring(SHARD_PREFIX.length(), fileName.length() - SHARD_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Remove shard files left behind by a larger shard count. Their accounts have already been written to their new
+     * shards by the time this runs.
+     */
+    private void deleteStaleShards() throws IOException {
+        try (DirectoryStream<Path> shardFiles = Files.newDirectoryStream(directory, SHARD_PREFIX + "*" + SHARD_SUFFIX)) {
+            for (Path shardFile : shardFiles) {
+                int fileIndex = getFileIndex(shardFile);
+
+                if ((fileIndex < 0 || fileIndex >= shardCount) && !unreadableFiles.contains(shardFile)) {
+                    Files.delete(shardFile);
+                }
+            }
+        }
+    }
+
+    /**
+     * Read a single shard. When it can't be read, a complete temporary file left by an interrupted save takes its
+     * place. Otherwise the shard is renamed aside, or if even that fails, kept out of every save until the server
+     * restarts.
+     *
+     * @param shardFile The shard file
+     * @param fileIndex The shard number in the file name, or -1
+     * @return Optional<ConfigurationNode> The accounts in the shard, or empty when it couldn't be read
+     */
+    private Optional<ConfigurationNode> loadShard(Path shardFile, int fileIndex) {
+        try {
+            return Optional.of(readShard(shardFile));
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Could not read account shard " + shardFile.getFileName() + "!", e);
+        }
+
+        Path tempFile = shardFile.resolveSibling(shardFile.getFileName() + ".tmp");
+        Optional<ConfigurationNode> recovered = Optional.empty();
+
+        if (Files.exists(tempFile)) {
+            try {
+                recovered = Optional.of(readShard(tempFile));
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Could not recover " + shardFile.getFileName() + " from " + tempFile.getFileName() + "!");
+            }
+        }
+
+        Path asideFile = shardFile.resolveSibling(shardFile.getFileName() + ".corrupt-" + System.currentTimeMillis());
+
+        try {
+            Files.move(shardFile, asideFile);
+            logger.warn("Moved " + shardFile.getFileName() + " to " + asideFile.getFileName() + ".");
+        } catch (IOException e) {
+            logger.warn("Could not move " + shardFile.getFileName() + " aside, it won't be written until the server restarts!", e);
+
+            unreadableFiles.add(shardFile);
+
+            return recovered;
+        }
+
+        // The recovered accounts are written back to the shard by the next save
+        if (recovered.isPresent() && fileIndex >= 0 && fileIndex < shardCount) {
+            logger.warn("Recovered " + shardFile.getFileName() + " from " + tempFile.getFileName() + ".");
+
+            synchronized (dirtyShards) {
+                dirtyShards.set(fileIndex);
+            }
+        }
+
+        return recovered;
+    }
+
+    private ConfigurationNode readShard(Path shardFile) throws IOException {
+        ConfigurationNode root = SimpleConfigurationNode.root(options);
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(shardFile)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(shardFile.getFileName() + " is not an account shard");
+            }
+
+            byte version = in.readByte();
+
+            if (version != FORMAT_VERSION) {
+                throw new IOException(shardFile.getFileName() + " has unsupported format version " + version);
+            }
+
+            int accountCount = in.readInt();
+
+            for (int i = 0; i < accountCount; i++) {
+                String identifier = in.readUTF();
+
+                readNode(in, root.getNode(identifier));
+            }
+        }
+
+        return root;
+    }
+
+    private void writeShard(int shard, ConfigurationNode root) throws IOException {
+        Map<Object, ? extends ConfigurationNode> accounts = root.getChildrenMap();
+        List<String> identifiers = new ArrayList<>();
+
+        for (String identifier : shardMembers[shard]) {
+            if (accounts.containsKey(identifier)) {
+                identifiers.add(identifier);
+            } else {
+                shardMembers[shard].remove(identifier);
+            }
+        }
+
+        FileUtils.replaceFile(getShardFile(shard), stream -> {
+            DataOutputStream out = new DataOutputStream(stream);
+
+            out.writeInt(MAGIC);
+            out.writeByte(FORMAT_VERSION);
+            out.writeInt(identifiers.size());
+
+            for (String identifier : identifiers) {
+                out.writeUTF(identifier);
+                writeNode(out, root.getNode(identifier));
+            }
+
+            out.flush();
+        });
+    }
+
+    private void writeNode(DataOutputStream out, ConfigurationNode node) throws IOException {
+        if (node.hasMapChildren()) {
+            Map<Object, ? extends ConfigurationNode> children = node.getChildrenMap();
+
+            out.writeByte(TYPE_MAP);
+            out.writeInt(children.size());
+
+            for (Map.Entry<Object, ? extends ConfigurationNode> child : children.entrySet()) {
+                out.writeUTF(child.getKey().toString());
+                writeNode(out, child.getValue());
+            }
+        } else if (node.hasListChildren()) {
+            List<? extends ConfigurationNode> children = node.getChildrenList();
+
+            out.writeByte(TYPE_LIST);
+            out.writeInt(children.size());
+
+            for (ConfigurationNode child : children) {
+                writeNode(out, child);
+            }
+        } else {
+            Object value = node.getValue();
+
+            if (value == null) {
+                out.writeByte(TYPE_NULL);
+            } else if (value instanceof Boolean) {
+                out.writeByte(TYPE_BOOLEAN);
+                out.writeBoolean((Boolean) value);
+            } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+                out.writeByte(TYPE_INT);
+                out.writeInt(((Number) value).intValue());
+            } else if (value instanceof Long) {
+                out.writeByte(TYPE_LONG);
+                out.writeLong((Long) value);
+            } else if (value instanceof Double || value instanceof Float) {
+                out.writeByte(TYPE_DOUBLE);
+                out.writeDouble(((Number) value).doubleValue());
+            } else if (value instanceof BigDecimal) {
+                byte[] unscaled = ((BigDecimal) value).unscaledValue().toByteArray();
+
+                out.writeByte(TYPE_DECIMAL);
+                out.writeInt(((BigDecimal) value).scale());
+                out.writeByte(unscaled.length);
+                out.write(unscaled);
+            } else {
+                out.writeByte(TYPE_STRING);
+                out.writeUTF(value.toString());
+            }
+        }
+    }
+
+    private void readNode(DataInputStream in, ConfigurationNode node) throws IOException {
+        byte type = in.readByte();
+
+        switch (type) {
+            case TYPE_NULL:
+                break;
+            case TYPE_MAP:
+                int mapSize = in.readInt();
+
+                for (int i = 0; i < mapSize; i++) {
+                    readNode(in, node.getNode(in.readUTF()));
+                }
+                break;
+            case TYPE_LIST:
+                int listSize = in.readInt();
+
+                for (int i = 0; i < listSize; i++) {
+                    readNode(in, node.getAppendedNode());
+                }
+                break;
+            case TYPE_STRING:
+                node.setValue(in.readUTF());
+                break;
+            case TYPE_BOOLEAN:
+                node.setValue(in.readBoolean());
+                break;
+            case TYPE_INT:
+                node.setValue(in.readInt());
+                break;
+            case TYPE_LONG:
+                node.setValue(in.readLong());
+                break;
+            case TYPE_DOUBLE:
+                node.setValue(in.readDouble());
+                break;
+            case TYPE_DECIMAL:
+                int scale = in.readInt();
+                byte[] unscaled = new byte[in.readUnsignedByte()];
+
+                in.readFully(unscaled);
+                node.setValue(new BigDecimal(new BigInteger(unscaled), scale));
+                break;
+            default:
+                throw new IOException("Unknown node type " + type + " in account shard");
+        }
+    }
+}
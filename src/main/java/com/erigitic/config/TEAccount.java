@@ -26,6 +26,7 @@
 package com.erigitic.config;
 
 import com.erigitic.main.TotalEconomy;
+import com.erigitic.sql.BalanceLedger;
 import com.erigitic.sql.SqlManager;
 import com.erigitic.sql.SqlQuery;
 import java.math.BigDecimal;
@@ -53,6 +54,7 @@ public class TEAccount implements UniqueAccount {
     private AccountManager accountManager;
     private UUID uuid;
     private SqlManager sqlManager;
+    private BalanceLedger balanceLedger;
 
     private boolean databaseActive;
 
@@ -72,21 +74,19 @@ public class TEAccount implements UniqueAccount {
 
         if (databaseActive) {
             sqlManager = totalEconomy.getSqlManager();
+            balanceLedger = accountManager.getAccountLedger();
         }
     }
 
     /**
-     * Gets the display name associated with the account.
+     * Gets the display name associated with the account. Never blocks, a name that isn't cached yet is looked up in the
+     * background and a placeholder is returned until it is known.
      *
      * @return Text The display name
      */
     @Override
     public Text getDisplayName() {
-        if (totalEconomy.getUserStorageService().get(uuid).isPresent()) {
-            return Text.of(totalEconomy.getUserStorageService().get(uuid).get().getName());
-        }
-
-        return Text.of("PLAYER NAME");
+        return totalEconomy.getNameCache().getCachedName(uuid).map(Text::of).orElse(Text.of("PLAYER NAME"));
     }
 
     @Override
@@ -105,7 +105,9 @@ public class TEAccount implements UniqueAccount {
     public boolean hasBalance(Currency currency, Set<Context> contexts) {
         String currencyName = currency.getDisplayName().toPlain().toLowerCase();
 
-        if (databaseActive) {
+        if (balanceLedger != null) {
+            return balanceLedger.hasBalance(uuid.toString(), currencyName);
+        } else if (databaseActive) {
             SqlQuery sqlQuery = SqlQuery.builder(sqlManager.dataSource)
                     .select("`" + currencyName + "_balance`")
                     .from("accounts")
@@ -131,7 +133,9 @@ public class TEAccount implements UniqueAccount {
         if (hasBalance(currency, contexts)) {
             String currencyName = currency.getDisplayName().toPlain().toLowerCase();
 
-            if (databaseActive) {
+            if (balanceLedger != null) {
+                return balanceLedger.getBalance(uuid.toString(), currencyName).orElse(BigDecimal.ZERO);
+            } else if (databaseActive) {
                 SqlQuery sqlQuery = SqlQuery.builder(sqlManager.dataSource)
                         .select("`" + currencyName + "_balance`")
                         .from("accounts")
@@ -188,31 +192,38 @@ public class TEAccount implements UniqueAccount {
             BigDecimal delta = amount.subtract(getBalance(currency));
             TransactionType transactionType = delta.compareTo(BigDecimal.ZERO) >= 0 ? TransactionTypes.DEPOSIT : TransactionTypes.WITHDRAW;
 
-            if (databaseActive) {
+            if (balanceLedger != null) {
+                if (balanceLedger.setBalance(uuid.toString(), currencyName, amount.setScale(2, BigDecimal.ROUND_DOWN))) {
+                    accountManager.getBalanceLeaderboard().setBalance(uuid.toString(), currencyName, amount.setScale(2, BigDecimal.ROUND_DOWN));
+                    transactionResult = new TETransactionResult(this, currency, delta.abs(), contexts, ResultType.SUCCESS, transactionType);
+                } else {
+                    transactionResult = new TETransactionResult(this, currency, delta.abs(), contexts, ResultType.FAILED, transactionType);
+                }
+            } else if (databaseActive) {
                 SqlQuery sqlQuery = SqlQuery.builder(sqlManager.dataSource)
                         .update("accounts")
                         .set("`" + currencyName + "_balance`")
-                        .equals(amount.setScale(2, BigDecimal.ROUND_DOWN).toPlainString())
+                        .equals(amount.setScale(2, BigDecimal.ROUND_DOWN))
                         .where("uid")
                         .equals(uuid.toString())
                         .build();
 
                 if (sqlQuery.getRowsAffected() > 0) {
+                    accountManager.getBalanceLeaderboard().setBalance(uuid.toString(), currencyName, amount.setScale(2, BigDecimal.ROUND_DOWN));
                     transactionResult = new TETransactionResult(this, currency, delta.abs(), contexts, ResultType.SUCCESS, transactionType);
                 } else {
                     transactionResult = new TETransactionResult(this, currency, delta.abs(), contexts, ResultType.FAILED, transactionType);
                 }
             } else {
-                accountManager.getAccountConfig().getNode(uuid.toString(), currencyName + "-balance").setValue(amount.setScale(2, BigDecimal.ROUND_DOWN));
-                accountManager.requestConfigurationSave();
+                ResultType resultType = accountManager.setBalanceInConfig(uuid.toString(), currency, amount);
 
-                transactionResult = new TETransactionResult(this, currency, delta.abs(), contexts, ResultType.SUCCESS, transactionType);
+                transactionResult = new TETransactionResult(this, currency, delta.abs(), contexts, resultType, transactionType);
             }
         } else {
             transactionResult = new TETransactionResult(this, currency, BigDecimal.ZERO, contexts, ResultType.FAILED, TransactionTypes.DEPOSIT);
         }
 
-        totalEconomy.getGame().getEventManager().post(new TEEconomyTransactionEvent(transactionResult));
+        accountManager.postTransactionEvent(transactionResult);
 
         return transactionResult;
     }
@@ -259,10 +270,7 @@ public class TEAccount implements UniqueAccount {
      */
     @Override
     public TransactionResult deposit(Currency currency, BigDecimal amount, Cause cause, Set<Context> contexts) {
-        BigDecimal curBalance = getBalance(currency, contexts);
-        BigDecimal newBalance = curBalance.add(amount);
-
-        return setBalance(currency, newBalance, cause);
+        return adjustBalance(currency, amount, amount, contexts, TransactionTypes.DEPOSIT);
     }
 
     /**
@@ -276,14 +284,7 @@ public class TEAccount implements UniqueAccount {
      */
     @Override
     public TransactionResult withdraw(Currency currency, BigDecimal amount, Cause cause, Set<Context> contexts) {
-        BigDecimal curBalance =  getBalance(currency, contexts);
-        BigDecimal newBalance = curBalance.subtract(amount);
-
-        if (newBalance.compareTo(BigDecimal.ZERO) >= 0) {
-            return setBalance(currency, newBalance, cause);
-        }
-
-        return new TETransactionResult(this, currency, amount, contexts, ResultType.ACCOUNT_NO_FUNDS, TransactionTypes.WITHDRAW);
+        return adjustBalance(currency, amount, amount.negate(), contexts, TransactionTypes.WITHDRAW);
     }
 
     /**
@@ -300,6 +301,22 @@ public class TEAccount implements UniqueAccount {
     public TransferResult transfer(Account to, Currency currency, BigDecimal amount, Cause cause, Set<Context> contexts) {
         TransferResult transferResult;
 
+        // Both legs are applied atomically so a concurrent transfer can't overdraw the account or lose a deposit
+        if (to instanceof TEAccount || to instanceof TEVirtualAccount) {
+            ResultType resultType;
+
+            if (databaseActive) {
+                resultType = accountManager.transferInDatabase(this, to, currency, amount);
+            } else {
+                resultType = accountManager.transferInConfig(uuid.toString(), to.getIdentifier(), currency, amount);
+            }
+
+            transferResult = new TETransferResult(this, to, currency, amount, contexts, resultType, TransactionTypes.TRANSFER);
+            accountManager.postTransactionEvent(transferResult);
+
+            return transferResult;
+        }
+
         if (hasBalance(currency, contexts)) {
             BigDecimal curBalance = getBalance(currency, contexts);
             BigDecimal newBalance = curBalance.subtract(amount);
@@ -311,25 +328,25 @@ public class TEAccount implements UniqueAccount {
                     to.deposit(currency, amount, cause, contexts);
 
                     transferResult = new TETransferResult(this, to, currency, amount, contexts, ResultType.SUCCESS, TransactionTypes.TRANSFER);
-                    totalEconomy.getGame().getEventManager().post(new TEEconomyTransactionEvent(transferResult));
+                    accountManager.postTransactionEvent(transferResult);
 
                     return transferResult;
                 } else {
                     transferResult = new TETransferResult(this, to, currency, amount, contexts, ResultType.FAILED, TransactionTypes.TRANSFER);
-                    totalEconomy.getGame().getEventManager().post(new TEEconomyTransactionEvent(transferResult));
+                    accountManager.postTransactionEvent(transferResult);
 
                     return transferResult;
                 }
             } else {
                 transferResult = new TETransferResult(this, to, currency, amount, contexts, ResultType.ACCOUNT_NO_FUNDS, TransactionTypes.TRANSFER);
-                totalEconomy.getGame().getEventManager().post(new TEEconomyTransactionEvent(transferResult));
+                accountManager.postTransactionEvent(transferResult);
 
                 return transferResult;
             }
         }
 
         transferResult = new TETransferResult(this, to, currency, amount, contexts, ResultType.FAILED, TransactionTypes.TRANSFER);
-        totalEconomy.getGame().getEventManager().post(new TEEconomyTransactionEvent(transferResult));
+        accountManager.postTransactionEvent(transferResult);
 
         return transferResult;
     }
@@ -358,4 +375,30 @@ public class TEAccount implements UniqueAccount {
     public Set<Context> getActiveContexts() {
         return new HashSet<>();
     }
+
+    /**
+     * Apply a deposit or withdrawal to the balance in a single atomic step.
+     *
+     * @param currency The currency of the balance
+     * @param amount The amount of the transaction
+     * @param delta The signed change to apply to the balance
+     * @param contexts The contexts that the transaction occurred in
+     * @param transactionType The type of the transaction
+     * @return TransactionResult Result of the transaction
+     */
+    private TransactionResult adjustBalance(Currency currency, BigDecimal amount, BigDecimal delta, Set<Context> contexts, TransactionType transactionType) {
+        ResultType resultType;
+
+        if (databaseActive) {
+            resultType = accountManager.adjustBalanceInDatabase(this, currency, delta);
+        } else {
+            resultType = accountManager.adjustBalanceInConfig(uuid.toString(), currency, delta);
+        }
+
+        TransactionResult transactionResult = new TETransactionResult(this, currency, amount, contexts, resultType, transactionType);
+
+        accountManager.postTransactionEvent(transactionResult);
+
+        return transactionResult;
+    }
 }
@@ -0,0 +1,118 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.erigitic.config;
+
+import java.math.BigDecimal;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+import org.spongepowered.api.event.cause.Cause;
+import org.spongepowered.api.service.economy.Currency;
+import org.spongepowered.api.service.economy.account.Account;
+import org.spongepowered.api.service.economy.transaction.TransactionResult;
+import org.spongepowered.api.service.economy.transaction.TransferResult;
+
+/**
+ * Non-blocking view of an {@link Account}. Every call runs on the economy I/O threads of the {@link AccountManager},
+ * and the returned future completes on the server thread, so callbacks may safely touch players and worlds. Transaction
+ * events raised by a call are posted on the server thread just before its future completes.
+ */
+public class TEAsyncAccount {
+
+    private final AccountManager accountManager;
+    private final Supplier<? extends Account> accountSupplier;
+
+    /**
+     * Constructor for the TEAsyncAccount class. The account is looked up, and created if needed, on the economy I/O
+     * threads the first time it's used by a call.
+     *
+     * @param accountManager {@link AccountManager} object
+     * @param accountSupplier Looks up the account
+     */
+    public TEAsyncAccount(AccountManager accountManager, Supplier<? extends Account> accountSupplier) {
+        this.accountManager = accountManager;
+        this.accountSupplier = accountSupplier;
+    }
+
+    /**
+     * Gets the balance of a {@link Currency}.
+     *
+     * @param currency The currency to get the balance of
+     * @return CompletableFuture The balance
+     */
+    public CompletableFuture<BigDecimal> getBalance(Currency currency) {
+        return accountManager.supplyAsync(() -> accountSupplier.get().getBalance(currency));
+    }
+
+    /**
+     * Set the balance of a {@link Currency}.
+     *
+     * @param currency Currency to set the balance of
+     * @param amount Amount to set the balance to
+     * @param cause The cause of the transaction
+     * @return CompletableFuture Result of the transaction
+     */
+    public CompletableFuture<TransactionResult> setBalance(Currency currency, BigDecimal amount, Cause cause) {
+        return accountManager.supplyAsync(() -> accountSupplier.get().setBalance(currency, amount, cause));
+    }
+
+    /**
+     * Add money to a balance.
+     *
+     * @param currency The balance to deposit money into
+     * @param amount Amount to deposit
+     * @param cause The cause of the transaction
+     * @return CompletableFuture Result of the deposit
+     */
+    public CompletableFuture<TransactionResult> deposit(Currency currency, BigDecimal amount, Cause cause) {
+        return accountManager.supplyAsync(() -> accountSupplier.get().deposit(currency, amount, cause));
+    }
+
+    /**
+     * Remove money from a balance.
+     *
+     * @param currency The balance to withdraw money from
+     * @param amount Amount to withdraw
+     * @param cause The cause of the transaction
+     * @return CompletableFuture Result of the withdrawal
+     */
+    public CompletableFuture<TransactionResult> withdraw(Currency currency, BigDecimal amount, Cause cause) {
+        return accountManager.supplyAsync(() -> accountSupplier.get().withdraw(currency, amount, cause));
+    }
+
+    /**
+     * Transfer money to another account.
+     *
+     * @param to Account to transfer money to
+     * @param currency Type of currency to transfer
+     * @param amount Amount to transfer
+     * @param cause The cause of the transaction
+     * @return CompletableFuture Result of the transfer
+     */
+    public CompletableFuture<TransferResult> transfer(TEAsyncAccount to, Currency currency, BigDecimal amount, Cause cause) {
+        return accountManager.supplyAsync(() -> accountSupplier.get().transfer(to.accountSupplier.get(), currency, amount, cause));
+    }
+}
@@ -35,13 +35,23 @@ import org.spongepowered.api.service.economy.transaction.TransactionResult;
 public class TEEconomyTransactionEvent extends AbstractEvent implements EconomyTransactionEvent {
 
     private TransactionResult transactionResult;
+    private Cause cause;
 
     public TEEconomyTransactionEvent(TransactionResult transactionResult) {
+        this(transactionResult, null);
+    }
+
+    public TEEconomyTransactionEvent(TransactionResult transactionResult, Cause cause) {
         this.transactionResult = transactionResult;
+        this.cause = cause;
     }
 
     @Override
     public Cause getCause() {
+        if (this.cause != null) {
+            return this.cause;
+        }
+
         Cause cause = Cause.builder()
                 .append(Sponge.getPluginManager().getPlugin("totaleconomy").get())
                 .build(EventContext.empty());
@@ -26,6 +26,7 @@
 package com.erigitic.config;
 
 import com.erigitic.main.TotalEconomy;
+import com.erigitic.sql.BalanceLedger;
 import com.erigitic.sql.SqlManager;
 import com.erigitic.sql.SqlQuery;
 import java.math.BigDecimal;
@@ -33,7 +34,6 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
-import ninja.leaping.configurate.ConfigurationNode;
 import org.spongepowered.api.event.cause.Cause;
 import org.spongepowered.api.service.context.Context;
 import org.spongepowered.api.service.economy.Currency;
@@ -52,8 +52,7 @@ public class TEVirtualAccount implements VirtualAccount {
     private AccountManager accountManager;
     private String identifier;
     private SqlManager sqlManager;
-
-    private ConfigurationNode accountConfig;
+    private BalanceLedger balanceLedger;
 
     private boolean databaseActive;
 
@@ -62,11 +61,11 @@ public class TEVirtualAccount implements VirtualAccount {
         this.accountManager = accountManager;
         this.identifier = identifier;
 
-        accountConfig = accountManager.getAccountConfig();
         databaseActive = totalEconomy.isDatabaseEnabled();
 
         if (databaseActive) {
             sqlManager = totalEconomy.getSqlManager();
+            balanceLedger = accountManager.getVirtualAccountLedger();
         }
     }
 
@@ -84,7 +83,9 @@ public class TEVirtualAccount implements VirtualAccount {
     public boolean hasBalance(Currency currency, Set<Context> contexts) {
         String currencyName = currency.getDisplayName().toPlain().toLowerCase();
 
-        if (databaseActive) {
+        if (balanceLedger != null) {
+            return balanceLedger.hasBalance(identifier, currencyName);
+        } else if (databaseActive) {
             SqlQuery sqlQuery = SqlQuery.builder(sqlManager.dataSource)
                     .select("`" + currencyName + "_balance`")
                     .from("virtual_accounts")
@@ -94,7 +95,7 @@ public class TEVirtualAccount implements VirtualAccount {
 
             return sqlQuery.recordExists();
         } else {
-            return accountConfig.getNode(identifier, currencyName + "-balance").getValue() != null;
+            return accountManager.getAccountConfig().getNode(identifier, currencyName + "-balance").getValue() != null;
         }
     }
 
@@ -103,7 +104,9 @@ public class TEVirtualAccount implements VirtualAccount {
         if (hasBalance(currency, contexts)) {
             String currencyName = currency.getDisplayName().toPlain().toLowerCase();
 
-            if (databaseActive) {
+            if (balanceLedger != null) {
+                return balanceLedger.getBalance(identifier, currencyName).orElse(BigDecimal.ZERO);
+            } else if (databaseActive) {
                 SqlQuery sqlQuery = SqlQuery.builder(sqlManager.dataSource)
                         .select("`" + currencyName + "_balance`")
                         .from("virtual_accounts")
@@ -113,7 +116,7 @@ public class TEVirtualAccount implements VirtualAccount {
 
                 return sqlQuery.getBigDecimal(BigDecimal.ZERO);
             } else {
-                BigDecimal balance = new BigDecimal(accountConfig.getNode(identifier, currencyName + "-balance").getString());
+                BigDecimal balance = new BigDecimal(accountManager.getAccountConfig().getNode(identifier, currencyName + "-balance").getString());
 
                 return balance;
             }
@@ -136,11 +139,17 @@ public class TEVirtualAccount implements VirtualAccount {
             BigDecimal delta = amount.subtract(getBalance(currency));
             TransactionType transactionType = delta.compareTo(BigDecimal.ZERO) >= 0 ? TransactionTypes.DEPOSIT : TransactionTypes.WITHDRAW;
 
-            if (databaseActive) {
+            if (balanceLedger != null) {
+                if (balanceLedger.setBalance(identifier, currencyName, amount.setScale(2, BigDecimal.ROUND_DOWN))) {
+                    transactionResult = new TETransactionResult(this, currency, delta.abs(), contexts, ResultType.SUCCESS, transactionType);
+                } else {
+                    transactionResult = new TETransactionResult(this, currency, delta.abs(), contexts, ResultType.FAILED, transactionType);
+                }
+            } else if (databaseActive) {
                 SqlQuery sqlQuery = SqlQuery.builder(sqlManager.dataSource)
                         .update("virtual_accounts")
                         .set("`" + currencyName + "_balance`")
-                        .equals(amount.setScale(2, BigDecimal.ROUND_DOWN).toPlainString())
+                        .equals(amount.setScale(2, BigDecimal.ROUND_DOWN))
                         .where("uid")
                         .equals(identifier)
                         .build();
@@ -151,16 +160,15 @@ public class TEVirtualAccount implements VirtualAccount {
                     transactionResult = new TETransactionResult(this, currency, delta.abs(), contexts, ResultType.FAILED, transactionType);
                 }
             } else {
-                accountConfig.getNode(identifier, currencyName + "-balance").setValue(amount.setScale(2, BigDecimal.ROUND_DOWN));
-                accountManager.requestConfigurationSave();
+                ResultType resultType = accountManager.setBalanceInConfig(identifier, currency, amount);
 
-                transactionResult = new TETransactionResult(this, currency, delta.abs(), contexts, ResultType.SUCCESS, transactionType);
+                transactionResult = new TETransactionResult(this, currency, delta.abs(), contexts, resultType, transactionType);
             }
         } else {
             transactionResult = new TETransactionResult(this, currency, BigDecimal.ZERO, contexts, ResultType.FAILED, TransactionTypes.DEPOSIT);
         }
 
-        totalEconomy.getGame().getEventManager().post(new TEEconomyTransactionEvent(transactionResult));
+        accountManager.postTransactionEvent(transactionResult);
 
         return transactionResult;
     }
@@ -168,7 +176,7 @@ public class TEVirtualAccount implements VirtualAccount {
     @Override
     public Map<Currency, TransactionResult> resetBalances(Cause cause, Set<Context> contexts) {
         TransactionResult transactionResult = new TETransactionResult(this, totalEconomy.getDefaultCurrency(), BigDecimal.ZERO, contexts, ResultType.FAILED, TransactionTypes.WITHDRAW);
-        totalEconomy.getGame().getEventManager().post(new TEEconomyTransactionEvent(transactionResult));
+        accountManager.postTransactionEvent(transactionResult);
 
         Map result = new HashMap<>();
         result.put(totalEconomy.getDefaultCurrency(), transactionResult);
@@ -183,28 +191,34 @@ public class TEVirtualAccount implements VirtualAccount {
 
     @Override
     public TransactionResult deposit(Currency currency, BigDecimal amount, Cause cause, Set<Context> contexts) {
-        BigDecimal curBalance = getBalance(currency, contexts);
-        BigDecimal newBalance = curBalance.add(amount);
-
-        return setBalance(currency, newBalance, cause);
+        return adjustBalance(currency, amount, amount, contexts, TransactionTypes.DEPOSIT);
     }
 
     @Override
     public TransactionResult withdraw(Currency currency, BigDecimal amount, Cause cause, Set<Context> contexts) {
-        BigDecimal curBalance =  getBalance(currency, contexts);
-        BigDecimal newBalance = curBalance.subtract(amount);
-
-        if (newBalance.compareTo(BigDecimal.ZERO) >= 0) {
-            return setBalance(currency, newBalance, cause);
-        }
-
-        return new TETransactionResult(this, currency, amount, contexts, ResultType.ACCOUNT_NO_FUNDS, TransactionTypes.WITHDRAW);
+        return adjustBalance(currency, amount, amount.negate(), contexts, TransactionTypes.WITHDRAW);
     }
 
     @Override
     public TransferResult transfer(Account to, Currency currency, BigDecimal amount, Cause cause, Set<Context> contexts) {
         TransferResult transferResult;
 
+        // Both legs are applied atomically so a concurrent transfer can't overdraw the account or lose a deposit
+        if (to instanceof TEAccount || to instanceof TEVirtualAccount) {
+            ResultType resultType;
+
+            if (databaseActive) {
+                resultType = accountManager.transferInDatabase(this, to, currency, amount);
+            } else {
+                resultType = accountManager.transferInConfig(identifier, to.getIdentifier(), currency, amount);
+            }
+
+            transferResult = new TETransferResult(this, to, currency, amount, contexts, resultType, TransactionTypes.TRANSFER);
+            accountManager.postTransactionEvent(transferResult);
+
+            return transferResult;
+        }
+
         if (hasBalance(currency, contexts)) {
             BigDecimal curBalance = getBalance(currency, contexts);
             BigDecimal newBalance = curBalance.subtract(amount);
@@ -216,25 +230,25 @@ public class TEVirtualAccount implements VirtualAccount {
                     to.deposit(currency, amount, cause, contexts);
 
                     transferResult = new TETransferResult(this, to, currency, amount, contexts, ResultType.SUCCESS, TransactionTypes.TRANSFER);
-                    totalEconomy.getGame().getEventManager().post(new TEEconomyTransactionEvent(transferResult));
+                    accountManager.postTransactionEvent(transferResult);
 
                     return transferResult;
                 } else {
                     transferResult = new TETransferResult(this, to, currency, amount, contexts, ResultType.FAILED, TransactionTypes.TRANSFER);
-                    totalEconomy.getGame().getEventManager().post(new TEEconomyTransactionEvent(transferResult));
+                    accountManager.postTransactionEvent(transferResult);
 
                     return transferResult;
                 }
             } else {
                 transferResult = new TETransferResult(this, to, currency, amount, contexts, ResultType.ACCOUNT_NO_FUNDS, TransactionTypes.TRANSFER);
-                totalEconomy.getGame().getEventManager().post(new TEEconomyTransactionEvent(transferResult));
+                accountManager.postTransactionEvent(transferResult);
 
                 return transferResult;
             }
         }
 
         transferResult = new TETransferResult(this, to, currency, amount, contexts, ResultType.FAILED, TransactionTypes.TRANSFER);
-        totalEconomy.getGame().getEventManager().post(new TEEconomyTransactionEvent(transferResult));
+        accountManager.postTransactionEvent(transferResult);
 
         return transferResult;
     }
@@ -248,4 +262,30 @@ public class TEVirtualAccount implements VirtualAccount {
     public Set<Context> getActiveContexts() {
         return new HashSet<>();
     }
+
+    /**
+     * Apply a deposit or withdrawal to the balance in a single atomic step.
+     *
+     * @param currency The currency of the balance
+     * @param amount The amount of the transaction
+     * @param delta The signed change to apply to the balance
+     * @param contexts The contexts that the transaction occurred in
+     * @param transactionType The type of the transaction
+     * @return TransactionResult Result of the transaction
+     */
+    private TransactionResult adjustBalance(Currency currency, BigDecimal amount, BigDecimal delta, Set<Context> contexts, TransactionType transactionType) {
+        ResultType resultType;
+
+        if (databaseActive) {
+            resultType = accountManager.adjustBalanceInDatabase(this, currency, delta);
+        } else {
+            resultType = accountManager.adjustBalanceInConfig(identifier, currency, delta);
+        }
+
+        TransactionResult transactionResult = new TETransactionResult(this, currency, amount, contexts, resultType, transactionType);
+
+        accountManager.postTransactionEvent(transactionResult);
+
+        return transactionResult;
+    }
 }
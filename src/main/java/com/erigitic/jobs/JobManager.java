@@ -26,20 +26,23 @@
 package com.erigitic.jobs;
 
 import com.erigitic.config.AccountManager;
-import com.erigitic.config.TEAccount;
+import com.erigitic.config.TEAsyncAccount;
 import com.erigitic.main.TotalEconomy;
 import com.erigitic.sql.SqlManager;
-import com.erigitic.sql.SqlQuery;
 import com.erigitic.util.MessageManager;
+import com.erigitic.util.RankedIndex;
 import java.io.File;
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import ninja.leaping.configurate.ConfigurationNode;
 import ninja.leaping.configurate.commented.CommentedConfigurationNode;
@@ -47,6 +50,7 @@ import ninja.leaping.configurate.hocon.HoconConfigurationLoader;
 import ninja.leaping.configurate.loader.ConfigurationLoader;
 import org.slf4j.Logger;
 import org.spongepowered.api.Sponge;
+import org.spongepowered.api.block.BlockSnapshot;
 import org.spongepowered.api.block.BlockState;
 import org.spongepowered.api.block.tileentity.Sign;
 import org.spongepowered.api.block.tileentity.TileEntity;
@@ -67,6 +71,7 @@ import org.spongepowered.api.event.cause.EventContext;
 import org.spongepowered.api.event.cause.EventContextKeys;
 import org.spongepowered.api.event.cause.entity.damage.source.EntityDamageSource;
 import org.spongepowered.api.event.entity.DestructEntityEvent;
+import org.spongepowered.api.event.network.ClientConnectionEvent;
 import org.spongepowered.api.item.inventory.ItemStack;
 import org.spongepowered.api.item.inventory.ItemStackSnapshot;
 import org.spongepowered.api.scheduler.Scheduler;
@@ -91,12 +96,37 @@ public class JobManager {
     private File jobSetsFile;
     private ConfigurationLoader<CommentedConfigurationNode> jobSetsLoader;
     private ConfigurationNode jobSetsConfig;
-    private Map<String, TEJobSet> jobSets;
+    private volatile Map<String, TEJobSet> jobSets = Collections.emptyMap();
 
     private File jobsFile;
     private ConfigurationLoader<CommentedConfigurationNode> jobsLoader;
     private ConfigurationNode jobsConfig;
-    private Map<String, TEJob> jobsMap;
+    private volatile Map<String, TEJob> jobsMap = Collections.emptyMap();
+    private volatile JobRewardIndex rewardIndex = JobRewardIndex.EMPTY;
+
+    private File levelCurvesFile;
+    private ConfigurationLoader<CommentedConfigurationNode> levelCurvesLoader;
+
+    private JobSessionStore sessionStore;
+    private final Map<UUID, JobSession> sessions = new ConcurrentHashMap<>();
+    private int sessionFlushThreshold;
+
+    // Sessions of players that quit, kept until their last save is written so a rejoin never reads older rows
+    private final Map<UUID, JobSession> departingSessions = new ConcurrentHashMap<>();
+    private final Map<UUID, CompletableFuture<Boolean>> departingSaves = new ConcurrentHashMap<>();
+
+    // Players ranked by their exp in each job, kept up to date as exp is gained
+    private final Map<String, RankedIndex<UUID, Integer>> jobRankings = new ConcurrentHashMap<>();
+
+    private final Map<UUID, JobRewardBatch> pendingRewards = new HashMap<>();
+    private long rewardWindow;
+
+    // Reused by the event handlers, which all run on the server thread
+    private final JobRewardTally rewardTally = new JobRewardTally();
+    private final JobRewardResult candidateReward = new JobRewardResult();
+    private final JobRewardResult bestReward = new JobRewardResult();
+
+    private PlacedBlockTracker placedBlockTracker;
 
     private boolean databaseEnabled;
 
@@ -112,11 +142,64 @@ public class JobManager {
             sqlManager = totalEconomy.getSqlManager();
         }
 
+        sessionStore = new JobSessionStore(totalEconomy, accountManager, logger);
+        sessionFlushThreshold = totalEconomy.getJobSessionFlushThreshold();
+        rewardWindow = totalEconomy.getJobRewardWindow();
+
+        placedBlockTracker = new PlacedBlockTracker(totalEconomy, logger, new File(totalEconomy.getConfigDir(), "placed-blocks").toPath(), TimeUnit.DAYS.toMillis(totalEconomy.getPlacedBlockExpiry()));
+        placedBlockTracker.startSaveTask(totalEconomy.getSaveInterval());
+
         setupConfig();
+        loadJobRankings();
 
         if (totalEconomy.isJobSalaryEnabled()) {
             startSalaryTask();
         }
+
+        if (rewardWindow > 0) {
+            startRewardTask();
+        }
+    }
+
+    /**
+     * Build the job rankings from the stored progress of every player. In database mode the progress is read in the
+     * background; exp gained in the meantime is already ranked and takes precedence over the stored values.
+     */
+    private void loadJobRankings() {
+        if (databaseEnabled) {
+            accountManager.supplyAsync(sessionStore::loadAllExp).thenAccept(this::fillJobRankings);
+        } else {
+            fillJobRankings(sessionStore.loadAllExp());
+        }
+    }
+
+    private void fillJobRankings(Map<String, Map<UUID, Integer>> progress) {
+        progress.forEach((jobName, players) -> {
+            RankedIndex<UUID, Integer> ranking = getJobRanking(jobName);
+
+            players.forEach(ranking::putIfAbsent);
+        });
+    }
+
+    /**
+     * Get the ranking of players by their exp in a job.
+     *
+     * @param jobName name of the job
+     * @return RankedIndex The players of the job, highest exp first
+     */
+    public RankedIndex<UUID, Integer> getJobRanking(String jobName) {
+        return jobRankings.computeIfAbsent(jobName, k -> new RankedIndex<>());
+    }
+
+    /**
+     * Start the timer that pays out the job rewards collected during each reward window.
+     */
+    private void startRewardTask() {
+        totalEconomy.getGame().getScheduler().createTaskBuilder()
+                .execute(this::applyPendingRewards)
+                .interval(rewardWindow, TimeUnit.MILLISECONDS)
+                .name("Total Economy - Job rewards")
+                .submit(totalEconomy);
     }
 
     /**
@@ -126,43 +209,86 @@ public class JobManager {
         Scheduler scheduler = totalEconomy.getGame().getScheduler();
         Task.Builder payTask = scheduler.createTaskBuilder();
 
-        payTask.execute(() -> {
-            if (totalEconomy.getGame().isServerAvailable()) {
-                for (Player player : totalEconomy.getServer().getOnlinePlayers()) {
-                    Optional<TEJob> optJob = getJob(getPlayerJob(player), true);
+        payTask.execute(this::payday).delay(jobsConfig.getNode("salarydelay").getInt(), TimeUnit.SECONDS).interval(jobsConfig.getNode("salarydelay").getInt(), TimeUnit.SECONDS).name("Pay Day").submit(totalEconomy);
+    }
 
-                    if (!optJob.isPresent()) {
-                        player.sendMessage(Text.of(TextColors.RED, "[TE] Cannot pay your salary! Contact your administrator!"));
+    /**
+     * Pay the salary of every online player. Players are grouped by job so each salary is worked out once, then all of
+     * the salaries are deposited in one batch off the server thread. Players are notified once the batch completes.
+     */
+    private void payday() {
+        if (!totalEconomy.getGame().isServerAvailable()) {
+            return;
+        }
 
-                        return;
-                    }
+        Map<TEJob, List<Player>> playersByJob = new HashMap<>();
 
-                    if (optJob.get().salaryEnabled()) {
-                        BigDecimal salary = optJob.get().getSalary();
-                        TEAccount playerAccount = (TEAccount) accountManager.getOrCreateAccount(player.getUniqueId()).get();
+        for (Player player : totalEconomy.getServer().getOnlinePlayers()) {
+            // Players whose session is still loading get paid from the next payday on
+            if (!sessions.containsKey(player.getUniqueId())) {
+                continue;
+            }
 
-                        EventContext eventContext = EventContext.builder()
-                                .add(EventContextKeys.PLAYER, player)
-                                .build();
+            Optional<TEJob> optJob = getJob(getPlayerJob(player), true);
 
-                        Cause cause = Cause.builder()
-                                .append(totalEconomy.getPluginContainer())
-                                .build(eventContext);
+            if (!optJob.isPresent()) {
+                player.sendMessage(Text.of(TextColors.RED, "[TE] Cannot pay your salary! Contact your administrator!"));
 
-                        TransactionResult result = playerAccount.deposit(totalEconomy.getDefaultCurrency(), salary, cause);
+                continue;
+            }
 
-                        if (result.getResult() == ResultType.SUCCESS) {
-                            Map<String, String> messageValues = new HashMap<>();
-                            messageValues.put("amount", totalEconomy.getDefaultCurrency().format(salary).toPlain());
+            if (optJob.get().salaryEnabled()) {
+                playersByJob.computeIfAbsent(optJob.get(), job -> new ArrayList<>()).add(player);
+            }
+        }
 
-                            player.sendMessage(messageManager.getMessage("jobs.salary", messageValues));
-                        } else {
-                            player.sendMessage(Text.of(TextColors.RED, "[TE] Failed to pay your salary! You may want to contact your admin - TransactionResult: ", result.getResult().toString()));
-                        }
-                    }
-                }
+        if (playersByJob.isEmpty()) {
+            return;
+        }
+
+        Currency currency = totalEconomy.getDefaultCurrency();
+        Map<UUID, BigDecimal> salaries = new HashMap<>();
+        Map<UUID, Text> salaryMessages = new HashMap<>();
+        Map<UUID, Cause> causes = new HashMap<>();
+        Map<UUID, Player> players = new HashMap<>();
+
+        playersByJob.forEach((job, jobPlayers) -> {
+            BigDecimal salary = job.getSalary();
+
+            Map<String, String> messageValues = new HashMap<>();
+            messageValues.put("amount", currency.format(salary).toPlain());
+
+            Text message = messageManager.getMessage("jobs.salary", messageValues);
+
+            for (Player player : jobPlayers) {
+                EventContext eventContext = EventContext.builder()
+                        .add(EventContextKeys.PLAYER, player)
+                        .build();
+
+                Cause cause = Cause.builder()
+                        .append(totalEconomy.getPluginContainer())
+                        .build(eventContext);
+
+                salaries.put(player.getUniqueId(), salary);
+                salaryMessages.put(player.getUniqueId(), message);
+                causes.put(player.getUniqueId(), cause);
+                players.put(player.getUniqueId(), player);
+            }
+        });
+
+        accountManager.supplyAsync(() -> accountManager.depositAll(currency, salaries, causes)).thenAccept(results -> players.forEach((uuid, player) -> {
+            if (!player.isOnline()) {
+                return;
+            }
+
+            TransactionResult result = results.get(uuid);
+
+            if (result != null && result.getResult() == ResultType.SUCCESS) {
+                player.sendMessage(salaryMessages.get(uuid));
+            } else {
+                player.sendMessage(Text.of(TextColors.RED, "[TE] Failed to pay your salary! You may want to contact your admin - TransactionResult: ", result != null ? result.getResult().toString() : ResultType.FAILED.toString()));
             }
-        }).delay(jobsConfig.getNode("salarydelay").getInt(), TimeUnit.SECONDS).interval(jobsConfig.getNode("salarydelay").getInt(), TimeUnit.SECONDS).name("Pay Day").submit(totalEconomy);
+        }));
     }
 
     /**
@@ -171,12 +297,13 @@ public class JobManager {
     public void setupConfig() {
         jobSetsFile = new File(totalEconomy.getConfigDir(), "jobsets.conf");
         jobSetsLoader = HoconConfigurationLoader.builder().setFile(jobSetsFile).build();
-        jobSets = new HashMap();
         reloadJobSetConfig();
 
+        levelCurvesFile = new File(totalEconomy.getConfigDir(), "levelcurves.conf");
+        levelCurvesLoader = HoconConfigurationLoader.builder().setFile(levelCurvesFile).build();
+
         jobsFile = new File(totalEconomy.getConfigDir(), "jobs.conf");
         jobsLoader = HoconConfigurationLoader.builder().setFile(jobsFile).build();
-        jobsMap = new HashMap();
         reloadJobsConfig();
     }
 
@@ -191,15 +318,19 @@ public class JobManager {
 
             jobSetsConfig = jobSetsLoader.load();
             ConfigurationNode sets = jobSetsConfig.getNode("sets");
+            Map<String, TEJobSet> loadedSets = new HashMap<>();
 
             sets.getChildrenMap().forEach((setName, setNode) -> {
                 if (setNode != null) {
                     TEJobSet jobSet = new TEJobSet(setNode);
 
-                    jobSets.put((String) setName, jobSet);
+                    loadedSets.put((String) setName, jobSet);
                 }
             });
 
+            jobSets = loadedSets;
+            rebuildRewardIndex();
+
             return true;
         } catch (IOException e) {
             logger.warn("An error occurred while creating/loading the jobSets configuration file!");
@@ -222,18 +353,24 @@ public class JobManager {
 
             jobsConfig = jobsLoader.load();
             ConfigurationNode jobsNode = jobsConfig.getNode("jobs");
+            Map<String, TEJob> loadedJobs = new HashMap<>();
+            LevelCurve defaultCurve = LevelCurve.fromConfig(jobsConfig.getNode("curve"), LevelCurve.DEFAULT, logger);
 
             // Loop through each job node in the configuration file, create a TEJob object from it, and store in a HashMap
             jobsNode.getChildrenMap().forEach((k, jobNode) -> {
                 if (jobNode != null) {
-                    TEJob job = new TEJob(jobNode);
+                    TEJob job = new TEJob(jobNode, LevelCurve.fromConfig(jobNode.getNode("curve"), defaultCurve, logger));
 
                     if (job.isValid()) {
-                        jobsMap.put(job.getName(), job);
+                        loadedJobs.put(job.getName(), job);
                     }
                 }
             });
 
+            jobsMap = loadedJobs;
+            rebuildRewardIndex();
+            recomputeChangedLevels();
+
             return true;
         } catch (IOException e) {
             logger.warn("An error occurred while creating/loading the jobs configuration file!");
@@ -242,6 +379,71 @@ public class JobManager {
         }
     }
 
+    /**
+     * Recompile the reward lookup table from the currently loaded jobs and sets. Loaded maps are swapped in whole so
+     * event handlers never see a partially reloaded configuration.
+     */
+    private void rebuildRewardIndex() {
+        rewardIndex = JobRewardIndex.build(jobsMap, jobSets, logger);
+    }
+
+    /**
+     * Recompute the stored levels of every job whose level curve changed since the last load. Player exp is kept as a
+     * running total, so only the levels derived from it have to be rewritten. The fingerprint of each job's curve is
+     * remembered in levelcurves.conf; jobs without an entry were last leveled with the built-in curve.
+     */
+    private void recomputeChangedLevels() {
+        try {
+            ConfigurationNode curvesConfig = levelCurvesLoader.load();
+            boolean changed = false;
+
+            for (TEJob job : jobsMap.values()) {
+                String jobName = job.getName();
+                LevelCurve curve = job.getLevelCurve();
+                ConfigurationNode fingerprintNode = curvesConfig.getNode(jobName);
+
+                if (jobName.equals("unemployed") || fingerprintNode.getLong(LevelCurve.DEFAULT.getFingerprint()) == curve.getFingerprint()) {
+                    continue;
+                }
+
+                logger.info("Level curve of job " + jobName + " changed, recomputing player levels");
+
+                if (!sessionStore.recomputeLevels(jobName, curve)) {
+                    continue;
+                }
+
+                for (JobSession session : sessions.values()) {
+                    int level = curve.getLevel(session.getExp(jobName));
+
+                    if (level != session.getLevel(jobName)) {
+                        session.setLevel(jobName, level);
+                    }
+                }
+
+                fingerprintNode.setValue(curve.getFingerprint());
+                changed = true;
+            }
+
+            if (changed) {
+                levelCurvesLoader.save(curvesConfig);
+            }
+        } catch (IOException e) {
+            logger.warn("An error occurred while loading/saving the level curves file!");
+        }
+    }
+
+    /**
+     * Get the level curve of a job. Unknown jobs use the built-in curve.
+     *
+     * @param jobName name of the job
+     * @return LevelCurve the job's level curve
+     */
+    public LevelCurve getLevelCurve(String jobName) {
+        TEJob job = jobsMap.get(jobName);
+
+        return job != null ? job.getLevelCurve() : LevelCurve.DEFAULT;
+    }
+
     /**
      * Reload all job configs (jobs + sets).
      */
@@ -249,6 +451,184 @@ public class JobManager {
         return reloadJobsConfig() && reloadJobSetConfig();
     }
 
+    /**
+     * Get the job session of a user. Sessions of online players are kept in memory until they quit, the sessions of
+     * offline users are loaded for each call. The session of a player that just joined is loaded off the server thread,
+     * job actions aren't rewarded until it is (see {@link #getLoadedJob(Player)}).
+     *
+     * @param user The user
+     * @return JobSession The session of the user
+     */
+    private JobSession getSession(User user) {
+        UUID uuid = user.getUniqueId();
+        JobSession session = sessions.get(uuid);
+
+        if (session != null) {
+            return session;
+        }
+
+        session = departingSessions.get(uuid);
+
+        if (session == null) {
+            session = sessionStore.load(uuid);
+        }
+
+        if (user.isOnline()) {
+            JobSession existing = sessions.putIfAbsent(uuid, session);
+
+            return existing != null ? existing : session;
+        }
+
+        return session;
+    }
+
+    /**
+     * Get the job of a player whose session is loaded. Used by job actions, so a player acting right after they joined
+     * doesn't make the server thread wait on the session store.
+     *
+     * @param player The player
+     * @return Optional<TEJob> The player's job, or empty while their session is still loading
+     */
+    private Optional<TEJob> getLoadedJob(Player player) {
+        JobSession session = sessions.get(player.getUniqueId());
+
+        if (session == null) {
+            return Optional.empty();
+        }
+
+        return getJob(session.getJob(), true);
+    }
+
+    /**
+     * Write a session once enough changes have accumulated. Sessions that aren't kept in memory are written straight
+     * away.
+     *
+     * @param session The changed session
+     * @param force Write the session regardless of the number of changes
+     */
+    private void sessionChanged(JobSession session, boolean force) {
+        if (sessions.get(session.getUniqueId()) != session) {
+            saveSession(session);
+        } else if (force || session.getPendingChanges() >= sessionFlushThreshold) {
+            saveSessionAsync(session);
+        }
+    }
+
+    /**
+     * Write the pending changes of a session. Changes that fail to be written are kept for the next write.
+     *
+     * @param session The session to write
+     * @return boolean If the changes were written
+     */
+    private boolean saveSession(JobSession session) {
+        // Writes of the same session are serialized, so an older state can never overwrite a newer one
+        synchronized (session.getSaveLock()) {
+            JobSession.Changes changes = session.takeChanges();
+
+            if (changes == null) {
+                return true;
+            }
+
+            if (!sessionStore.save(changes)) {
+                session.restoreChanges(changes);
+
+                return false;
+            }
+
+            return true;
+        }
+    }
+
+    private void saveSessionAsync(JobSession session) {
+        if (databaseEnabled) {
+            accountManager.supplyAsync(() -> saveSession(session));
+        } else {
+            saveSession(session);
+        }
+    }
+
+    /**
+     * Write the pending changes of every online player, and of every player that quit but whose session hasn't been
+     * written yet. Called when the server stops.
+     */
+    public void saveSessions() {
+        applyPendingRewards();
+
+        sessions.values().forEach(this::saveSession);
+        departingSessions.values().forEach(this::saveSession);
+    }
+
+    /**
+     * Write the placed block regions that changed. Called when the server stops.
+     */
+    public void savePlacedBlocks() {
+        placedBlockTracker.save();
+    }
+
+    /**
+     * Load the job session of a joining player off the server thread. A player that rejoins before the save of their
+     * last session completed picks that session up again instead.
+     *
+     * @param event ClientConnectionEvent.Join
+     */
+    @Listener
+    public void onPlayerJoin(ClientConnectionEvent.Join event) {
+        Player player = event.getTargetEntity();
+        UUID uuid = player.getUniqueId();
+        JobSession departingSession = departingSessions.get(uuid);
+
+        if (departingSession != null) {
+            sessions.putIfAbsent(uuid, departingSession);
+
+            return;
+        }
+
+        accountManager.supplyAsync(() -> sessionStore.load(uuid)).thenAccept(session -> {
+            if (player.isOnline()) {
+                sessions.putIfAbsent(uuid, session);
+            }
+        });
+    }
+
+    /**
+     * Write and drop the job session of a player that quit.
+     *
+     * @param event ClientConnectionEvent.Disconnect
+     */
+    @Listener
+    public void onPlayerDisconnect(ClientConnectionEvent.Disconnect event) {
+        Player player = event.getTargetEntity();
+        UUID uuid = player.getUniqueId();
+        JobRewardBatch batch = pendingRewards.remove(uuid);
+
+        if (batch != null) {
+            applyRewards(player, batch);
+        }
+
+        JobSession session = sessions.remove(uuid);
+
+        if (session == null) {
+            return;
+        }
+
+        if (databaseEnabled) {
+            departingSessions.put(uuid, session);
+
+            CompletableFuture<Boolean> save = accountManager.supplyAsync(() -> saveSession(session));
+            departingSaves.put(uuid, save);
+
+            // Only the latest save releases the session, a quick rejoin and quit may have queued another one. A session
+            // that failed to be written is kept, so a rejoin picks its changes up again and they're retried on shutdown.
+            save.whenComplete((saved, throwable) -> {
+                if (departingSaves.remove(uuid, save) && Boolean.TRUE.equals(saved)) {
+                    departingSessions.remove(uuid, session);
+                }
+            });
+        } else if (!saveSession(session)) {
+            departingSessions.put(uuid, session);
+        }
+    }
+
     /**
      * Add exp to player's current job.
      *
@@ -256,94 +636,43 @@ public class JobManager {
      * @param expAmount The amount of experience to add
      */
     public void addExp(Player player, int expAmount) {
-        String jobName = getPlayerJob(player);
-        UUID playerUniqueId = player.getUniqueId();
-        boolean jobNotifications = accountManager.getJobNotificationState(player);
+        JobSession session = getSession(player);
+        String jobName = session.getJob();
 
         Map<String, String> messageValues = new HashMap<>();
         messageValues.put("job", titleize(jobName));
         messageValues.put("exp", String.valueOf(expAmount));
 
-        if (databaseEnabled) {
-            int newExp = getJobExp(jobName, player) + expAmount;
-
-            SqlQuery sqlQuery = SqlQuery.builder(sqlManager.dataSource)
-                    .update("experience")
-                    .set(jobName)
-                    .equals(String.valueOf(newExp))
-                    .where("uid")
-                    .equals(playerUniqueId.toString())
-                    .build();
-
-            if (sqlQuery.getRowsAffected() > 0) {
-                if (jobNotifications) {
-                    player.sendMessage(messageManager.getMessage("jobs.addexp", messageValues));
-                }
-            } else {
-                logger.warn("An error occurred while updating job experience in the database!");
-                player.sendMessage(Text.of(TextColors.RED, "[TE] Error adding experience! Consult an administrator!"));
-            }
-        } else {
-            ConfigurationNode accountConfig = accountManager.getAccountConfig();
-
-            int curExp = accountConfig.getNode(playerUniqueId.toString(), "jobstats", jobName, "exp").getInt();
-
-            accountConfig.getNode(playerUniqueId.toString(), "jobstats", jobName, "exp").setValue(curExp + expAmount);
+        int exp = session.addExp(jobName, expAmount);
+        getJobRanking(jobName).put(player.getUniqueId(), exp);
 
-            if (jobNotifications) {
-                player.sendMessage(messageManager.getMessage("jobs.addexp", messageValues));
-            }
-
-            try {
-                accountManager.getConfigManager().save(accountConfig);
-            } catch (IOException e) {
-                logger.warn("An error occurred while saving the account configuration file!");
-            }
+        if (session.getNotifications()) {
+            player.sendMessage(messageManager.getMessage("jobs.addexp", messageValues));
         }
+
+        sessionChanged(session, false);
     }
 
     /**
-     * Checks if the player has enough exp to level up. If they do they will gain a level and their current exp will be
-     * reset.
+     * Checks if the player has enough exp to level up. If they do they will gain the level their total exp reaches on
+     * the job's level curve, which may be several levels at once.
      *
      * @param player player object
      */
     public void checkForLevel(Player player) {
-        UUID playerUniqueId = player.getUniqueId();
-        String jobName = getPlayerJob(player);
+        JobSession session = getSession(player);
+        String jobName = session.getJob();
         int playerLevel = getJobLevel(jobName, player);
         int playerCurExp = getJobExp(jobName, player);
-        int expToLevel = getExpToLevel(player);
-
-        if (playerCurExp >= expToLevel) {
-            playerLevel += 1;
+        int newLevel = getLevelCurve(jobName).getLevel(playerCurExp);
 
+        if (newLevel > playerLevel) {
             Map<String, String> messageValues = new HashMap<>();
             messageValues.put("job", titleize(jobName));
-            messageValues.put("level", String.valueOf(playerLevel));
-
-            if (databaseEnabled) {
-                SqlQuery.builder(sqlManager.dataSource)
-                        .update("levels")
-                        .set(jobName)
-                        .equals(String.valueOf(playerLevel))
-                        .where("uid")
-                        .equals(playerUniqueId.toString())
-                        .build();
-
-                SqlQuery.builder(sqlManager.dataSource)
-                        .update("experience")
-                        .set(jobName)
-                        .equals(String.valueOf(playerCurExp))
-                        .where("uid")
-                        .equals(playerUniqueId.toString())
-                        .build();
-            } else {
-                ConfigurationNode accountConfig = accountManager.getAccountConfig();
+            messageValues.put("level", String.valueOf(newLevel));
 
-                accountConfig.getNode(playerUniqueId.toString(), "jobstats", jobName, "level").setValue(playerLevel);
-                accountConfig.getNode(playerUniqueId.toString(), "jobstats", jobName, "exp").setValue(playerCurExp);
-            }
+            session.setLevel(jobName, newLevel);
+            sessionChanged(session, true);
 
             player.sendMessage(messageManager.getMessage("jobs.levelup", messageValues));
         }
@@ -373,19 +702,107 @@ public class JobManager {
         return input.substring(0, 1).toUpperCase() + input.substring(1).toLowerCase();
     }
 
-    private boolean getNotificationState(UUID uuid) {
-        if (databaseEnabled) {
-            SqlQuery sqlQuery = SqlQuery.builder(sqlManager.dataSource)
-                    .select("job_notifications")
-                    .from("accounts")
-                    .where("uid")
-                    .equals(uuid.toString())
-                    .build();
-
-            return sqlQuery.getBoolean(totalEconomy.isJobNotificationEnabled());
+    /**
+     * Gets the passed in player's notification state.
+     *
+     * @param player The {@link Player} who's notification state to get
+     * @return boolean The notification state
+     */
+    public boolean getNotificationState(Player player) {
+        return getSession(player).getNotifications();
+    }
+
+    /**
+     * Toggle a player's exp/money notifications for jobs.
+     *
+     * @param player Player toggling notifications
+     */
+    public void toggleNotifications(Player player) {
+        JobSession session = getSession(player);
+        boolean jobNotifications = !session.getNotifications();
+
+        session.setNotifications(jobNotifications);
+        sessionChanged(session, true);
+
+        if (jobNotifications) {
+            player.sendMessage(messageManager.getMessage("notifications.on"));
+        } else {
+            player.sendMessage(messageManager.getMessage("notifications.off"));
         }
+    }
 
-        return accountManager.getAccountConfig().getNode(uuid.toString(), "jobnotifications").getBoolean();
+    /**
+     * Reward a player for the job actions counted in a tally, which is cleared afterwards. Within a reward window the
+     * rewards of a player are summed and paid out together when the window ends.
+     *
+     * @param player The player to reward
+     * @param tally The earned rewards
+     * @param cause Cause of the actions
+     */
+    private void rewardPlayer(Player player, JobRewardTally tally, Cause cause) {
+        JobRewardBatch batch = rewardWindow > 0
+                ? pendingRewards.computeIfAbsent(player.getUniqueId(), uuid -> new JobRewardBatch(cause))
+                : new JobRewardBatch(cause);
+
+        for (int i = 0; i < tally.size(); i++) {
+            TEActionReward reward = tally.getReward(i);
+            Currency currency = totalEconomy.getDefaultCurrency();
+
+            if (reward.getCurrencyId() != null) {
+                Optional<Currency> currencyOpt = totalEconomy.getTECurrencyRegistryModule().getById("totaleconomy:" + reward.getCurrencyId());
+                if (currencyOpt.isPresent()) {
+                    currency = currencyOpt.get();
+                }
+            }
+
+            batch.add(currency, tally.getMoney(i), tally.getExp(i));
+        }
+
+        tally.clear();
+
+        if (rewardWindow <= 0) {
+            applyRewards(player, batch);
+        }
+    }
+
+    /**
+     * Pay out the rewards collected during the current reward window.
+     */
+    private void applyPendingRewards() {
+        if (pendingRewards.isEmpty()) {
+            return;
+        }
+
+        Map<UUID, JobRewardBatch> batches = new HashMap<>(pendingRewards);
+        pendingRewards.clear();
+
+        batches.forEach((uuid, batch) -> totalEconomy.getServer().getPlayer(uuid).ifPresent(player -> applyRewards(player, batch)));
+    }
+
+    /**
+     * Pay out a batch of rewards with one deposit per currency, one exp update, one level check and one notification
+     * per currency.
+     *
+     * @param player The player to reward
+     * @param batch The rewards
+     */
+    private void applyRewards(Player player, JobRewardBatch batch) {
+        boolean notify = getNotificationState(player);
+        TEAsyncAccount playerAccount = accountManager.getAsyncAccount(player.getUniqueId());
+
+        batch.getMoney().forEach((currency, amount) -> {
+            if (notify) {
+                notifyPlayerOfJobReward(player, amount, currency);
+            }
+
+            playerAccount.deposit(currency, amount, batch.getCause());
+        });
+
+        if (batch.getExp() > 0) {
+            addExp(player, batch.getExp());
+        }
+
+        checkForLevel(player);
     }
 
     /**
@@ -409,46 +826,25 @@ public class JobManager {
      * @param jobName name of the job
      */
     public boolean setJob(User user, String jobName) {
-        UUID userUniqueId = user.getUniqueId();
+        JobSession session = getSession(user);
 
         // Just in case the job name was not passed in as lowercase, make it lowercase
-        jobName = jobName.toLowerCase();
+        session.setJob(jobName.toLowerCase());
 
-        if (databaseEnabled) {
-            SqlQuery sqlQuery = SqlQuery.builder(sqlManager.dataSource)
-                    .update("accounts")
-                    .set("job")
-                    .equals(jobName)
-                    .where("uid")
-                    .equals(userUniqueId.toString())
-                    .build();
-
-            if (sqlQuery.getRowsAffected() > 0) {
-                return true;
-            } else {
+        // Offline users aren't kept in memory, so their change is written straight away
+        if (sessions.get(user.getUniqueId()) != session) {
+            if (!saveSession(session)) {
                 logger.warn("An error occurred while changing the job of " + user.getUniqueId() + "/" + user.getName() + "!");
-                return false;
-            }
-        } else {
-            ConfigurationNode accountConfig = accountManager.getAccountConfig();
 
-            accountConfig.getNode(userUniqueId.toString(), "job").setValue(jobName);
-
-            accountConfig.getNode(userUniqueId.toString(), "jobstats", jobName, "level").setValue(
-                    accountConfig.getNode(userUniqueId.toString(), "jobstats", jobName, "level").getInt(1));
-
-            accountConfig.getNode(userUniqueId.toString(), "jobstats", jobName, "exp").setValue(
-                    accountConfig.getNode(userUniqueId.toString(), "jobstats", jobName, "exp").getInt(0));
-
-            try {
-                accountManager.getConfigManager().save(accountConfig);
-            } catch (IOException e) {
-                logger.warn("An error occurred while changing the job of " + user.getUniqueId() + "/" + user.getName() + "!");
+                return false;
             }
 
             return true;
         }
 
+        sessionChanged(session, true);
+
+        return true;
     }
 
     /**
@@ -467,22 +863,7 @@ public class JobManager {
      * @return String the job the user currently has
      */
     public String getPlayerJob(User user) {
-        UUID uuid = user.getUniqueId();
-
-        if (databaseEnabled) {
-            SqlQuery sqlQuery = SqlQuery.builder(sqlManager.dataSource)
-                    .select("job")
-                    .from("accounts")
-                    .where("uid")
-                    .equals(uuid.toString())
-                    .build();
-
-            return sqlQuery.getString("unemployed").toLowerCase();
-        } else {
-            ConfigurationNode accountConfig = accountManager.getAccountConfig();
-
-            return accountConfig.getNode(user.getUniqueId().toString(), "job").getString("unemployed").toLowerCase();
-        }
+        return getSession(user).getJob();
     }
 
     /**
@@ -510,26 +891,11 @@ public class JobManager {
      * @return int The job level
      */
     public int getJobLevel(String jobName, User user) {
-        UUID playerUniqueId = user.getUniqueId();
-
         // Just in case the job name was not passed in as lowercase, make it lowercase
         jobName = jobName.toLowerCase();
 
         if (!jobName.equals("unemployed")) {
-            if (databaseEnabled) {
-                SqlQuery sqlQuery = SqlQuery.builder(sqlManager.dataSource)
-                        .select(jobName)
-                        .from("levels")
-                        .where("uid")
-                        .equals(playerUniqueId.toString())
-                        .build();
-
-                return sqlQuery.getInt(1);
-            } else {
-                ConfigurationNode accountConfig = accountManager.getAccountConfig();
-
-                return accountConfig.getNode(user.getUniqueId().toString(), "jobstats", jobName, "level").getInt(1);
-            }
+            return getSession(user).getLevel(jobName);
         }
 
         return 1;
@@ -543,26 +909,11 @@ public class JobManager {
      * @return int the job exp
      */
     public int getJobExp(String jobName, User user) {
-        UUID playerUniqueId = user.getUniqueId();
-
         // Just in case the job name was not passed in as lowercase, make it lowercase
         jobName = jobName.toLowerCase();
 
         if (!jobName.equals("unemployed")) {
-            if (databaseEnabled) {
-                SqlQuery sqlQuery = SqlQuery.builder(sqlManager.dataSource)
-                        .select(jobName)
-                        .from("experience")
-                        .where("uid")
-                        .equals(playerUniqueId.toString())
-                        .build();
-
-                return sqlQuery.getInt(0);
-            } else {
-                ConfigurationNode accountConfig = accountManager.getAccountConfig();
-
-                return accountConfig.getNode(playerUniqueId.toString(), "jobstats", jobName, "exp").getInt(0);
-            }
+            return getSession(user).getExp(jobName);
         }
 
         return 0;
@@ -576,13 +927,8 @@ public class JobManager {
      */
     public int getExpToLevel(User user) {
         String jobName = getPlayerJob(user);
-        int playerLevel = getJobLevel(jobName, user);
 
-        int nextLevel = playerLevel + 1;
-        int expToLevel = (int) ((Math.pow(nextLevel, 2) + nextLevel) / 2) * 100 - (nextLevel * 100);
-
-        // TODO: Custom algorithm for this, set from config
-        return expToLevel;
+        return getLevelCurve(jobName).getExpForLevel(getJobLevel(jobName, user) + 1);
     }
 
     /**
@@ -713,89 +1059,58 @@ public class JobManager {
      */
     @Listener
     public void onPlayerBlockBreak(ChangeBlockEvent.Break event) {
-        if (event.getCause().first(Player.class).isPresent()) {
-            Player player = event.getCause().first(Player.class).get();
-            UUID playerUniqueId = player.getUniqueId();
-
-            String playerJob = getPlayerJob(player);
-            Optional<TEJob> optPlayerJob = getJob(playerJob, true);
-
-            BlockState state = event.getTransactions().get(0).getOriginal().getState();
-            String blockName = state.getType().getName();
-            Optional<UUID> blockCreator = event.getTransactions().get(0).getOriginal().getCreator();
+        if (!event.getCause().first(Player.class).isPresent()) {
+            // Blocks broken some other way aren't placed blocks anymore either
+            for (Transaction<BlockSnapshot> transaction : event.getTransactions()) {
+                if (transaction.isValid()) {
+                    BlockSnapshot original = transaction.getOriginal();
 
-            // Enable admins to determine block information by displaying it to them - WHEN they have the flag enabled
-            if (accountManager.getUserOption("totaleconomy:block-break-info", player).orElse("0").equals("1")) {
-                List<BlockTrait<?>> traits = new ArrayList<>(state.getTraits());
-                int count = traits.size();
-                List<Text> traitTexts = new ArrayList<>(count);
-
-                for (int i = 0; i < count; i++) {
-                    Object traitValue = state.getTraitValue(traits.get(i)).orElse(null);
-                    traitTexts.add(i, Text.of(traits.get(i).getName(), '=', traitValue != null ? traitValue.toString() : "null"));
+                    placedBlockTracker.removePlaced(original.getWorldUniqueId(), original.getPosition().getX(), original.getPosition().getY(), original.getPosition().getZ());
                 }
-
-                Text t = Text.of(TextColors.GRAY, "TRAITS:\n    ", Text.joinWith(Text.of(",\n    "), traitTexts.toArray(new Text[traits.size()])));
-                player.sendMessage(Text.of("Block-Name: ", blockName));
-                player.sendMessage(t);
             }
+        } else {
+            Player player = event.getCause().first(Player.class).get();
 
-            if (optPlayerJob.isPresent()) {
-                Optional<TEActionReward> reward = Optional.empty();
-                List<String> sets = optPlayerJob.get().getSets();
-
-                for (String s : sets) {
-                    Optional<TEJobSet> optSet = getJobSet(s);
-                    if (!optSet.isPresent()) {
-                        logger.warn("Job " + playerJob + " has the nonexistent set \"" + s + "\"");
-                        continue;
-                    }
+            Optional<TEJob> optPlayerJob = getLoadedJob(player);
 
-                    Optional<TEAction> action = optSet.get().getActionFor("break", blockName);
-                    if (!action.isPresent()) {
-                        continue;
-                    }
+            // Enable admins to determine block information by displaying it to them - WHEN they have the flag enabled
+            boolean showBlockInfo = accountManager.getUserOption("totaleconomy:block-break-info", player).orElse("0").equals("1");
 
-                    Optional<TEActionReward> currentReward = action.get().evaluateBreak(logger, state, blockCreator.orElse(null));
-                    if (!reward.isPresent()) {
-                        reward = currentReward;
-                        continue;
-                    }
+            // Explosions and multi-break tools break many blocks in one event, all of them are paid in one go
+            for (Transaction<BlockSnapshot> transaction : event.getTransactions()) {
+                if (!transaction.isValid()) {
+                    continue;
+                }
 
-                    if (!currentReward.isPresent()) {
-                        continue;
-                    }
+                BlockSnapshot original = transaction.getOriginal();
+                BlockState state = original.getState();
+                String blockName = state.getType().getName();
+                boolean playerPlaced = placedBlockTracker.removePlaced(original.getWorldUniqueId(), original.getPosition().getX(), original.getPosition().getY(), original.getPosition().getZ());
 
-                    // Use the one giving higher exp in case of duplicates
-                    if (currentReward.get().getExpReward() > reward.get().getExpReward()) {
-                        reward = currentReward;
-                    }
+                if (showBlockInfo) {
+                    sendBlockInfo(player, state, blockName);
                 }
 
-                if (reward.isPresent()) {
-                    BigDecimal payAmount = new BigDecimal(reward.get().getMoneyReward());
-                    Currency currency = totalEconomy.getDefaultCurrency();
+                if (optPlayerJob.isPresent()) {
+                    boolean rewarded = false;
 
-                    if (reward.get().getCurrencyId() != null) {
-                        Optional<Currency> currencyOpt = totalEconomy.getTECurrencyRegistryModule().getById("totaleconomy:" + reward.get().getCurrencyId());
-                        if (currencyOpt.isPresent()) {
-                            currency = currencyOpt.get();
+                    for (TEAction action : rewardIndex.getActions(optPlayerJob.get().getName(), "break", blockName)) {
+                        // Use the one giving higher exp in case of duplicates
+                        if (action.evaluateBreak(logger, state, playerPlaced, candidateReward) && (!rewarded || candidateReward.getExp() > bestReward.getExp())) {
+                            bestReward.copyFrom(candidateReward);
+                            rewarded = true;
                         }
                     }
 
-                    boolean notify = getNotificationState(playerUniqueId);
-                    if (notify) {
-                        notifyPlayerOfJobReward(player, payAmount, currency);
+                    if (rewarded) {
+                        rewardTally.add(bestReward);
                     }
-
-                    TEAccount playerAccount = (TEAccount) accountManager.getOrCreateAccount(player.getUniqueId()).get();
-                    playerAccount.deposit(currency, payAmount, event.getCause());
-
-                    int expAmount = reward.get().getExpReward();
-                    addExp(player, expAmount);
-                    checkForLevel(player);
                 }
             }
+
+            if (!rewardTally.isEmpty()) {
+                rewardPlayer(player, rewardTally, event.getCause());
+            }
         }
     }
 
@@ -810,88 +1125,70 @@ public class JobManager {
     public void onPlayerPlaceBlock(ChangeBlockEvent.Place event) {
         if (event.getCause().first(Player.class).isPresent()) {
             Player player = event.getCause().first(Player.class).get();
-            UUID playerUniqueId = player.getUniqueId();
-
-            String playerJob = getPlayerJob(player);
-            Optional<TEJob> optPlayerJob = getJob(playerJob, true);
 
-            BlockState state = event.getTransactions().get(0).getFinal().getState();
-            String blockName = state.getType().getName();
+            Optional<TEJob> optPlayerJob = getLoadedJob(player);
 
             // Enable admins to determine block information by displaying it to them - WHEN they have the flag enabled
-            if (accountManager.getUserOption("totaleconomy:block-place-info", player).orElse("0").equals("1")) {
-                List<BlockTrait<?>> traits = new ArrayList<>(state.getTraits());
-                int count = traits.size();
-                List<Text> traitTexts = new ArrayList<>(count);
-
-                for (int i = 0; i < count; i++) {
-                    Object traitValue = state.getTraitValue(traits.get(i)).orElse(null);
-                    traitTexts.add(i, Text.of(traits.get(i).getName(), '=', traitValue != null ? traitValue.toString() : "null"));
-                }
-
-                Text t = Text.of(TextColors.GRAY, "TRAITS:\n    ", Text.joinWith(Text.of(",\n    "), traitTexts.toArray(new Text[traits.size()])));
-                player.sendMessage(Text.of("Block-Name: ", blockName));
-                player.sendMessage(t);
-            }
-
-            if (optPlayerJob.isPresent()) {
-                Optional<TEActionReward> reward = Optional.empty();
-                List<String> sets = optPlayerJob.get().getSets();
-
-                for (String s : sets) {
-                    Optional<TEJobSet> optSet = getJobSet(s);
-                    if (!optSet.isPresent()) {
-                        logger.warn("Job " + playerJob + " has the nonexistent set \"" + s + "\"");
-                        continue;
-                    }
+            boolean showBlockInfo = accountManager.getUserOption("totaleconomy:block-place-info", player).orElse("0").equals("1");
 
-                    Optional<TEAction> action = optSet.get().getActionFor("place", blockName);
-                    if (!action.isPresent()) {
-                        continue;
-                    }
+            for (Transaction<BlockSnapshot> transaction : event.getTransactions()) {
+                if (!transaction.isValid()) {
+                    continue;
+                }
 
-                    Optional<TEActionReward> currentReward = action.get().evaluatePlace(logger, state);
-                    if (!reward.isPresent()) {
-                        reward = currentReward;
-                        continue;
-                    }
+                BlockSnapshot placed = transaction.getFinal();
+                BlockState state = placed.getState();
+                String blockName = state.getType().getName();
 
-                    if (!currentReward.isPresent()) {
-                        continue;
-                    }
+                placedBlockTracker.markPlaced(placed.getWorldUniqueId(), placed.getPosition().getX(), placed.getPosition().getY(), placed.getPosition().getZ());
 
-                    // Use the one giving higher exp in case of duplicates
-                    if (currentReward.get().getExpReward() > reward.get().getExpReward()) {
-                        reward = currentReward;
-                    }
+                if (showBlockInfo) {
+                    sendBlockInfo(player, state, blockName);
                 }
 
-                if (reward.isPresent()) {
-                    boolean notify = getNotificationState(playerUniqueId);
-                    BigDecimal payAmount = new BigDecimal(reward.get().getMoneyReward());
-                    Currency currency = totalEconomy.getDefaultCurrency();
+                if (optPlayerJob.isPresent()) {
+                    boolean rewarded = false;
 
-                    if (reward.get().getCurrencyId() != null) {
-                        Optional<Currency> currencyOpt = totalEconomy.getTECurrencyRegistryModule().getById("totaleconomy:" + reward.get().getCurrencyId());
-                        if (currencyOpt.isPresent()) {
-                            currency = currencyOpt.get();
+                    for (TEAction action : rewardIndex.getActions(optPlayerJob.get().getName(), "place", blockName)) {
+                        // Use the one giving higher exp in case of duplicates
+                        if (action.evaluatePlace(logger, state, candidateReward) && (!rewarded || candidateReward.getExp() > bestReward.getExp())) {
+                            bestReward.copyFrom(candidateReward);
+                            rewarded = true;
                         }
                     }
 
-                    if (notify) {
-                        notifyPlayerOfJobReward(player, payAmount, currency);
+                    if (rewarded) {
+                        rewardTally.add(bestReward);
                     }
-
-                    TEAccount playerAccount = (TEAccount) accountManager.getOrCreateAccount(player.getUniqueId()).get();
-                    playerAccount.deposit(currency, payAmount, event.getCause());
-
-                    int expAmount = reward.get().getExpReward();
-                    addExp(player, expAmount);
-
-                    checkForLevel(player);
                 }
             }
+
+            if (!rewardTally.isEmpty()) {
+                rewardPlayer(player, rewardTally, event.getCause());
+            }
+        }
+    }
+
+    /**
+     * Show the type and traits of a block to an admin that enabled block information.
+     *
+     * @param player The admin
+     * @param state The state of the block
+     * @param blockName The name of the block type
+     */
+    private void sendBlockInfo(Player player, BlockState state, String blockName) {
+        List<BlockTrait<?>> traits = new ArrayList<>(state.getTraits());
+        int count = traits.size();
+        List<Text> traitTexts = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            Object traitValue = state.getTraitValue(traits.get(i)).orElse(null);
+            traitTexts.add(i, Text.of(traits.get(i).getName(), '=', traitValue != null ? traitValue.toString() : "null"));
         }
+
+        Text t = Text.of(TextColors.GRAY, "TRAITS:\n    ", Text.joinWith(Text.of(",\n    "), traitTexts.toArray(new Text[traits.size()])));
+        player.sendMessage(Text.of("Block-Name: ", blockName));
+        player.sendMessage(t);
     }
 
     /**
@@ -921,11 +1218,9 @@ public class JobManager {
 
             if (killer instanceof Player) {
                 Player player = (Player) killer;
-                UUID playerUniqueId = player.getUniqueId();
                 String victimName = victim.getType().getName();
 
-                String playerJob = getPlayerJob(player);
-                Optional<TEJob> optPlayerJob = getJob(playerJob, true);
+                Optional<TEJob> optPlayerJob = getLoadedJob(player);
 
                 // Enable admins to determine victim information by displaying it to them - WHEN they have the flag enabled
                 if (accountManager.getUserOption("totaleconomy:entity-kill-info", player).orElse("0").equals("1")) {
@@ -934,21 +1229,8 @@ public class JobManager {
 
                 if (optPlayerJob.isPresent()) {
                     Optional<TEActionReward> reward = Optional.empty();
-                    List<String> sets = optPlayerJob.get().getSets();
-
-                    for (String s : sets) {
-                        Optional<TEJobSet> optSet = getJobSet(s);
-                        if (!optSet.isPresent()) {
-                            logger.warn("Job " + playerJob + " has the nonexistent set \"" + s + "\"");
-                            continue;
-                        }
-
-                        Optional<TEAction> action = optSet.get().getActionFor("kill", victimName);
-                        if (!action.isPresent()) {
-                            continue;
-                        }
-
-                        Optional<TEActionReward> currentReward = action.get().getReward();
+                    for (TEAction action : rewardIndex.getActions(optPlayerJob.get().getName(), "kill", victimName)) {
+                        Optional<TEActionReward> currentReward = action.getReward();
                         if (!reward.isPresent()) {
                             reward = currentReward;
                             continue;
@@ -965,28 +1247,8 @@ public class JobManager {
                     }
 
                     if (reward.isPresent()) {
-                        boolean notify = getNotificationState(playerUniqueId);
-                        BigDecimal payAmount = new BigDecimal(reward.get().getMoneyReward());
-                        Currency currency = totalEconomy.getDefaultCurrency();
-
-                        if (reward.get().getCurrencyId() != null) {
-                            Optional<Currency> currencyOpt = totalEconomy.getTECurrencyRegistryModule().getById("totaleconomy:" + reward.get().getCurrencyId());
-                            if (currencyOpt.isPresent()) {
-                                currency = currencyOpt.get();
-                            }
-                        }
-
-                        if (notify) {
-                            notifyPlayerOfJobReward(player, payAmount, currency);
-                        }
-
-                        TEAccount playerAccount = (TEAccount) accountManager.getOrCreateAccount(player.getUniqueId()).get();
-                        playerAccount.deposit(currency, payAmount, event.getCause());
-
-                        int expAmount = reward.get().getExpReward();
-                        addExp(player, expAmount);
-
-                        checkForLevel(player);
+                        rewardTally.add(reward.get());
+                        rewardPlayer(player, rewardTally, event.getCause());
                     }
                 }
             }
@@ -1011,10 +1273,8 @@ public class JobManager {
             Transaction<ItemStackSnapshot> itemTransaction = event.getTransactions().get(0);
             ItemStack itemStack = itemTransaction.getFinal().createStack();
             Player player = event.getCause().first(Player.class).get();
-            UUID playerUniqueId = player.getUniqueId();
 
-            String playerJob = getPlayerJob(player);
-            Optional<TEJob> optPlayerJob = getJob(playerJob, true);
+            Optional<TEJob> optPlayerJob = getLoadedJob(player);
 
             if (optPlayerJob.isPresent()) {
                 if (itemStack.get(FishData.class).isPresent()) {
@@ -1027,22 +1287,8 @@ public class JobManager {
                     }
 
                     Optional<TEActionReward> reward = Optional.empty();
-                    List<String> sets = optPlayerJob.get().getSets();
-
-                    for (String s : sets) {
-                        Optional<TEJobSet> optSet = getJobSet(s);
-
-                        if (!optSet.isPresent()) {
-                            logger.warn("Job " + playerJob + " has the nonexistent set \"" + s + "\"");
-                            continue;
-                        }
-
-                        Optional<TEAction> action = optSet.get().getActionFor("catch", fishName);
-                        if (!action.isPresent()) {
-                            continue;
-                        }
-
-                        Optional<TEActionReward> currentReward = action.get().getReward();
+                    for (TEAction action : rewardIndex.getActions(optPlayerJob.get().getName(), "catch", fishName)) {
+                        Optional<TEActionReward> currentReward = action.getReward();
                         if (!reward.isPresent()) {
                             reward = currentReward;
                             continue;
@@ -1059,28 +1305,8 @@ public class JobManager {
                     }
 
                     if (reward.isPresent()) {
-                        boolean notify = getNotificationState(playerUniqueId);
-                        BigDecimal payAmount = new BigDecimal(reward.get().getMoneyReward());
-                        Currency currency = totalEconomy.getDefaultCurrency();
-
-                        if (reward.get().getCurrencyId() != null) {
-                            Optional<Currency> currencyOpt = totalEconomy.getTECurrencyRegistryModule().getById("totaleconomy:" + reward.get().getCurrencyId());
-                            if (currencyOpt.isPresent()) {
-                                currency = currencyOpt.get();
-                            }
-                        }
-
-                        if (notify) {
-                            notifyPlayerOfJobReward(player, payAmount, currency);
-                        }
-
-                        TEAccount playerAccount = (TEAccount) accountManager.getOrCreateAccount(player.getUniqueId()).get();
-                        playerAccount.deposit(currency, payAmount, event.getCause());
-
-                        int expAmount = reward.get().getExpReward();
-                        addExp(player, expAmount);
-
-                        checkForLevel(player);
+                        rewardTally.add(reward.get());
+                        rewardPlayer(player, rewardTally, event.getCause());
                     }
                 }
             }
@@ -0,0 +1,75 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.erigitic.jobs;
+
+import java.math.BigDecimal;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.spongepowered.api.event.cause.Cause;
+import org.spongepowered.api.service.economy.Currency;
+
+/**
+ * The job rewards a player earned during one reward window, summed per currency.
+ */
+public class JobRewardBatch {
+
+    private final Cause cause;
+    private final Map<Currency, BigDecimal> money = new LinkedHashMap<>();
+    private int exp = 0;
+
+    /**
+     * Constructor for the JobRewardBatch class.
+     *
+     * @param cause Cause of the first reward in the window, used for the deposits
+     */
+    public JobRewardBatch(Cause cause) {
+        this.cause = cause;
+    }
+
+    /**
+     * Add a reward to the batch.
+     *
+     * @param currency The currency the money is paid in
+     * @param amount The amount of money
+     * @param expAmount The amount of exp
+     */
+    public void add(Currency currency, BigDecimal amount, int expAmount) {
+        money.merge(currency, amount, BigDecimal::add);
+        exp += expAmount;
+    }
+
+    public Cause getCause() {
+        return cause;
+    }
+
+    public Map<Currency, BigDecimal> getMoney() {
+        return money;
+    }
+
+    public int getExp() {
+        return exp;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.erigitic.jobs;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.slf4j.Logger;
+
+/**
+ * Immutable lookup table of the actions that reward a job, compiled from the loaded jobs and job sets. Finding the
+ * actions for a job, action type and target is a single hash lookup instead of a scan over every action of every set.
+ */
+public final class JobRewardIndex {
+
+    public static final JobRewardIndex EMPTY = new JobRewardIndex(Collections.emptyMap());
+
+    private static final TEAction[] NO_ACTIONS = new TEAction[0];
+
+    private final Map<String, Map<String, Map<String, TEAction[]>>> actions;
+
+    private JobRewardIndex(Map<String, Map<String, Map<String, TEAction[]>>> actions) {
+        this.actions = actions;
+    }
+
+    /**
+     * Compile the actions of every job. Each set of a job contributes its first action for an action type and target,
+     * in the order the sets are listed by the job.
+     *
+     * @param jobs The loaded jobs, keyed by name
+     * @param jobSets The loaded job sets, keyed by name
+     * @param logger Logger used to report jobs referencing nonexistent sets
+     * @return JobRewardIndex The compiled index
+     */
+    public static JobRewardIndex build(Map<String, TEJob> jobs, Map<String, TEJobSet> jobSets, Logger logger) {
+        Map<String, Map<String, Map<String, TEAction[]>>> actions = new HashMap<>();
+
+        jobs.forEach((jobName, job) -> {
+            Map<String, Map<String, List<TEAction>>> jobActions = new HashMap<>();
+
+            for (String setName : job.getSets()) {
+                TEJobSet jobSet = jobSets.get(setName);
+
+                if (jobSet == null) {
+                    logger.warn("Job " + jobName + " has the nonexistent set \"" + setName + "\"");
+                    continue;
+                }
+
+                Set<String> setKeys = new HashSet<>();
+
+                for (TEAction action : jobSet.getActions()) {
+                    if (setKeys.add(action.getAction() + '\u0000' + action.getTargetId())) {
+                        jobActions.computeIfAbsent(action.getAction(), k -> new HashMap<>())
+                                .computeIfAbsent(action.getTargetId(), k -> new ArrayList<>())
+                                .add(action);
+                    }
+                }
+            }
+
+            Map<String, Map<String, TEAction[]>> compiled = new HashMap<>();
+
+            jobActions.forEach((actionName, targets) -> {
+                Map<String, TEAction[]> compiledTargets = new HashMap<>();
+                targets.forEach((targetId, targetActions) -> compiledTargets.put(targetId, targetActions.toArray(NO_ACTIONS)));
+                compiled.put(actionName, compiledTargets);
+            });
+
+            actions.put(jobName, compiled);
+        });
+
+        return new JobRewardIndex(Collections.unmodifiableMap(actions));
+    }
+
+    /**
+     * Get the actions of a job for an action type and target.
+     *
+     * @param jobName Name of the job
+     * @param action The action type, e.g. "break"
+     * @param targetId The id of the target, e.g. a block type
+     * @return TEAction[] The matching actions, empty if there are none. Must not be modified.
+     */
+    public TEAction[] getActions(String jobName, String action, String targetId) {
+        Map<String, Map<String, TEAction[]>> jobActions = actions.get(jobName);
+
+        if (jobActions == null) {
+            return NO_ACTIONS;
+        }
+
+        Map<String, TEAction[]> targets = jobActions.get(action);
+
+        if (targets == null) {
+            return NO_ACTIONS;
+        }
+
+        return targets.getOrDefault(targetId, NO_ACTIONS);
+    }
+}
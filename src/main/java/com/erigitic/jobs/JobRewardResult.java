@@ -0,0 +1,70 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.erigitic.jobs;
+
+/**
+ * Mutable result of evaluating a {@link TEAction} against a block. Holds the configured reward the result is based on,
+ * along with the exp and money it is worth after growth scaling. Meant to be reused, so evaluating blocks doesn't
+ * allocate.
+ */
+public class JobRewardResult {
+
+    private TEActionReward reward;
+    private int exp;
+    private double money;
+
+    void set(TEActionReward reward, int exp, double money) {
+        this.reward = reward;
+        this.exp = exp;
+        this.money = money;
+    }
+
+    /**
+     * Copy the values of another result into this one.
+     *
+     * @param other The result to copy
+     */
+    public void copyFrom(JobRewardResult other) {
+        set(other.reward, other.exp, other.money);
+    }
+
+    /**
+     * Get the configured reward this result is based on.
+     *
+     * @return TEActionReward The configured reward
+     */
+    public TEActionReward getReward() {
+        return reward;
+    }
+
+    public int getExp() {
+        return exp;
+    }
+
+    public double getMoney() {
+        return money;
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.erigitic.jobs;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+/**
+ * Sums the rewards earned during one event per configured reward. Rewards are compared by identity, so the tally only
+ * grows with the number of distinct rewards, not with the number of blocks or entities in the event. Meant to be
+ * reused.
+ *
+ * <p>Money is summed exactly. Full rewards are counted and multiplied out in decimal once the tally is read, so adding
+ * them doesn't allocate. Growth scaled amounts are added up as decimals.</p>
+ */
+public class JobRewardTally {
+
+    private TEActionReward[] rewards = new TEActionReward[8];
+    private int[] exp = new int[8];
+    private int[] fullRewards = new int[8];
+    private BigDecimal[] scaledMoney = new BigDecimal[8];
+    private int size = 0;
+
+    /**
+     * Add the full value of a configured reward.
+     *
+     * @param reward The earned reward
+     */
+    public void add(TEActionReward reward) {
+        add(reward, reward.getExpReward(), reward.getMoneyReward());
+    }
+
+    /**
+     * Add an evaluated reward.
+     *
+     * @param result The evaluated reward
+     */
+    public void add(JobRewardResult result) {
+        add(result.getReward(), result.getExp(), result.getMoney());
+    }
+
+    private void add(TEActionReward reward, int expAmount, double moneyAmount) {
+        int index = indexOf(reward);
+
+        exp[index] += expAmount;
+
+        if (moneyAmount == reward.getMoneyReward()) {
+            fullRewards[index]++;
+        } else {
+            scaledMoney[index] = scaledMoney[index].add(BigDecimal.valueOf(moneyAmount));
+        }
+    }
+
+    private int indexOf(TEActionReward reward) {
+        for (int i = 0; i < size; i++) {
+            if (rewards[i] == reward) {
+                return i;
+            }
+        }
+
+        if (size == rewards.length) {
+            rewards = Arrays.copyOf(rewards, size * 2);
+            exp = Arrays.copyOf(exp, size * 2);
+            fullRewards = Arrays.copyOf(fullRewards, size * 2);
+            scaledMoney = Arrays.copyOf(scaledMoney, size * 2);
+        }
+
+        rewards[size] = reward;
+        exp[size] = 0;
+        fullRewards[size] = 0;
+        scaledMoney[size] = BigDecimal.ZERO;
+
+        return size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Get a configured reward, which determines the currency its money is paid in.
+     *
+     * @param index Index of the reward
+     * @return TEActionReward The configured reward
+     */
+    public TEActionReward getReward(int index) {
+        return rewards[index];
+    }
+
+    public int getExp(int index) {
+        return exp[index];
+    }
+
+    /**
+     * Get the money earned for a reward.
+     *
+     * @param index Index of the reward
+     * @return BigDecimal The exact sum of the money earned
+     */
+    public BigDecimal getMoney(int index) {
+        return BigDecimal.valueOf(rewards[index].getMoneyReward())
+                .multiply(BigDecimal.valueOf(fullRewards[index]))
+                .add(scaledMoney[index]);
+    }
+
+    /**
+     * Reset the tally so it can be reused.
+     */
+    public void clear() {
+        Arrays.fill(rewards, 0, size, null);
+        Arrays.fill(scaledMoney, 0, size, null);
+        size = 0;
+    }
+}
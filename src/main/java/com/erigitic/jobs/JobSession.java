@@ -0,0 +1,238 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.erigitic.jobs;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * The job state of a player (current job, notification state, level and exp per job) held in memory while the player
+ * is online. Changes are made in place and tracked, so they can be written back in one go.
+ */
+public class JobSession {
+
+    private final UUID uniqueId;
+    private final Object saveLock = new Object();
+
+    private String job;
+    private boolean notifications;
+    private final Map<String, Integer> levels = new HashMap<>();
+    private final Map<String, Integer> exp = new HashMap<>();
+
+    private boolean accountChanged = false;
+    private final Set<String> changedJobs = new HashSet<>();
+    private int pendingChanges = 0;
+
+    public JobSession(UUID uniqueId, String job, boolean notifications) {
+        this.uniqueId = uniqueId;
+        this.job = job;
+        this.notifications = notifications;
+    }
+
+    public UUID getUniqueId() {
+        return uniqueId;
+    }
+
+    /**
+     * Get the lock writers of this session hold, so the session can still be read and changed while being written.
+     *
+     * @return Object The save lock
+     */
+    Object getSaveLock() {
+        return saveLock;
+    }
+
+    public synchronized String getJob() {
+        return job;
+    }
+
+    /**
+     * Change the current job. The stats of the new job are written with the change, so they exist from then on.
+     *
+     * @param job Name of the job
+     */
+    public synchronized void setJob(String job) {
+        this.job = job;
+
+        accountChanged = true;
+        changedJobs.add(job);
+        pendingChanges++;
+    }
+
+    public synchronized boolean getNotifications() {
+        return notifications;
+    }
+
+    public synchronized void setNotifications(boolean notifications) {
+        this.notifications = notifications;
+
+        accountChanged = true;
+        pendingChanges++;
+    }
+
+    public synchronized int getLevel(String jobName) {
+        return levels.getOrDefault(jobName, 1);
+    }
+
+    public synchronized void setLevel(String jobName, int level) {
+        levels.put(jobName, level);
+
+        changedJobs.add(jobName);
+        pendingChanges++;
+    }
+
+    public synchronized int getExp(String jobName) {
+        return exp.getOrDefault(jobName, 0);
+    }
+
+    /**
+     * Add exp to a job.
+     *
+     * @param jobName Name of the job
+     * @param amount Amount of exp to add
+     * @return int The new exp of the job
+     */
+    public synchronized int addExp(String jobName, int amount) {
+        int newExp = exp.getOrDefault(jobName, 0) + amount;
+        exp.put(jobName, newExp);
+
+        changedJobs.add(jobName);
+        pendingChanges++;
+
+        return newExp;
+    }
+
+    /**
+     * Set the stored stats of a job without marking them as changed. Used while loading the session.
+     *
+     * @param jobName Name of the job
+     * @param level The stored level
+     * @param exp The stored exp
+     */
+    synchronized void loadStats(String jobName, int level, int exp) {
+        levels.put(jobName, level);
+        this.exp.put(jobName, exp);
+    }
+
+    /**
+     * Get the number of changes made since the session was last written.
+     *
+     * @return int Number of pending changes
+     */
+    public synchronized int getPendingChanges() {
+        return pendingChanges;
+    }
+
+    /**
+     * Take the changes made since the session was last written and reset the change tracking.
+     *
+     * @return Changes The changes, null if nothing changed
+     */
+    public synchronized Changes takeChanges() {
+        if (!accountChanged && changedJobs.isEmpty()) {
+            return null;
+        }
+
+        Map<String, int[]> stats = new HashMap<>();
+
+        for (String jobName : changedJobs) {
+            stats.put(jobName, new int[] {getLevel(jobName), getExp(jobName)});
+        }
+
+        Changes changes = new Changes(uniqueId, accountChanged, job, notifications, stats);
+
+        accountChanged = false;
+        changedJobs.clear();
+        pendingChanges = 0;
+
+        return changes;
+    }
+
+    /**
+     * Mark the contents of changes that failed to be written as changed again, so the next write retries them.
+     *
+     * @param changes The changes that failed to be written
+     */
+    public synchronized void restoreChanges(Changes changes) {
+        accountChanged |= changes.isAccountChanged();
+        changedJobs.addAll(changes.getStats().keySet());
+        pendingChanges++;
+    }
+
+    /**
+     * A point in time copy of the changed parts of a session.
+     */
+    public static class Changes {
+
+        private final UUID uniqueId;
+        private final boolean accountChanged;
+        private final String job;
+        private final boolean notifications;
+        private final Map<String, int[]> stats;
+
+        private Changes(UUID uniqueId, boolean accountChanged, String job, boolean notifications, Map<String, int[]> stats) {
+            this.uniqueId = uniqueId;
+            this.accountChanged = accountChanged;
+            this.job = job;
+            this.notifications = notifications;
+            this.stats = Collections.unmodifiableMap(stats);
+        }
+
+        public UUID getUniqueId() {
+            return uniqueId;
+        }
+
+        /**
+         * Determines if the job or notification state changed.
+         *
+         * @return boolean If the job or notification state changed
+         */
+        public boolean isAccountChanged() {
+            return accountChanged;
+        }
+
+        public String getJob() {
+            return job;
+        }
+
+        public boolean getNotifications() {
+            return notifications;
+        }
+
+        /**
+         * Get the level and exp of each changed job.
+         *
+         * @return Map Job name to an array holding the level and the exp
+         */
+        public Map<String, int[]> getStats() {
+            return stats;
+        }
+    }
+}
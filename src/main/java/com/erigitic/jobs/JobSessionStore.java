@@ -0,0 +1,329 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.erigitic.jobs;
+
+import com.erigitic.config.AccountManager;
+import com.erigitic.main.TotalEconomy;
+import com.erigitic.sql.SqlManager;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import ninja.leaping.configurate.ConfigurationNode;
+import org.slf4j.Logger;
+
+/**
+ * Reads and writes {@link JobSession}s from the database or the accounts configuration.
+ */
+public class JobSessionStore {
+
+    private final TotalEconomy totalEconomy;
+    private final AccountManager accountManager;
+    private final Logger logger;
+    private final SqlManager sqlManager;
+
+    /**
+     * Constructor for the JobSessionStore class.
+     *
+     * @param totalEconomy Main plugin class
+     * @param accountManager {@link AccountManager} object
+     * @param logger Logger
+     */
+    public JobSessionStore(TotalEconomy totalEconomy, AccountManager accountManager, Logger logger) {
+        this.totalEconomy = totalEconomy;
+        this.accountManager = accountManager;
+        this.logger = logger;
+
+        sqlManager = totalEconomy.isDatabaseEnabled() ? totalEconomy.getSqlManager() : null;
+    }
+
+    /**
+     * Load the job state of a player.
+     *
+     * @param uuid {@link UUID} of the player
+     * @return JobSession The loaded session
+     */
+    public JobSession load(UUID uuid) {
+        if (sqlManager != null) {
+            return loadFromDatabase(uuid);
+        }
+
+        return loadFromConfig(uuid);
+    }
+
+    /**
+     * Write the changes of a session.
+     *
+     * @param changes The changes to write
+     * @return boolean If the changes were written
+     */
+    public boolean save(JobSession.Changes changes) {
+        if (sqlManager != null) {
+            return saveToDatabase(changes);
+        }
+
+        saveToConfig(changes);
+
+        return true;
+    }
+
+    /**
+     * Load the exp of every player in every job they have progress in.
+     *
+     * @return Map The exp of each player, by job
+     */
+    public Map<String, Map<UUID, Integer>> loadAllExp() {
+        Map<String, Map<UUID, Integer>> progress = new HashMap<>();
+
+        if (sqlManager != null) {
+            try (Connection conn = sqlManager.dataSource.getConnection();
+                 PreparedStatement statement = conn.prepareStatement("SELECT uid, job, exp FROM job_progress WHERE exp > 0");
+                 ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    progress.computeIfAbsent(resultSet.getString("job"), k -> new HashMap<>())
+                            .put(UUID.fromString(resultSet.getString("uid")), resultSet.getInt("exp"));
+                }
+            } catch (SQLException e) {
+                logger.warn("An error occurred while loading the job progress of all players!", e);
+            }
+
+            return progress;
+        }
+
+        accountManager.getAccountConfig().getChildrenMap().forEach((uid, accountNode) -> {
+            UUID uuid;
+
+            // Virtual accounts have no job progress
+            try {
+                uuid = UUID.fromString(uid.toString());
+            } catch (IllegalArgumentException e) {
+                return;
+            }
+
+            accountNode.getNode("jobstats").getChildrenMap().forEach((jobName, statsNode) -> {
+                int exp = statsNode.getNode("exp").getInt(0);
+
+                if (exp > 0) {
+                    progress.computeIfAbsent(jobName.toString(), k -> new HashMap<>()).put(uuid, exp);
+                }
+            });
+        });
+
+        return progress;
+    }
+
+    /**
+     * Rewrite the stored level of every player in a job from their stored exp.
+     *
+     * @param jobName name of the job
+     * @param curve the job's level curve
+     * @return boolean If the levels were rewritten
+     */
+    public boolean recomputeLevels(String jobName, LevelCurve curve) {
+        if (sqlManager != null) {
+            return recomputeLevelsInDatabase(jobName, curve);
+        }
+
+        accountManager.getAccountConfig().getChildrenMap().forEach((uid, accountNode) -> {
+            ConfigurationNode statsNode = accountNode.getNode("jobstats", jobName);
+
+            if (!statsNode.isVirtual()) {
+                int level = curve.getLevel(statsNode.getNode("exp").getInt(0));
+
+                if (level != statsNode.getNode("level").getInt(1)) {
+                    statsNode.getNode("level").setValue(level);
+                    accountManager.requestConfigurationSave(uid.toString());
+                }
+            }
+        });
+
+        return true;
+    }
+
+    private boolean recomputeLevelsInDatabase(String jobName, LevelCurve curve) {
+        try (Connection conn = sqlManager.dataSource.getConnection()) {
+            conn.setAutoCommit(false);
+
+            try (PreparedStatement select = conn.prepareStatement("SELECT uid, exp FROM job_progress WHERE job=?");
+                 PreparedStatement update = conn.prepareStatement("UPDATE job_progress SET level=? WHERE uid=? AND job=?")) {
+                select.setString(1, jobName);
+
+                try (ResultSet result = select.executeQuery()) {
+                    int batched = 0;
+
+                    while (result.next()) {
+                        update.setInt(1, curve.getLevel(result.getInt("exp")));
+                        update.setString(2, result.getString("uid"));
+                        update.setString(3, jobName);
+                        update.addBatch();
+
+                        if (++batched % 500 == 0) {
+                            update.executeBatch();
+                        }
+                    }
+                }
+
+                update.executeBatch();
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            logger.warn("An error occurred while recomputing the levels of job " + jobName + "!", e);
+
+            return false;
+        }
+
+        return true;
+    }
+
+    private JobSession loadFromDatabase(UUID uuid) {
+        String uid = uuid.toString();
+        JobSession session = new JobSession(uuid, "unemployed", totalEconomy.isJobNotificationEnabled());
+
+        // Make sure the rows exist before any change to them is written
+        accountManager.getOrCreateAccount(uuid);
+
+        try (Connection conn = sqlManager.dataSource.getConnection()) {
+            try (PreparedStatement statement = conn.prepareStatement("SELECT job, job_notifications FROM accounts WHERE uid=?")) {
+                statement.setString(1, uid);
+
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    if (resultSet.next()) {
+                        String job = resultSet.getString("job");
+
+                        session = new JobSession(uuid, job != null ? job.toLowerCase() : "unemployed", resultSet.getBoolean("job_notifications"));
+                    }
+                }
+            }
+
+            try (PreparedStatement statement = conn.prepareStatement("SELECT job, level, exp FROM job_progress WHERE uid=?")) {
+                statement.setString(1, uid);
+
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        session.loadStats(resultSet.getString("job"), resultSet.getInt("level"), resultSet.getInt("exp"));
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            logger.warn("An error occurred while loading the job stats of " + uid + "!", e);
+        }
+
+        return session;
+    }
+
+    private JobSession loadFromConfig(UUID uuid) {
+        ConfigurationNode accountNode = accountManager.getAccountConfig().getNode(uuid.toString());
+        JobSession session = new JobSession(
+                uuid,
+                accountNode.getNode("job").getString("unemployed").toLowerCase(),
+                accountNode.getNode("jobnotifications").getBoolean(totalEconomy.isJobNotificationEnabled())
+        );
+
+        accountNode.getNode("jobstats").getChildrenMap().forEach((jobName, statsNode) -> session.loadStats(
+                jobName.toString(),
+                statsNode.getNode("level").getInt(1),
+                statsNode.getNode("exp").getInt(0)
+        ));
+
+        return session;
+    }
+
+    private boolean saveToDatabase(JobSession.Changes changes) {
+        String uid = changes.getUniqueId().toString();
+
+        try (Connection conn = sqlManager.dataSource.getConnection()) {
+            conn.setAutoCommit(false);
+
+            try {
+                if (changes.isAccountChanged()) {
+                    try (PreparedStatement statement = conn.prepareStatement("UPDATE accounts SET job=?, job_notifications=? WHERE uid=?")) {
+                        statement.setString(1, changes.getJob());
+                        statement.setBoolean(2, changes.getNotifications());
+                        statement.setString(3, uid);
+                        statement.executeUpdate();
+                    }
+                }
+
+                if (!changes.getStats().isEmpty()) {
+                    saveStats(conn, uid, changes.getStats());
+                }
+
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            logger.warn("An error occurred while saving the job stats of " + uid + "!", e);
+
+            return false;
+        }
+
+        return true;
+    }
+
+    private void saveStats(Connection conn, String uid, Map<String, int[]> stats) throws SQLException {
+        try (PreparedStatement statement = conn.prepareStatement("INSERT INTO job_progress (uid, job, level, exp) VALUES (?, ?, ?, ?) "
+                + "ON DUPLICATE KEY UPDATE level=VALUES(level), exp=VALUES(exp)")) {
+            for (Map.Entry<String, int[]> entry : stats.entrySet()) {
+                statement.setString(1, uid);
+                statement.setString(2, entry.getKey());
+                statement.setInt(3, entry.getValue()[0]);
+                statement.setInt(4, entry.getValue()[1]);
+                statement.addBatch();
+            }
+
+            statement.executeBatch();
+        }
+    }
+
+    private void saveToConfig(JobSession.Changes changes) {
+        String uid = changes.getUniqueId().toString();
+        ConfigurationNode accountNode = accountManager.getAccountConfig().getNode(uid);
+
+        if (changes.isAccountChanged()) {
+            accountNode.getNode("job").setValue(changes.getJob());
+            accountNode.getNode("jobnotifications").setValue(changes.getNotifications());
+        }
+
+        changes.getStats().forEach((jobName, stats) -> {
+            accountNode.getNode("jobstats", jobName, "level").setValue(stats[0]);
+            accountNode.getNode("jobstats", jobName, "exp").setValue(stats[1]);
+        });
+
+        accountManager.requestConfigurationSave(uid);
+    }
+}
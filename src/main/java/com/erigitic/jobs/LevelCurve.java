@@ -0,0 +1,234 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.erigitic.jobs;
+
+import java.util.Arrays;
+import java.util.List;
+import ninja.leaping.configurate.ConfigurationNode;
+import org.slf4j.Logger;
+
+/**
+ * Maps the total exp of a job to a level. The exp needed to reach each level is worked out once, when the curve is
+ * loaded, so finding the exp for a level is an array access and finding the level for an amount of exp is a binary
+ * search.
+ *
+ * <p>Supported types:</p>
+ * <ul>
+ *     <li>polynomial - the exp needed to reach level n is the sum of coefficients[i] * n^i</li>
+ *     <li>exponential - reaching level 2 takes base exp, every following level takes multiplier times more than the
+ *     one before it</li>
+ *     <li>table - the exp needed to reach each level, starting at level 1</li>
+ * </ul>
+ */
+public final class LevelCurve {
+
+    public static final int DEFAULT_MAX_LEVEL = 1000;
+
+    /**
+     * The curve used before curves could be configured, 50 * n * (n - 1) exp to reach level n.
+     */
+    public static final LevelCurve DEFAULT = polynomial(new double[] {0, -50, 50}, DEFAULT_MAX_LEVEL);
+
+    // Index i holds the total exp needed to reach level i + 1
+    private final int[] cumulativeExp;
+
+    private LevelCurve(int[] cumulativeExp) {
+        this.cumulativeExp = cumulativeExp;
+    }
+
+    /**
+     * Load a curve from its configuration node.
+     *
+     * @param node The curve node
+     * @param fallback Curve used when the node is missing or invalid
+     * @param logger Logger used to report an invalid curve
+     * @return LevelCurve The loaded curve
+     */
+    public static LevelCurve fromConfig(ConfigurationNode node, LevelCurve fallback, Logger logger) {
+        if (node.isVirtual()) {
+            return fallback;
+        }
+
+        String type = node.getNode("type").getString("polynomial").toLowerCase();
+        int maxLevel = node.getNode("max-level").getInt(DEFAULT_MAX_LEVEL);
+
+        switch (type) {
+            case "polynomial":
+                List<? extends ConfigurationNode> coefficientNodes = node.getNode("coefficients").getChildrenList();
+                double[] coefficients = new double[coefficientNodes.size()];
+
+                for (int i = 0; i < coefficients.length; i++) {
+                    coefficients[i] = coefficientNodes.get(i).getDouble(0);
+                }
+
+                return polynomial(coefficients, maxLevel);
+            case "exponential":
+                return exponential(node.getNode("base").getDouble(100), node.getNode("multiplier").getDouble(1.5), maxLevel);
+            case "table":
+                List<? extends ConfigurationNode> levelNodes = node.getNode("levels").getChildrenList();
+                int[] levels = new int[levelNodes.size()];
+
+                for (int i = 0; i < levels.length; i++) {
+                    levels[i] = levelNodes.get(i).getInt(0);
+                }
+
+                if (levels.length == 0) {
+                    logger.warn("Level curve table \"" + node.getKey() + "\" has no levels, using the default curve!");
+
+                    return fallback;
+                }
+
+                return table(levels);
+            default:
+                logger.warn("Unknown level curve type \"" + type + "\", using the default curve!");
+
+                return fallback;
+        }
+    }
+
+    public static LevelCurve polynomial(double[] coefficients, int maxLevel) {
+        double[] exp = new double[Math.max(maxLevel, 1)];
+
+        for (int level = 2; level <= exp.length; level++) {
+            double value = 0;
+
+            for (int i = coefficients.length - 1; i >= 0; i--) {
+                value = value * level + coefficients[i];
+            }
+
+            exp[level - 1] = value;
+        }
+
+        return new LevelCurve(toCumulative(exp));
+    }
+
+    public static LevelCurve exponential(double base, double multiplier, int maxLevel) {
+        double[] exp = new double[Math.max(maxLevel, 1)];
+        double step = base;
+
+        for (int level = 2; level <= exp.length; level++) {
+            exp[level - 1] = exp[level - 2] + step;
+            step *= multiplier;
+        }
+
+        return new LevelCurve(toCumulative(exp));
+    }
+
+    public static LevelCurve table(int[] levels) {
+        double[] exp = new double[levels.length];
+
+        for (int i = 1; i < levels.length; i++) {
+            exp[i] = levels[i];
+        }
+
+        return new LevelCurve(toCumulative(exp));
+    }
+
+    /**
+     * Round the exp of each level, starting at level 1 which always takes 0 exp. The curve ends before the first level
+     * that would take less exp than the level before it or doesn't fit an int.
+     */
+    private static int[] toCumulative(double[] exp) {
+        int[] cumulative = new int[exp.length];
+        int size = 1;
+
+        for (int i = 1; i < exp.length; i++) {
+            if (Double.isNaN(exp[i]) || exp[i] > Integer.MAX_VALUE || exp[i] < cumulative[i - 1]) {
+                break;
+            }
+
+            cumulative[i] = (int) exp[i];
+            size++;
+        }
+
+        return size == cumulative.length ? cumulative : Arrays.copyOf(cumulative, size);
+    }
+
+    /**
+     * Get the highest level of the curve.
+     *
+     * @return int The highest level
+     */
+    public int getMaxLevel() {
+        return cumulativeExp.length;
+    }
+
+    /**
+     * Get the total exp needed to reach a level.
+     *
+     * @param level The level
+     * @return int The total exp, {@link Integer#MAX_VALUE} if the level is above the highest level
+     */
+    public int getExpForLevel(int level) {
+        if (level <= 1) {
+            return 0;
+        }
+
+        if (level > cumulativeExp.length) {
+            return Integer.MAX_VALUE;
+        }
+
+        return cumulativeExp[level - 1];
+    }
+
+    /**
+     * Get the level reached with an amount of total exp.
+     *
+     * @param exp The total exp
+     * @return int The level
+     */
+    public int getLevel(int exp) {
+        int low = 0;
+        int high = cumulativeExp.length - 1;
+
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+
+            if (cumulativeExp[mid] <= exp) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        return low + 1;
+    }
+
+    /**
+     * Get a fingerprint of the exp needed for each level. Used to notice that a curve changed between runs.
+     *
+     * @return long The fingerprint
+     */
+    public long getFingerprint() {
+        long hash = 0xcbf29ce484222325L;
+
+        for (int exp : cumulativeExp) {
+            hash = (hash ^ exp) * 0x100000001b3L;
+        }
+
+        return hash;
+    }
+}
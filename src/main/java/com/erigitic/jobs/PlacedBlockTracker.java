@@ -0,0 +1,574 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.erigitic.jobs;
+
+import com.erigitic.main.TotalEconomy;
+import com.erigitic.util.FileUtils;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.spongepowered.api.Sponge;
+
+/**
+ * Remembers which blocks were placed by players, so breaking them again isn't rewarded. Positions are kept per chunk as
+ * a set of packed 16 bit local positions, chunks are grouped into regions of 32 by 32 chunks and each region is stored
+ * in its own file. A chunk that hasn't seen a placement for the configured expiry is forgotten.
+ *
+ * <p>Lookups and changes happen on the server thread. Changed regions are encoded on the server thread and written by
+ * a background task, each to a temporary file first which is then moved over the old one. Regions are only read from
+ * disk when they have a file, so breaks in untouched areas never go to disk, and regions that haven't been used for a
+ * while are dropped from memory again once they are written.</p>
+ *
+ * <p>Region layout: magic, format version, chunk count, then for each chunk its index within the region, the time it
+ * was last placed in, its position count and the positions.</p>
+ */
+public class PlacedBlockTracker {
+
+    private static final int MAGIC = 0x54455042;
+    private static final int FORMAT_VERSION = 1;
+
+    private static final int REGION_HEADER_SIZE = 12;
+    private static final int CHUNK_HEADER_SIZE = 14;
+
+    // Milliseconds a region may go unused before it is dropped from memory
+    private static final long REGION_IDLE_AFTER = TimeUnit.MINUTES.toMillis(5);
+
+    private final TotalEconomy totalEconomy;
+    private final Logger logger;
+    private final Path directory;
+    private final long expireAfter;
+
+    private final Map<UUID, Map<Long, Region>> worlds = new HashMap<>();
+    private final Map<UUID, Set<Long>> regionsOnDisk = new HashMap<>();
+    private final Map<Path, ByteBuffer> pendingWrites = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor for the PlacedBlockTracker class.
+     *
+     * @param totalEconomy Main plugin class
+     * @param logger Logger
+     * @param directory Directory the region files are stored in
+     * @param expireAfter Milliseconds after which an untouched chunk is forgotten, 0 to never forget
+     */
+    public PlacedBlockTracker(TotalEconomy totalEconomy, Logger logger, Path directory, long expireAfter) {
+        this.totalEconomy = totalEconomy;
+        this.logger = logger;
+        this.directory = directory;
+        this.expireAfter = expireAfter;
+    }
+
+    /**
+     * Start the task that writes changed regions every save interval.
+     *
+     * @param interval Seconds between each save
+     */
+    public void startSaveTask(int interval) {
+        Sponge.getScheduler().createTaskBuilder()
+                .interval(interval, TimeUnit.SECONDS)
+                .execute(this::saveAsync)
+                .name("Total Economy - Save placed blocks")
+                .submit(totalEconomy);
+    }
+
+    /**
+     * Remember a block placed by a player.
+     *
+     * @param world {@link UUID} of the world
+     * @param x Block x
+     * @param y Block y
+     * @param z Block z
+     */
+    public void markPlaced(UUID world, int x, int y, int z) {
+        if (y < 0 || y > 255) {
+            return;
+        }
+
+        Region region = getRegion(world, x >> 4, z >> 4, true);
+        int index = getChunkIndex(x >> 4, z >> 4);
+        PlacedChunk chunk = getChunk(region, index);
+        long now = System.currentTimeMillis();
+
+        if (chunk == null) {
+            chunk = new PlacedChunk(4, now);
+            region.chunks[index] = chunk;
+        }
+
+        chunk.add(pack(x, y, z));
+        chunk.lastPlaced = now;
+        region.dirty = true;
+    }
+
+    /**
+     * Forget a block because it was broken.
+     *
+     * @param world {@link UUID} of the world
+     * @param x Block x
+     * @param y Block y
+     * @param z Block z
+     * @return boolean If the block was placed by a player
+     */
+    public boolean removePlaced(UUID world, int x, int y, int z) {
+        if (y < 0 || y > 255) {
+            return false;
+        }
+
+        Region region = getRegion(world, x >> 4, z >> 4, false);
+
+        if (region == null) {
+            return false;
+        }
+
+        int index = getChunkIndex(x >> 4, z >> 4);
+        PlacedChunk chunk = getChunk(region, index);
+
+        if (chunk == null || !chunk.remove(pack(x, y, z))) {
+            return false;
+        }
+
+        if (chunk.size == 0) {
+            region.chunks[index] = null;
+        }
+
+        region.dirty = true;
+
+        return true;
+    }
+
+    /**
+     * Encode the changed regions and write them off the server thread, then drop the regions that went unused.
+     */
+    private void saveAsync() {
+        if (encodeDirtyRegions()) {
+            Sponge.getScheduler().createTaskBuilder()
+                    .async()
+                    .execute(this::writePendingRegions)
+                    .name("Total Economy - Write placed blocks")
+                    .submit(totalEconomy);
+        }
+
+        unloadIdleRegions();
+    }
+
+    /**
+     * Drop clean regions that haven't been used for a while. A region that still waits to be written is read back from
+     * its pending write when it's needed again.
+     */
+    private void unloadIdleRegions() {
+        long now = System.currentTimeMillis();
+
+        for (Map.Entry<UUID, Map<Long, Region>> world : worlds.entrySet()) {
+            Set<Long> onDisk = getRegionsOnDisk(world.getKey());
+            Iterator<Map.Entry<Long, Region>> regions = world.getValue().entrySet().iterator();
+
+            while (regions.hasNext()) {
+                Map.Entry<Long, Region> regionEntry = regions.next();
+                Region region = regionEntry.getValue();
+
+                if (!region.dirty && now - region.lastUsed > REGION_IDLE_AFTER) {
+                    // Empty regions have their file deleted when they are written
+                    if (region.isEmpty()) {
+                        onDisk.remove(regionEntry.getKey());
+                    } else {
+                        onDisk.add(regionEntry.getKey());
+                    }
+
+                    regions.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Write every changed region. Called when the server stops.
+     */
+    public void save() {
+        encodeDirtyRegions();
+        writePendingRegions();
+    }
+
+    private boolean encodeDirtyRegions() {
+        boolean encoded = false;
+
+        for (Map.Entry<UUID, Map<Long, Region>> world : worlds.entrySet()) {
+            for (Region region : world.getValue().values()) {
+                if (region.dirty) {
+                    pendingWrites.put(getRegionFile(world.getKey(), region.regionX, region.regionZ), encode(region));
+                    region.dirty = false;
+                    encoded = true;
+                }
+            }
+        }
+
+        return encoded;
+    }
+
+    /**
+     * Write the encoded regions. Synchronized so an older encoding of a region can't be written over a newer one.
+     */
+    private synchronized void writePendingRegions() {
+        for (Path regionFile : pendingWrites.keySet()) {
+            ByteBuffer data = pendingWrites.get(regionFile);
+
+            if (data == null) {
+                continue;
+            }
+
+            try {
+                writeRegion(regionFile, data.duplicate());
+            } catch (IOException e) {
+                logger.warn("An error occurred while saving the placed blocks region " + regionFile + "!", e);
+            }
+
+            // Removed once written, so a region loaded again in the meantime is read from this encoding, not the old file
+            pendingWrites.remove(regionFile, data);
+        }
+    }
+
+    private void writeRegion(Path regionFile, ByteBuffer data) throws IOException {
+        // Nothing left in the region
+        if (data.remaining() == REGION_HEADER_SIZE) {
+            Files.deleteIfExists(regionFile);
+
+            return;
+        }
+
+        Files.createDirectories(regionFile.getParent());
+        FileUtils.replaceFile(regionFile, out -> out.write(data.array(), data.arrayOffset() + data.position(), data.remaining()));
+    }
+
+    private ByteBuffer encode(Region region) {
+        long now = System.currentTimeMillis();
+        int chunkCount = 0;
+        int size = REGION_HEADER_SIZE;
+
+        for (int i = 0; i < region.chunks.length; i++) {
+            PlacedChunk chunk = getChunk(region, i, now);
+
+            if (chunk != null) {
+                chunkCount++;
+                size += CHUNK_HEADER_SIZE + chunk.size * 2;
+            }
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(MAGIC);
+        buffer.putInt(FORMAT_VERSION);
+        buffer.putInt(chunkCount);
+
+        for (int i = 0; i < region.chunks.length; i++) {
+            PlacedChunk chunk = region.chunks[i];
+
+            if (chunk != null) {
+                buffer.putShort((short) i);
+                buffer.putLong(chunk.lastPlaced);
+                buffer.putInt(chunk.size);
+
+                for (int position : chunk.table) {
+                    if (position != PlacedChunk.EMPTY) {
+                        buffer.putShort((short) position);
+                    }
+                }
+            }
+        }
+
+        buffer.flip();
+
+        return buffer;
+    }
+
+    /**
+     * Get a region, loading it if it isn't in memory.
+     *
+     * @param create Create the region when it has no file, otherwise null is returned for it
+     */
+    private Region getRegion(UUID world, int chunkX, int chunkZ, boolean create) {
+        int regionX = chunkX >> 5;
+        int regionZ = chunkZ >> 5;
+        Map<Long, Region> regions = worlds.computeIfAbsent(world, k -> new HashMap<>());
+        long key = ((long) regionX << 32) | (regionZ & 0xFFFFFFFFL);
+        Region region = regions.get(key);
+
+        if (region == null) {
+            Path regionFile = getRegionFile(world, regionX, regionZ);
+            ByteBuffer pendingWrite = pendingWrites.get(regionFile);
+
+            if (pendingWrite != null) {
+                region = decode(regionFile, pendingWrite.duplicate(), regionX, regionZ);
+            } else if (getRegionsOnDisk(world).contains(key)) {
+                region = loadRegion(regionFile, regionX, regionZ);
+            } else if (create) {
+                region = new Region(regionX, regionZ);
+            } else {
+                return null;
+            }
+
+            regions.put(key, region);
+        }
+
+        region.lastUsed = System.currentTimeMillis();
+
+        return region;
+    }
+
+    /**
+     * Get the keys of the regions of a world that have a file. The world's directory is listed the first time it's used.
+     */
+    private Set<Long> getRegionsOnDisk(UUID world) {
+        Set<Long> onDisk = regionsOnDisk.get(world);
+
+        if (onDisk != null) {
+            return onDisk;
+        }
+
+        onDisk = new HashSet<>();
+        Path worldDirectory = directory.resolve(world.toString());
+
+        if (Files.isDirectory(worldDirectory)) {
+            try (DirectoryStream<Path> regionFiles = Files.newDirectoryStream(worldDirectory, "r.*.dat")) {
+                for (Path regionFile : regionFiles) {
+                    String[] parts = regionFile.getFileName().toString().split("\\.");
+
+                    try {
+                        onDisk.add(((long) Integer.parseInt(parts[1]) << 32) | (Integer.parseInt(parts[2]) & 0xFFFFFFFFL));
+                    } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+                        logger.warn("Ignoring unexpected file " + regionFile + " in the placed blocks directory!");
+                    }
+                }
+            } catch (IOException e) {
+                logger.warn("An error occurred while listing the placed blocks regions of world " + world + "!", e);
+            }
+        }
+
+        regionsOnDisk.put(world, onDisk);
+
+        return onDisk;
+    }
+
+    private Region loadRegion(Path regionFile, int regionX, int regionZ) {
+        try {
+            return decode(regionFile, ByteBuffer.wrap(Files.readAllBytes(regionFile)), regionX, regionZ);
+        } catch (IOException e) {
+            logger.warn("An error occurred while loading the placed blocks region " + regionFile + "!", e);
+        }
+
+        return new Region(regionX, regionZ);
+    }
+
+    private Region decode(Path regionFile, ByteBuffer buffer, int regionX, int regionZ) {
+        Region region = new Region(regionX, regionZ);
+
+        try {
+            if (buffer.remaining() < REGION_HEADER_SIZE || buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+                logger.warn("Ignoring the placed blocks region " + regionFile + ", it isn't in a known format!");
+
+                return region;
+            }
+
+            int chunkCount = buffer.getInt();
+
+            for (int i = 0; i < chunkCount; i++) {
+                int index = buffer.getShort() & 0x3FF;
+                long lastPlaced = buffer.getLong();
+                int count = buffer.getInt();
+                PlacedChunk chunk = new PlacedChunk(count, lastPlaced);
+
+                for (int j = 0; j < count; j++) {
+                    chunk.add(buffer.getShort() & 0xFFFF);
+                }
+
+                region.chunks[index] = chunk;
+            }
+        } catch (RuntimeException e) {
+            logger.warn("An error occurred while reading the placed blocks region " + regionFile + "!", e);
+        }
+
+        return region;
+    }
+
+    private PlacedChunk getChunk(Region region, int index) {
+        return getChunk(region, index, System.currentTimeMillis());
+    }
+
+    /**
+     * Get a chunk of a region, dropping it first when it expired.
+     */
+    private PlacedChunk getChunk(Region region, int index, long now) {
+        PlacedChunk chunk = region.chunks[index];
+
+        if (chunk != null && expireAfter > 0 && now - chunk.lastPlaced > expireAfter) {
+            region.chunks[index] = null;
+            region.dirty = true;
+
+            return null;
+        }
+
+        return chunk;
+    }
+
+    private Path getRegionFile(UUID world, int regionX, int regionZ) {
+        return directory.resolve(world.toString()).resolve("r." + regionX + "." + regionZ + ".dat");
+    }
+
+    private static int getChunkIndex(int chunkX, int chunkZ) {
+        return ((chunkZ & 31) << 5) | (chunkX & 31);
+    }
+
+    private static int pack(int x, int y, int z) {
+        return (y << 8) | ((z & 15) << 4) | (x & 15);
+    }
+
+    private static final class Region {
+        private final int regionX;
+        private final int regionZ;
+        private final PlacedChunk[] chunks = new PlacedChunk[1024];
+        private boolean dirty = false;
+        private long lastUsed;
+
+        private Region(int regionX, int regionZ) {
+            this.regionX = regionX;
+            this.regionZ = regionZ;
+        }
+
+        private boolean isEmpty() {
+            for (PlacedChunk chunk : chunks) {
+                if (chunk != null) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+    }
+
+    /**
+     * Open addressing set of the packed positions placed in a chunk.
+     */
+    private static final class PlacedChunk {
+        private static final int EMPTY = -1;
+
+        private int[] table;
+        private int size = 0;
+        private long lastPlaced;
+
+        private PlacedChunk(int expectedSize, long lastPlaced) {
+            int capacity = 8;
+
+            while (capacity < expectedSize * 2) {
+                capacity <<= 1;
+            }
+
+            this.table = new int[capacity];
+            this.lastPlaced = lastPlaced;
+
+            Arrays.fill(table, EMPTY);
+        }
+
+        private boolean add(int position) {
+            int mask = table.length - 1;
+            int slot = mix(position) & mask;
+
+            while (table[slot] != EMPTY) {
+                if (table[slot] == position) {
+                    return false;
+                }
+
+                slot = (slot + 1) & mask;
+            }
+
+            table[slot] = position;
+            size++;
+
+            if (size * 2 > table.length) {
+                grow();
+            }
+
+            return true;
+        }
+
+        private boolean remove(int position) {
+            int mask = table.length - 1;
+            int slot = mix(position) & mask;
+
+            while (table[slot] != position) {
+                if (table[slot] == EMPTY) {
+                    return false;
+                }
+
+                slot = (slot + 1) & mask;
+            }
+
+            // Shift the following entries of the probe sequence back, so lookups never stop at the freed slot early
+            int free = slot;
+
+            for (int next = (free + 1) & mask; table[next] != EMPTY; next = (next + 1) & mask) {
+                int home = mix(table[next]) & mask;
+
+                if (((next - home) & mask) >= ((next - free) & mask)) {
+                    table[free] = table[next];
+                    free = next;
+                }
+            }
+
+            table[free] = EMPTY;
+            size--;
+
+            return true;
+        }
+
+        private void grow() {
+            int[] oldTable = table;
+
+            table = new int[oldTable.length * 2];
+            size = 0;
+
+            Arrays.fill(table, EMPTY);
+
+            for (int position : oldTable) {
+                if (position != EMPTY) {
+                    add(position);
+                }
+            }
+        }
+
+        private static int mix(int position) {
+            int hash = position * 0x9E3779B1;
+
+            return hash ^ (hash >>> 16);
+        }
+    }
+}
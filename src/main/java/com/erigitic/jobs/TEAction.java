@@ -26,11 +26,9 @@
 package com.erigitic.jobs;
 
 import java.util.Collection;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
-import java.util.UUID;
 
 import ninja.leaping.configurate.ConfigurationNode;
 import org.slf4j.Logger;
@@ -48,6 +46,8 @@ public class TEAction {
 
     private TEActionReward reward;
 
+    private volatile GrowthBounds growthBounds;
+
     public void loadConfigNode(String action, ConfigurationNode node) {
         ConfigurationNode idTraitNode = node.getNode("idTrait");
         ConfigurationNode growthTraitNode = node.getNode("growthTrait");
@@ -84,40 +84,30 @@ public class TEAction {
         this.growthTrait = growthTraitNode.getString(null);
     }
 
-    public Optional<TEActionReward> evaluateBreak(Logger logger, BlockState state, UUID blockCreator) {
+    /**
+     * Evaluate breaking a block. Growing blocks are rewarded relative to their growth.
+     *
+     * @param logger Logger used to report misconfigured traits
+     * @param state The state of the broken block
+     * @param playerPlaced If the block was placed by a player
+     * @param result Receives the reward when the block is rewarded
+     * @return boolean If the block is rewarded
+     */
+    public boolean evaluateBreak(Logger logger, BlockState state, boolean playerPlaced, JobRewardResult result) {
         // Disqualifying checks first for performance
         if (!state.getType().getId().equals(this.targetId)) {
-            return Optional.empty();
+            return false;
         }
 
         // A player placed the block and it doesn't indicate growth. Do not pay to prevent exploits
-        if (growthTrait == null && blockCreator != null) {
-            return Optional.empty();
+        if (growthTrait == null && playerPlaced) {
+            return false;
         }
 
-        // Determine base reward. Use complicated way if this block has an ID trait
-        TEActionReward reward = null;
-
-        if (idTrait != null) {
-            Optional<BlockTrait<?>> trait = state.getTrait(idTrait);
-
-            if (trait.isPresent()) {
-                Optional<?> traitVal = state.getTraitValue(trait.get());
-
-                if (traitVal.isPresent()) {
-                    String key = traitVal.get().toString();
-                    reward = rewards.getOrDefault(key, null);
-                }
-            } else {
-                logger.warn("ID trait \"" + idTrait + "\" not found during action: " + action + ':' + targetId);
-            }
-
-        } else {
-            reward = this.reward;
-        }
+        TEActionReward reward = getBaseReward(logger, state);
 
         if (reward == null) {
-            return Optional.empty();
+            return false;
         }
 
         // Base reward is determined. Now check if we need to apply modifiers
@@ -129,7 +119,14 @@ public class TEAction {
                     Optional<?> traitVal = state.getTraitValue(trait.get());
 
                     if (traitVal.isPresent()) {
-                        reward = generateReward((Integer) traitVal.get(), (Collection<Integer>) trait.get().getPossibleValues());
+                        GrowthBounds bounds = getGrowthBounds(trait.get());
+                        double percent = bounds.max > bounds.min
+                                ? (double) ((Integer) traitVal.get() - bounds.min) / (double) (bounds.max - bounds.min)
+                                : 1.0d;
+
+                        result.set(reward, (int) (reward.getExpReward() * percent), reward.getMoneyReward() * percent);
+
+                        return true;
                     } else {
                         logger.warn("Growth trait \"" + growthTrait + "\" has missing value during action: " + action + ':' + targetId);
                     }
@@ -141,48 +138,81 @@ public class TEAction {
             }
         }
 
-        return Optional.ofNullable(reward);
-    }
+        result.set(reward, reward.getExpReward(), reward.getMoneyReward());
 
-    private TEActionReward generateReward(Integer traitValue, Collection<Integer> possibleValues) {
-        int max = possibleValues.stream().max(Comparator.comparingInt(Integer::intValue)).orElse(0);
-        int min = possibleValues.stream().min(Comparator.comparingInt(Integer::intValue)).orElse(0);
-        double percent = (double) (traitValue - min) / (double) (max - min);
-        int expReward = (int) (reward.getExpReward() * percent);
-        double moneyReward = reward.getMoneyReward() * percent;
-
-        TEActionReward partialReward = new TEActionReward();
-        partialReward.setValues(expReward, moneyReward, reward.getCurrencyId());
-        return partialReward;
+        return true;
     }
 
-    public Optional<TEActionReward> evaluatePlace(Logger logger, BlockState state) {
+    /**
+     * Evaluate placing a block.
+     *
+     * @param logger Logger used to report misconfigured traits
+     * @param state The state of the placed block
+     * @param result Receives the reward when the block is rewarded
+     * @return boolean If the block is rewarded
+     */
+    public boolean evaluatePlace(Logger logger, BlockState state, JobRewardResult result) {
         // Disqualifying checks first for performance
         if (!state.getType().getId().equals(this.targetId)) {
-            return Optional.empty();
+            return false;
         }
 
-        // Determine base reward. Use complicated way if this block has an ID trait
-        TEActionReward reward = null;
+        TEActionReward reward = getBaseReward(logger, state);
 
-        if (idTrait != null) {
-            Optional<BlockTrait<?>> trait = state.getTrait(idTrait);
+        if (reward == null) {
+            return false;
+        }
 
-            if (trait.isPresent()) {
-                Optional<?> traitVal = state.getTraitValue(trait.get());
+        result.set(reward, reward.getExpReward(), reward.getMoneyReward());
 
-                if (traitVal.isPresent()) {
-                    String key = traitVal.get().toString();
-                    reward = rewards.getOrDefault(key, null);
-                }
-            } else {
-                logger.warn("ID trait \"" + idTrait + "\" not found during action: " + action + ':' + targetId);
+        return true;
+    }
+
+    /**
+     * Determine the configured reward for a block. Use complicated way if this block has an ID trait.
+     */
+    private TEActionReward getBaseReward(Logger logger, BlockState state) {
+        if (idTrait == null) {
+            return reward;
+        }
+
+        Optional<BlockTrait<?>> trait = state.getTrait(idTrait);
+
+        if (trait.isPresent()) {
+            Optional<?> traitVal = state.getTraitValue(trait.get());
+
+            if (traitVal.isPresent()) {
+                return rewards.get(traitVal.get().toString());
             }
         } else {
-            reward = this.reward;
+            logger.warn("ID trait \"" + idTrait + "\" not found during action: " + action + ':' + targetId);
         }
 
-        return Optional.ofNullable(reward);
+        return null;
+    }
+
+    /**
+     * Get the lowest and highest value of a growth trait. Worked out once per trait, instead of scanning the possible
+     * values of the trait for every harvested block.
+     */
+    @SuppressWarnings("unchecked")
+    private GrowthBounds getGrowthBounds(BlockTrait<?> trait) {
+        GrowthBounds bounds = growthBounds;
+
+        if (bounds == null || bounds.trait != trait) {
+            int min = Integer.MAX_VALUE;
+            int max = Integer.MIN_VALUE;
+
+            for (Integer value : (Collection<Integer>) trait.getPossibleValues()) {
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+
+            bounds = min <= max ? new GrowthBounds(trait, min, max) : new GrowthBounds(trait, 0, 0);
+            growthBounds = bounds;
+        }
+
+        return bounds;
     }
 
     public boolean isValid() {
@@ -219,4 +249,16 @@ public class TEAction {
     public Map<String, TEActionReward> getRewards() {
         return rewards;
     }
+
+    private static final class GrowthBounds {
+        private final BlockTrait<?> trait;
+        private final int min;
+        private final int max;
+
+        private GrowthBounds(BlockTrait<?> trait, int min, int max) {
+            this.trait = trait;
+            this.min = min;
+            this.max = max;
+        }
+    }
 }
@@ -45,11 +45,11 @@ public class TEActionReward {
         this.currencyId = currencyID;
     }
 
-    public Integer getExpReward() {
+    public int getExpReward() {
         return expReward;
     }
 
-    public Double getMoneyReward() {
+    public double getMoneyReward() {
         return moneyReward;
     }
 
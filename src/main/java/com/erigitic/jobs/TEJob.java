@@ -38,9 +38,15 @@ public class TEJob {
     private BigDecimal salary;
     private List<String> sets = new ArrayList<>();
     private JobBasedRequirement requirement;
+    private LevelCurve levelCurve;
     private boolean isValid;
 
     public TEJob(ConfigurationNode node) {
+        this(node, LevelCurve.DEFAULT);
+    }
+
+    public TEJob(ConfigurationNode node, LevelCurve levelCurve) {
+        this.levelCurve = levelCurve;
         name = node.getKey().toString();
         salary = new BigDecimal(node.getNode("salary").getString());
 
@@ -84,6 +90,10 @@ public class TEJob {
         return salary;
     }
 
+    public LevelCurve getLevelCurve() {
+        return levelCurve;
+    }
+
     public Optional<JobBasedRequirement> getRequirement() {
         return Optional.ofNullable(requirement);
     }
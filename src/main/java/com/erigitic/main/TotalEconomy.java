@@ -50,6 +50,7 @@ import com.erigitic.shops.data.ShopItemData;
 import com.erigitic.shops.data.ShopKeys;
 import com.erigitic.sql.SqlManager;
 import com.erigitic.util.MessageManager;
+import com.erigitic.util.NameCache;
 import com.google.inject.Inject;
 import java.io.File;
 import java.io.IOException;
@@ -111,6 +112,7 @@ public class TotalEconomy {
     private PluginContainer pluginContainer;
 
     private UserStorageService userStorageService;
+    private NameCache nameCache;
 
     private ConfigurationNode config;
 
@@ -134,15 +136,30 @@ public class TotalEconomy {
     private boolean jobFeatureEnabled = true;
     private boolean jobNotificationEnabled = true;
     private boolean jobSalaryEnabled = true;
+    private int jobSessionFlushThreshold = 20;
+    private long jobRewardWindow = 50;
+    private int placedBlockExpiry = 7;
+
+    private int balanceTopRefreshInterval = 10;
+    private int balanceTopRefreshThreshold = 100;
 
     // Shop Variables
     private boolean chestShopEnabled = true;
 
     // Database Variables
     private boolean databaseEnabled = false;
+    private String databaseEngine;
+    private String databaseFile;
     private String databaseUrl;
     private String databaseUser;
     private String databasePassword;
+    private boolean databaseWriteBehind = false;
+
+    // Flat-File Storage Variables
+    private String storageFormat;
+    private int storageShards;
+    private boolean storageJournal;
+    private int journalCompactInterval;
 
     // Money Cap Variables
     private boolean moneyCapEnabled = false;
@@ -158,13 +175,29 @@ public class TotalEconomy {
 
         languageTag = config.getNode("language").getString("en");
         saveInterval = config.getNode("save-interval").getInt(30);
+        balanceTopRefreshInterval = config.getNode("features", "balance-top", "refresh-interval").getInt(10);
+        balanceTopRefreshThreshold = config.getNode("features", "balance-top", "refresh-threshold").getInt(100);
 
         if (databaseEnabled) {
+            databaseEngine = config.getNode("database", "engine").getString("mysql").toLowerCase();
+            databaseFile = config.getNode("database", "file").getString("totaleconomy");
             databaseUrl = config.getNode("database", "url").getString();
             databaseUser = config.getNode("database", "user").getString();
             databasePassword = config.getNode("database", "password").getString();
+            databaseWriteBehind = config.getNode("database", "write-behind").getBoolean(false);
 
             sqlManager = new SqlManager(this, logger);
+        } else {
+            storageFormat = config.getNode("storage", "format").getString("hocon").toLowerCase();
+            storageShards = config.getNode("storage", "shards").getInt(64);
+            storageJournal = config.getNode("storage", "journal").getBoolean(true);
+            journalCompactInterval = config.getNode("storage", "journal-compact-interval").getInt(300);
+        }
+
+        nameCache = new NameCache(this, logger, new File(configDir, "names.txt").toPath());
+
+        if (saveInterval > 0) {
+            nameCache.startSaveTask(saveInterval);
         }
 
         messageManager = new MessageManager(this, logger, Locale.forLanguageTag(languageTag));
@@ -175,6 +208,9 @@ public class TotalEconomy {
 
         // Only create JobManager
         if (jobFeatureEnabled) {
+            jobSessionFlushThreshold = config.getNode("features", "jobs", "session-flush-threshold").getInt(20);
+            jobRewardWindow = config.getNode("features", "jobs", "reward-window").getLong(50);
+            placedBlockExpiry = config.getNode("features", "jobs", "placed-block-expiry").getInt(7);
             jobManager = new JobManager(this, accountManager, messageManager, logger);
         }
 
@@ -208,8 +244,23 @@ public class TotalEconomy {
     public void onServerStopping(GameStoppingServerEvent event) {
         logger.info("Total Economy Stopping");
 
+        if (jobFeatureEnabled) {
+            jobManager.saveSessions();
+            jobManager.savePlacedBlocks();
+        }
+
+        if (chestShopEnabled) {
+            shopManager.getShopRegistry().save();
+            shopManager.getSalesLedger().flush();
+        }
+
+        nameCache.save();
+        accountManager.shutdownAsyncExecutor();
+
         if (!databaseEnabled) {
             accountManager.saveConfiguration();
+        } else {
+            accountManager.flushBalanceLedgers();
         }
 
         // Remove PlayerShopInfoData from all online users
@@ -227,11 +278,17 @@ public class TotalEconomy {
     public void onPlayerJoin(ClientConnectionEvent.Join event) {
         Player player = event.getTargetEntity();
 
-        accountManager.getOrCreateAccount(player.getUniqueId());
+        accountManager.preloadAccount(player.getUniqueId());
+        nameCache.put(player.getUniqueId(), player.getName());
 
         checkForAndRemovePlayerShopInfoData(player);
     }
 
+    @Listener
+    public void onPlayerDisconnect(ClientConnectionEvent.Disconnect event) {
+        accountManager.unloadAccount(event.getTargetEntity().getUniqueId());
+    }
+
     /**
      * Reloads configuration files.
      *
@@ -405,6 +462,10 @@ public class TotalEconomy {
         return messageManager;
     }
 
+    public Logger getLogger() {
+        return logger;
+    }
+
     public ShopManager getShopManager() {
         return shopManager;
     }
@@ -449,22 +510,78 @@ public class TotalEconomy {
         return databaseEnabled;
     }
 
+    public boolean isDatabaseWriteBehindEnabled() {
+        return databaseWriteBehind;
+    }
+
+    public String getStorageFormat() {
+        return storageFormat;
+    }
+
+    public int getStorageShards() {
+        return storageShards;
+    }
+
+    public boolean isStorageJournalEnabled() {
+        return storageJournal;
+    }
+
+    public int getJournalCompactInterval() {
+        return journalCompactInterval;
+    }
+
     public boolean isJobNotificationEnabled() {
         return jobNotificationEnabled;
     }
 
+    public int getJobSessionFlushThreshold() {
+        return jobSessionFlushThreshold;
+    }
+
+    public long getJobRewardWindow() {
+        return jobRewardWindow;
+    }
+
+    public int getPlacedBlockExpiry() {
+        return placedBlockExpiry;
+    }
+
+    public int getBalanceTopRefreshInterval() {
+        return balanceTopRefreshInterval;
+    }
+
+    public int getBalanceTopRefreshThreshold() {
+        return balanceTopRefreshThreshold;
+    }
+
     public int getSaveInterval() {
         return saveInterval;
     }
 
+    public boolean isMoneyCapEnabled() {
+        return moneyCapEnabled;
+    }
+
     public BigDecimal getMoneyCap() {
         return moneyCapEnabled ? moneyCap : new BigDecimal(Double.MAX_VALUE);
     }
 
+    public NameCache getNameCache() {
+        return nameCache;
+    }
+
     public UserStorageService getUserStorageService() {
         return userStorageService;
     }
 
+    public String getDatabaseEngine() {
+        return databaseEngine;
+    }
+
+    public String getDatabaseFile() {
+        return databaseFile;
+    }
+
     public String getDatabaseUrl() {
         return databaseUrl;
     }
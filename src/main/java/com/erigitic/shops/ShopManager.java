@@ -31,6 +31,7 @@ import com.erigitic.main.TotalEconomy;
 import com.erigitic.shops.data.PlayerShopInfoData;
 import com.erigitic.shops.data.ShopKeys;
 import com.erigitic.util.MessageManager;
+import java.io.File;
 import java.math.BigDecimal;
 import java.util.Collection;
 import java.util.List;
@@ -44,16 +45,19 @@ import org.spongepowered.api.block.tileentity.TileEntity;
 import org.spongepowered.api.block.tileentity.carrier.Chest;
 import org.spongepowered.api.data.DataContainer;
 import org.spongepowered.api.data.DataQuery;
+import org.spongepowered.api.data.Transaction;
 import org.spongepowered.api.data.key.Keys;
 import org.spongepowered.api.entity.living.player.Player;
 import org.spongepowered.api.event.Listener;
 import org.spongepowered.api.event.block.ChangeBlockEvent;
+import org.spongepowered.api.event.cause.Cause;
 import org.spongepowered.api.event.cause.EventContextKeys;
 import org.spongepowered.api.event.filter.Getter;
 import org.spongepowered.api.event.filter.cause.First;
 import org.spongepowered.api.event.filter.type.Exclude;
 import org.spongepowered.api.event.item.inventory.ClickInventoryEvent;
 import org.spongepowered.api.event.item.inventory.InteractInventoryEvent;
+import org.spongepowered.api.event.world.chunk.LoadChunkEvent;
 import org.spongepowered.api.item.inventory.Inventory;
 import org.spongepowered.api.item.inventory.ItemStack;
 import org.spongepowered.api.item.inventory.ItemStackSnapshot;
@@ -62,7 +66,7 @@ import org.spongepowered.api.item.inventory.entity.Hotbar;
 import org.spongepowered.api.item.inventory.query.QueryOperationTypes;
 import org.spongepowered.api.item.inventory.transaction.SlotTransaction;
 import org.spongepowered.api.item.inventory.type.GridInventory;
-import org.spongepowered.api.util.Direction;
+import org.spongepowered.api.service.economy.transaction.ResultType;
 import org.spongepowered.api.util.blockray.BlockRay;
 import org.spongepowered.api.util.blockray.BlockRayHit;
 import org.spongepowered.api.world.Location;
@@ -78,11 +82,23 @@ public class ShopManager {
     private final double maxPrice;
     private final double chestShopPrice;
 
+    private final ShopRegistry shopRegistry;
+    private final ShopSalesLedger salesLedger;
+
     public ShopManager(TotalEconomy totalEconomy, AccountManager accountManager, MessageManager messageManager) {
         this.totalEconomy = totalEconomy;
         this.accountManager = accountManager;
         this.messageManager = messageManager;
 
+        shopRegistry = new ShopRegistry(totalEconomy, totalEconomy.getLogger(), new File(totalEconomy.getConfigDir(), "shops.dat").toPath());
+
+        if (totalEconomy.getSaveInterval() > 0) {
+            shopRegistry.startSaveTask(totalEconomy.getSaveInterval());
+        }
+
+        salesLedger = new ShopSalesLedger(totalEconomy, totalEconomy.getLogger(), new File(totalEconomy.getConfigDir(), "shop-sales.dat").toPath());
+        salesLedger.startWriteTask();
+
         minPrice = this.totalEconomy.getShopNode().getNode("min-item-price").getDouble(0);
         maxPrice = this.totalEconomy.getShopNode().getNode("max-item-price").getDouble(1000000000);
         chestShopPrice = this.totalEconomy.getShopNode().getNode("chestshop", "price").getDouble(1000);
@@ -98,53 +114,45 @@ public class ShopManager {
     @Listener
     @Exclude(ClickInventoryEvent.Shift.class)
     public void onItemPurchase(ClickInventoryEvent.Primary event, @First Player player, @Getter("getTargetInventory") Inventory inventory) {
-        Optional<PlayerShopInfo> playerShopInfoOpt = player.get(ShopKeys.PLAYER_SHOP_INFO);
-
-        if (playerShopInfoOpt.isPresent()) {
-            Location location = playerShopInfoOpt.get().getOpenShopLocation();
-            Optional<TileEntity> tileEntityOpt = location.getTileEntity();
+        Optional<Shop> shopOpt = getOpenShop(player);
 
-            if (tileEntityOpt.isPresent()) {
-                Optional<Shop> shopOpt = tileEntityOpt.get().get(ShopKeys.SINGLE_SHOP);
+        if (shopOpt.isPresent()) {
+            Shop shop = shopOpt.get();
+            ItemStack clickedItem = ItemStack.builder().fromSnapshot(event.getCursorTransaction().getDefault().copy()).build();
+            Optional<ShopItem> shopItemOpt = clickedItem.get(ShopKeys.SHOP_ITEM);
 
-                if (shopOpt.isPresent()) {
-                    Shop shop = shopOpt.get();
-                    ItemStack clickedItem = ItemStack.builder().fromSnapshot(event.getCursorTransaction().getDefault().copy()).build();
-                    Optional<ShopItem> shopItemOpt = clickedItem.get(ShopKeys.SHOP_ITEM);
+            if (shopItemOpt.isPresent()) {
+                event.getCursorTransaction().setValid(false);
 
-                    if (shopItemOpt.isPresent()) {
-                        event.getCursorTransaction().setValid(false);
+                ShopItem shopItem = shopItemOpt.get();
+                ItemStack purchasedItem = removeShopItemData(clickedItem.copy());
+                BigDecimal price = BigDecimal.valueOf(shopItem.getPrice());
 
-                        ShopItem shopItem = shopItemOpt.get();
-                        TEAccount ownerAccount = (TEAccount) accountManager.getOrCreateAccount(shop.getOwner()).get();
-                        TEAccount customerAccount = (TEAccount) accountManager.getOrCreateAccount(player.getUniqueId()).get();
+                // The customer pays before the item is handed out, so a purchase can never outrun the balance
+                if (payShopOwner(shop, player, price, event.getCause())) {
+                    Collection<ItemStackSnapshot> rejectedItems = player.getInventory().query(QueryOperationTypes.INVENTORY_TYPE.of(GridInventory.class), QueryOperationTypes.INVENTORY_TYPE.of(Hotbar.class)).offer(purchasedItem).getRejectedItems();
 
-                        if (customerAccount.getBalance(totalEconomy.getDefaultCurrency()).doubleValue() >= shopItem.getPrice()) {
-                            ItemStack purchasedItem = removeShopItemData(clickedItem.copy());
+                    if (rejectedItems.size() == 0) {
+                        recordSale(shop, player, purchasedItem, 1, price);
 
-                            Collection<ItemStackSnapshot> rejectedItems = player.getInventory().query(QueryOperationTypes.INVENTORY_TYPE.of(GridInventory.class), QueryOperationTypes.INVENTORY_TYPE.of(Hotbar.class)).offer(purchasedItem).getRejectedItems();
+                        Slot clickedSlot = event.getTransactions().get(0).getSlot();
 
-                            if (rejectedItems.size() == 0) {
-                                customerAccount.transfer(ownerAccount, totalEconomy.getDefaultCurrency(), BigDecimal.valueOf(shopItem.getPrice()), event.getCause());
-
-                                Slot clickedSlot = event.getTransactions().get(0).getSlot();
-
-                                updateItemInSlot(clickedSlot, clickedItem, clickedItem.getQuantity() - 1);
-                            } else {
-                                event.getTransactions().get(0).setValid(false);
+                        updateItemInSlot(clickedSlot, clickedItem, clickedItem.getQuantity() - 1);
+                    } else {
+                        refundCustomer(shop, player, price, event.getCause());
 
-                                player.sendMessage(messageManager.getMessage("shops.purchase.noroom"));
-                            }
-                        } else {
-                            event.getTransactions().get(0).setValid(false);
+                        event.getTransactions().get(0).setValid(false);
 
-                            player.sendMessage(messageManager.getMessage("shops.purchase.insufficientfunds"));
-                        }
-                    } else {
-                        event.getCursorTransaction().setValid(false);
-                        invalidateTransactions(event.getTransactions());
+                        player.sendMessage(messageManager.getMessage("shops.purchase.noroom"));
                     }
+                } else {
+                    event.getTransactions().get(0).setValid(false);
+
+                    player.sendMessage(messageManager.getMessage("shops.purchase.insufficientfunds"));
                 }
+            } else {
+                event.getCursorTransaction().setValid(false);
+                invalidateTransactions(event.getTransactions());
             }
         }
     }
@@ -158,20 +166,11 @@ public class ShopManager {
     @Listener
     @Exclude(ClickInventoryEvent.Shift.class)
     public void onShopSecondaryClick(ClickInventoryEvent.Secondary event, @First Player player) {
-        Optional<PlayerShopInfo> playerShopInfoOpt = player.get(ShopKeys.PLAYER_SHOP_INFO);
-
-        if (playerShopInfoOpt.isPresent()) {
-            Location location = player.get(ShopKeys.PLAYER_SHOP_INFO).get().getOpenShopLocation();
-            Optional<TileEntity> tileEntityOpt = location.getTileEntity();
-
-            if (tileEntityOpt.isPresent()) {
-                Optional<Shop> shopOpt = tileEntityOpt.get().get(ShopKeys.SINGLE_SHOP);
+        Optional<Shop> shopOpt = getOpenShop(player);
 
-                if (shopOpt.isPresent()) {
-                    invalidateTransactions(event.getTransactions());
-                    event.setCancelled(true);
-                }
-            }
+        if (shopOpt.isPresent()) {
+            invalidateTransactions(event.getTransactions());
+            event.setCancelled(true);
         }
     }
 
@@ -185,63 +184,54 @@ public class ShopManager {
      */
     @Listener
     public void onShiftClickInventory(ClickInventoryEvent.Shift event, @First Player player, @Getter("getTargetInventory") Inventory inventory) {
-        Optional<PlayerShopInfo> playerShopInfoOpt = player.get(ShopKeys.PLAYER_SHOP_INFO);
-
-        if (playerShopInfoOpt.isPresent()) {
-            Location location = player.get(ShopKeys.PLAYER_SHOP_INFO).get().getOpenShopLocation();
-            Optional<TileEntity> tileEntityOpt = location.getTileEntity();
+        Optional<Shop> shopOpt = getOpenShop(player);
 
-            if (tileEntityOpt.isPresent()) {
-                Optional<Shop> shopOpt = tileEntityOpt.get().get(ShopKeys.SINGLE_SHOP);
+        if (shopOpt.isPresent()) {
+            Shop shop = shopOpt.get();
+            ItemStack clickedItem = ItemStack.builder().fromSnapshot(event.getTransactions().get(0).getOriginal()).build();
+            Optional<ShopItem> shopItemOpt = clickedItem.get(ShopKeys.SHOP_ITEM);
 
-                if (shopOpt.isPresent()) {
-                    Shop shop = shopOpt.get();
-                    ItemStack clickedItem = ItemStack.builder().fromSnapshot(event.getTransactions().get(0).getOriginal()).build();
-                    Optional<ShopItem> shopItemOpt = clickedItem.get(ShopKeys.SHOP_ITEM);
-
-                    if (player.getUniqueId().equals(shop.getOwner()) && shopItemOpt.isPresent()) {
-                        for (SlotTransaction transaction : event.getTransactions()) {
-                            transaction.setCustom(ItemStack.empty());
-                        }
+            if (player.getUniqueId().equals(shop.getOwner()) && shopItemOpt.isPresent()) {
+                for (SlotTransaction transaction : event.getTransactions()) {
+                    transaction.setCustom(ItemStack.empty());
+                }
 
-                        ItemStack returnedItem = removeShopItemData(clickedItem.copy());
-                        returnedItem.setQuantity(clickedItem.getQuantity());
+                ItemStack returnedItem = removeShopItemData(clickedItem.copy());
+                returnedItem.setQuantity(clickedItem.getQuantity());
 
-                        player.getInventory().offer(returnedItem);
-                    } else if (player.getUniqueId().equals(shop.getOwner())) {
-                        event.setCancelled(false);
-                    } else if (shopItemOpt.isPresent()) {
-                        ShopItem shopItem = shopItemOpt.get();
+                player.getInventory().offer(returnedItem);
+            } else if (player.getUniqueId().equals(shop.getOwner())) {
+                event.setCancelled(false);
+            } else if (shopItemOpt.isPresent()) {
+                ShopItem shopItem = shopItemOpt.get();
 
-                        int purchasedQuantity = clickedItem.getQuantity();
+                int purchasedQuantity = clickedItem.getQuantity();
+                BigDecimal price = BigDecimal.valueOf(purchasedQuantity * shopItem.getPrice());
 
-                        TEAccount ownerAccount = (TEAccount) accountManager.getOrCreateAccount(shop.getOwner()).get();
-                        TEAccount customerAccount = (TEAccount) accountManager.getOrCreateAccount(player.getUniqueId()).get();
+                ItemStack purchasedItem = removeShopItemData(clickedItem.copy());
+                purchasedItem.setQuantity(purchasedQuantity);
 
-                        if (customerAccount.getBalance(totalEconomy.getDefaultCurrency()).doubleValue() >= purchasedQuantity * shopItem.getPrice()) {
-                            ItemStack purchasedItem = removeShopItemData(clickedItem.copy());
-                            purchasedItem.setQuantity(purchasedQuantity);
+                if (payShopOwner(shop, player, price, event.getCause())) {
+                    Collection<ItemStackSnapshot> rejectedItems = player.getInventory().query(QueryOperationTypes.INVENTORY_TYPE.of(GridInventory.class), QueryOperationTypes.INVENTORY_TYPE.of(Hotbar.class)).offer(purchasedItem).getRejectedItems();
 
-                            Collection<ItemStackSnapshot> rejectedItems = player.getInventory().query(QueryOperationTypes.INVENTORY_TYPE.of(GridInventory.class), QueryOperationTypes.INVENTORY_TYPE.of(Hotbar.class)).offer(purchasedItem).getRejectedItems();
+                    if (rejectedItems.size() == 0) {
+                        for (SlotTransaction transaction : event.getTransactions()) {
+                            transaction.setCustom(ItemStack.empty());
+                        }
 
-                            if (rejectedItems.size() == 0) {
-                                for (SlotTransaction transaction : event.getTransactions()) {
-                                    transaction.setCustom(ItemStack.empty());
-                                }
+                        recordSale(shop, player, purchasedItem, purchasedQuantity, price);
 
-                                customerAccount.transfer(ownerAccount, totalEconomy.getDefaultCurrency(), BigDecimal.valueOf(purchasedQuantity * shopItem.getPrice()), event.getCause());
+                        player.getInventory().offer(purchasedItem);
+                    } else {
+                        refundCustomer(shop, player, price, event.getCause());
 
-                                player.getInventory().offer(purchasedItem);
-                            } else {
-                                event.getTransactions().get(0).setValid(false);
+                        event.getTransactions().get(0).setValid(false);
 
-                                player.sendMessage(messageManager.getMessage("shops.purchase.noroom"));
-                            }
-                        } else {
-                            invalidateTransactions(event.getTransactions());
-                            player.sendMessage(messageManager.getMessage("shops.purchase.insufficientfunds"));
-                        }
+                        player.sendMessage(messageManager.getMessage("shops.purchase.noroom"));
                     }
+                } else {
+                    invalidateTransactions(event.getTransactions());
+                    player.sendMessage(messageManager.getMessage("shops.purchase.insufficientfunds"));
                 }
             }
         }
@@ -255,19 +245,10 @@ public class ShopManager {
      */
     @Listener
     public void onInventoryNumberPress(ClickInventoryEvent.NumberPress event, @First Player player) {
-        Optional<PlayerShopInfo> playerShopInfoOpt = player.get(ShopKeys.PLAYER_SHOP_INFO);
-
-        if (playerShopInfoOpt.isPresent()) {
-            Location location = player.get(ShopKeys.PLAYER_SHOP_INFO).get().getOpenShopLocation();
-            Optional<TileEntity> tileEntityOpt = location.getTileEntity();
+        Optional<Shop> shopOpt = getOpenShop(player);
 
-            if (tileEntityOpt.isPresent()) {
-                Optional<Shop> shopOpt = tileEntityOpt.get().get(ShopKeys.SINGLE_SHOP);
-
-                if (shopOpt.isPresent()) {
-                    event.setCancelled(true);
-                }
-            }
+        if (shopOpt.isPresent()) {
+            event.setCancelled(true);
         }
     }
 
@@ -282,11 +263,23 @@ public class ShopManager {
         Optional<BlockSnapshot> blockSnapshotOpt = event.getCause().getContext().get(EventContextKeys.BLOCK_HIT);
 
         if (blockSnapshotOpt.isPresent()) {
-            BlockSnapshot blockSnapshot = blockSnapshotOpt.get();
-            Optional<Shop> shopOpt = blockSnapshot.get(ShopKeys.SINGLE_SHOP);
+            Optional<Location<World>> locationOpt = blockSnapshotOpt.get().getLocation();
+
+            if (locationOpt.isPresent() && shopRegistry.getShop(locationOpt.get()).isPresent()) {
+                Location<World> location = locationOpt.get();
+
+                // A chest replaced without being broken, e.g. by WorldEdit or /setblock, is still in the registry
+                boolean hasShopData = location.getTileEntity()
+                        .map(tileEntity -> tileEntity.get(ShopKeys.SINGLE_SHOP).isPresent())
+                        .orElse(false);
+
+                if (!hasShopData) {
+                    shopRegistry.removeShop(location);
 
-            if (shopOpt.isPresent()) {
-                player.offer(new PlayerShopInfoData(new PlayerShopInfo(blockSnapshot.getLocation().get())));
+                    return;
+                }
+
+                player.offer(new PlayerShopInfoData(new PlayerShopInfo(location)));
             }
         }
     }
@@ -314,33 +307,55 @@ public class ShopManager {
      */
     @Listener
     public void onShopDestroy(ChangeBlockEvent.Break.Pre event, @First Player player) {
-        Optional<TileEntity> tileEntityOpt = event.getLocations().get(0).getTileEntity();
-
-        if (tileEntityOpt.isPresent()) {
-            TileEntity tileEntity = tileEntityOpt.get();
-            Optional<Shop> shopOpt = tileEntity.get(ShopKeys.SINGLE_SHOP);
-
-            if (shopOpt.isPresent()) {
-                Chest chest = (Chest) tileEntity;
-                Shop shop = shopOpt.get();
-                UUID shopOwner = shop.getOwner();
-
-                if (!player.getUniqueId().equals(shopOwner)) {
-                    event.setCancelled(true);
-
-                    player.sendMessage(messageManager.getMessage("shops.remove.notowner"));
-                } else if (player.getUniqueId().equals(shopOwner) && chest.getInventory().totalItems() > 0) {
-                    event.setCancelled(true);
+        Location<World> location = event.getLocations().get(0);
+        Optional<Shop> shopOpt = shopRegistry.getShop(location);
+        Optional<TileEntity> tileEntityOpt = shopOpt.isPresent() ? location.getTileEntity() : Optional.empty();
+
+        if (tileEntityOpt.isPresent() && tileEntityOpt.get() instanceof Chest) {
+            Chest chest = (Chest) tileEntityOpt.get();
+            Shop shop = shopOpt.get();
+            UUID shopOwner = shop.getOwner();
+
+            if (!player.getUniqueId().equals(shopOwner)) {
+                event.setCancelled(true);
+
+                player.sendMessage(messageManager.getMessage("shops.remove.notowner"));
+            } else if (player.getUniqueId().equals(shopOwner) && chest.getInventory().totalItems() > 0) {
+                event.setCancelled(true);
+
+                player.sendMessage(messageManager.getMessage("shops.remove.stocked"));
+            } else {
+                location.removeBlock();
+                location.setBlockType(BlockTypes.CHEST);
+                shopRegistry.removeShop(location);
+            }
+        }
+    }
 
-                    player.sendMessage(messageManager.getMessage("shops.remove.stocked"));
-                } else {
-                    event.getLocations().get(0).removeBlock();
-                    event.getLocations().get(0).setBlockType(BlockTypes.CHEST);
-                }
+    /**
+     * Forgets chest shops whose chest was broken or replaced by anything.
+     *
+     * @param event Break block
+     */
+    @Listener
+    public void onBlockBreak(ChangeBlockEvent.Break event) {
+        for (Transaction<BlockSnapshot> transaction : event.getTransactions()) {
+            if (transaction.isValid() && transaction.getFinal().getState().getType() != BlockTypes.CHEST) {
+                transaction.getOriginal().getLocation().ifPresent(shopRegistry::removeShop);
             }
         }
     }
 
+    /**
+     * Registers the chest shops of a chunk when it's loaded.
+     *
+     * @param event Load chunk
+     */
+    @Listener
+    public void onChunkLoad(LoadChunkEvent event) {
+        shopRegistry.loadChunk(event.getTargetChunk());
+    }
+
     /**
      * Prevents chests from being placed next to chest shops.
      *
@@ -350,13 +365,85 @@ public class ShopManager {
     public void onChestPlace(ChangeBlockEvent.Place event) {
         BlockSnapshot blockSnapshot = event.getTransactions().get(0).getDefault();
         BlockType blockType = blockSnapshot.getState().getType();
-        Location location = blockSnapshot.getLocation().get();
+        Location<World> location = blockSnapshot.getLocation().get();
 
         if (blockType.equals(BlockTypes.CHEST) && isPlacedNextToShop(location)) {
             event.setCancelled(true);
         }
     }
 
+    /**
+     * Gets the shop a player has open.
+     *
+     * @param player The player
+     * @return Optional The open shop, empty if the player has no shop open
+     */
+    private Optional<Shop> getOpenShop(Player player) {
+        Optional<PlayerShopInfo> playerShopInfoOpt = player.get(ShopKeys.PLAYER_SHOP_INFO);
+
+        if (playerShopInfoOpt.isPresent()) {
+            return shopRegistry.getShop(playerShopInfoOpt.get().getOpenShopLocation());
+        }
+
+        return Optional.empty();
+    }
+
+    /**
+     * Pays the owner of a shop for a purchase. The transfer runs on the server thread within the click event, and fails
+     * if the customer can't afford the purchase.
+     *
+     * @param shop The shop the purchase was made from
+     * @param customer The player making the purchase
+     * @param price The total price of the purchase
+     * @param cause The cause of the purchase
+     * @return boolean If the owner was paid
+     */
+    private boolean payShopOwner(Shop shop, Player customer, BigDecimal price, Cause cause) {
+        TEAccount customerAccount = (TEAccount) accountManager.getOrCreateAccount(customer.getUniqueId()).get();
+        TEAccount ownerAccount = (TEAccount) accountManager.getOrCreateAccount(shop.getOwner()).get();
+
+        return customerAccount.transfer(ownerAccount, totalEconomy.getDefaultCurrency(), price, cause).getResult() == ResultType.SUCCESS;
+    }
+
+    /**
+     * Returns the payment for a purchase that couldn't be handed out.
+     *
+     * @param shop The shop the purchase was made from
+     * @param customer The player that made the purchase
+     * @param price The total price of the purchase
+     * @param cause The cause of the purchase
+     */
+    private void refundCustomer(Shop shop, Player customer, BigDecimal price, Cause cause) {
+        TEAccount customerAccount = (TEAccount) accountManager.getOrCreateAccount(customer.getUniqueId()).get();
+        TEAccount ownerAccount = (TEAccount) accountManager.getOrCreateAccount(shop.getOwner()).get();
+
+        ResultType resultType = ownerAccount.transfer(customerAccount, totalEconomy.getDefaultCurrency(), price, cause).getResult();
+
+        if (resultType != ResultType.SUCCESS) {
+            totalEconomy.getLogger().warn("Shop purchase refund of " + price + " from " + shop.getOwner() + " to " + customer.getName() + " failed: " + resultType);
+        }
+    }
+
+    /**
+     * Records a completed purchase in the sales ledger.
+     *
+     * @param shop The shop the purchase was made from
+     * @param customer The player that made the purchase
+     * @param purchasedItem The item that was purchased
+     * @param quantity The number of items purchased
+     * @param price The total price of the purchase
+     */
+    private void recordSale(Shop shop, Player customer, ItemStack purchasedItem, int quantity, BigDecimal price) {
+        Optional<PlayerShopInfo> playerShopInfoOpt = customer.get(ShopKeys.PLAYER_SHOP_INFO);
+
+        if (playerShopInfoOpt.isPresent()) {
+            Location<World> location = playerShopInfoOpt.get().getOpenShopLocation();
+
+            salesLedger.record(new ShopSale(location.getExtent().getUniqueId(), location.getBlockX(), location.getBlockY(), location.getBlockZ(),
+                    shop.getOwner(), customer.getUniqueId(), purchasedItem.getType().getId(), quantity, price, System.currentTimeMillis()));
+        }
+    }
+
     /**
      * Removes ShopItemData from an ItemStack.
      *
@@ -380,30 +467,16 @@ public class ShopManager {
      * @param location The location to check for adjacent chest shops
      * @return boolean If the location is adjacent to a chest shop
      */
-    private boolean isPlacedNextToShop(Location location) {
-        boolean isPlacedNextToShop = false;
-
-        Optional<TileEntity> northTileEntity = location.getBlockRelative(Direction.NORTH).getTileEntity();
-        if (northTileEntity.isPresent()) {
-            isPlacedNextToShop = northTileEntity.get().get(ShopKeys.SINGLE_SHOP).isPresent();
-        }
-
-        Optional<TileEntity> eastTileEntity = location.getBlockRelative(Direction.EAST).getTileEntity();
-        if (eastTileEntity.isPresent()) {
-            isPlacedNextToShop = eastTileEntity.get().get(ShopKeys.SINGLE_SHOP).isPresent();
-        }
-
-        Optional<TileEntity> southTileEntity = location.getBlockRelative(Direction.SOUTH).getTileEntity();
-        if (southTileEntity.isPresent()) {
-            isPlacedNextToShop = southTileEntity.get().get(ShopKeys.SINGLE_SHOP).isPresent();
-        }
-
-        Optional<TileEntity> westTileEntity = location.getBlockRelative(Direction.WEST).getTileEntity();
-        if (westTileEntity.isPresent()) {
-            isPlacedNextToShop = westTileEntity.get().get(ShopKeys.SINGLE_SHOP).isPresent();
-        }
-
-        return isPlacedNextToShop;
+    private boolean isPlacedNextToShop(Location<World> location) {
+        UUID worldId = location.getExtent().getUniqueId();
+        int x = location.getBlockX();
+        int y = location.getBlockY();
+        int z = location.getBlockZ();
+
+        return shopRegistry.getShop(worldId, x, y, z - 1).isPresent()
+                || shopRegistry.getShop(worldId, x + 1, y, z).isPresent()
+                || shopRegistry.getShop(worldId, x, y, z + 1).isPresent()
+                || shopRegistry.getShop(worldId, x - 1, y, z).isPresent();
     }
 
     /**
@@ -449,6 +522,14 @@ public class ShopManager {
         return Optional.empty();
     }
 
+    public ShopRegistry getShopRegistry() {
+        return shopRegistry;
+    }
+
+    public ShopSalesLedger getSalesLedger() {
+        return salesLedger;
+    }
+
     public double getMinPrice() {
         return minPrice;
     }
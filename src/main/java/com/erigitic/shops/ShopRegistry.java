@@ -0,0 +1,332 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.erigitic.shops;
+
+import com.erigitic.main.TotalEconomy;
+import com.erigitic.shops.data.ShopKeys;
+import com.erigitic.util.FileUtils;
+import com.flowpowered.math.vector.Vector3i;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.slf4j.Logger;
+import org.spongepowered.api.Sponge;
+import org.spongepowered.api.block.tileentity.TileEntity;
+import org.spongepowered.api.block.tileentity.carrier.Chest;
+import org.spongepowered.api.world.Chunk;
+import org.spongepowered.api.world.Location;
+import org.spongepowered.api.world.World;
+
+/**
+ * Keeps every known chest shop in memory by world, chunk and block position, so shop interactions and placement checks
+ * don't have to read the shop data of tile entities. Shops are registered when they are bought and removed when they
+ * are broken. The shops of a chunk are read from its tile entities again every time the chunk loads, so shops created
+ * or removed without going through Total Economy are picked up too.
+ *
+ * <p>The registry is used from the server thread. It is kept in an index file between restarts, which is encoded on
+ * the server thread and written by a background task. Index layout: magic, format version, shop count, then for each
+ * shop its world, packed position, owner and title.</p>
+ */
+public class ShopRegistry {
+
+    private static final int MAGIC = 0x54455348;
+    private static final int FORMAT_VERSION = 1;
+
+    private final TotalEconomy totalEconomy;
+    private final Logger logger;
+    private final Path indexFile;
+
+    // World -> chunk -> block position -> shop
+    private final Map<UUID, Map<Long, Map<Long, Shop>>> worlds = new HashMap<>();
+    private final AtomicReference<byte[]> pendingWrite = new AtomicReference<>();
+    private boolean dirty = false;
+
+    /**
+     * Constructor for the ShopRegistry class.
+     *
+     * @param totalEconomy Main plugin class
+     * @param logger Logger
+     * @param indexFile File the registry is kept in between restarts
+     */
+    public ShopRegistry(TotalEconomy totalEconomy, Logger logger, Path indexFile) {
+        this.totalEconomy = totalEconomy;
+        this.logger = logger;
+        this.indexFile = indexFile;
+
+        load();
+    }
+
+    /**
+     * Start the task that writes the index file every save interval when shops changed.
+     *
+     * @param interval Seconds between each save
+     */
+    public void startSaveTask(int interval) {
+        Sponge.getScheduler().createTaskBuilder()
+                .interval(interval, TimeUnit.SECONDS)
+                .execute(this::saveAsync)
+                .name("Total Economy - Save shop index")
+                .submit(totalEconomy);
+    }
+
+    /**
+     * Get the shop at a location.
+     *
+     * @param location The location of the shop's chest
+     * @return Optional The shop, empty if there is no shop at the location
+     */
+    public Optional<Shop> getShop(Location<World> location) {
+        return getShop(location.getExtent().getUniqueId(), location.getBlockX(), location.getBlockY(), location.getBlockZ());
+    }
+
+    /**
+     * Get the shop at a block position.
+     *
+     * @param worldId {@link UUID} of the world
+     * @param x Block x
+     * @param y Block y
+     * @param z Block z
+     * @return Optional The shop, empty if there is no shop at the position
+     */
+    public Optional<Shop> getShop(UUID worldId, int x, int y, int z) {
+        Map<Long, Map<Long, Shop>> chunks = worlds.get(worldId);
+
+        if (chunks == null) {
+            return Optional.empty();
+        }
+
+        Map<Long, Shop> shops = chunks.get(chunkKey(x >> 4, z >> 4));
+
+        return shops != null ? Optional.ofNullable(shops.get(packPosition(x, y, z))) : Optional.empty();
+    }
+
+    /**
+     * Register a shop.
+     *
+     * @param location The location of the shop's chest
+     * @param shop The shop
+     */
+    public void addShop(Location<World> location, Shop shop) {
+        worlds.computeIfAbsent(location.getExtent().getUniqueId(), k -> new HashMap<>())
+                .computeIfAbsent(chunkKey(location.getBlockX() >> 4, location.getBlockZ() >> 4), k -> new HashMap<>())
+                .put(packPosition(location.getBlockX(), location.getBlockY(), location.getBlockZ()), shop);
+
+        dirty = true;
+    }
+
+    /**
+     * Forget the shop at a location, if there is one.
+     *
+     * @param location The location of the shop's chest
+     */
+    public void removeShop(Location<World> location) {
+        Map<Long, Map<Long, Shop>> chunks = worlds.get(location.getExtent().getUniqueId());
+
+        if (chunks == null) {
+            return;
+        }
+
+        long chunkKey = chunkKey(location.getBlockX() >> 4, location.getBlockZ() >> 4);
+        Map<Long, Shop> shops = chunks.get(chunkKey);
+
+        if (shops != null && shops.remove(packPosition(location.getBlockX(), location.getBlockY(), location.getBlockZ())) != null) {
+            if (shops.isEmpty()) {
+                chunks.remove(chunkKey);
+            }
+
+            dirty = true;
+        }
+    }
+
+    /**
+     * Register the shops of a chunk that was loaded, replacing what was known about the chunk.
+     *
+     * @param chunk The loaded chunk
+     */
+    public void loadChunk(Chunk chunk) {
+        Map<Long, Shop> shops = new HashMap<>();
+
+        for (TileEntity tileEntity : chunk.getTileEntities()) {
+            if (tileEntity instanceof Chest) {
+                Location<World> location = tileEntity.getLocation();
+
+                tileEntity.get(ShopKeys.SINGLE_SHOP).ifPresent(shop -> shops.put(packPosition(location.getBlockX(), location.getBlockY(), location.getBlockZ()), shop));
+            }
+        }
+
+        Vector3i chunkPosition = chunk.getPosition();
+        Map<Long, Map<Long, Shop>> chunks = worlds.computeIfAbsent(chunk.getWorld().getUniqueId(), k -> new HashMap<>());
+        Map<Long, Shop> known = shops.isEmpty()
+                ? chunks.remove(chunkKey(chunkPosition.getX(), chunkPosition.getZ()))
+                : chunks.put(chunkKey(chunkPosition.getX(), chunkPosition.getZ()), shops);
+
+        // Shops can't be retitled, so the chunk only changed if its shop positions did
+        if (!shops.keySet().equals(known == null ? Collections.emptySet() : known.keySet())) {
+            dirty = true;
+        }
+    }
+
+    /**
+     * Encode the registry and write it off the server thread, if any shop changed since the last save.
+     */
+    private void saveAsync() {
+        if (encode()) {
+            Sponge.getScheduler().createTaskBuilder()
+                    .async()
+                    .execute(this::writePending)
+                    .name("Total Economy - Write shop index")
+                    .submit(totalEconomy);
+        }
+    }
+
+    /**
+     * Write the registry if any shop changed. Called when the server stops.
+     */
+    public void save() {
+        encode();
+        writePending();
+    }
+
+    private boolean encode() {
+        if (!dirty) {
+            return false;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            int count = 0;
+
+            for (Map<Long, Map<Long, Shop>> chunks : worlds.values()) {
+                for (Map<Long, Shop> shops : chunks.values()) {
+                    count += shops.size();
+                }
+            }
+
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(count);
+
+            for (Map.Entry<UUID, Map<Long, Map<Long, Shop>>> world : worlds.entrySet()) {
+                for (Map<Long, Shop> shops : world.getValue().values()) {
+                    for (Map.Entry<Long, Shop> shop : shops.entrySet()) {
+                        out.writeLong(world.getKey().getMostSignificantBits());
+                        out.writeLong(world.getKey().getLeastSignificantBits());
+                        out.writeLong(shop.getKey());
+                        out.writeLong(shop.getValue().getOwner().getMostSignificantBits());
+                        out.writeLong(shop.getValue().getOwner().getLeastSignificantBits());
+                        out.writeUTF(shop.getValue().getTitle());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // Writing to memory doesn't fail
+            throw new IllegalStateException(e);
+        }
+
+        pendingWrite.set(bytes.toByteArray());
+        dirty = false;
+
+        return true;
+    }
+
+    /**
+     * Write the latest encoding of the registry. Synchronized so an older encoding can't be written over a newer one.
+     */
+    private synchronized void writePending() {
+        byte[] data = pendingWrite.getAndSet(null);
+
+        if (data == null) {
+            return;
+        }
+
+        try {
+            FileUtils.replaceFile(indexFile, out -> out.write(data));
+        } catch (IOException e) {
+            logger.warn("An error occurred while saving the shop index!", e);
+        }
+    }
+
+    private void load() {
+        if (!Files.exists(indexFile)) {
+            return;
+        }
+
+        try (InputStream in = Files.newInputStream(indexFile);
+             DataInputStream data = new DataInputStream(in)) {
+            if (data.readInt() != MAGIC || data.readInt() != FORMAT_VERSION) {
+                logger.warn("Ignoring the shop index, it isn't in a known format.");
+
+                return;
+            }
+
+            int count = data.readInt();
+
+            for (int i = 0; i < count; i++) {
+                UUID worldId = new UUID(data.readLong(), data.readLong());
+                long position = data.readLong();
+                UUID owner = new UUID(data.readLong(), data.readLong());
+                String title = data.readUTF();
+
+                worlds.computeIfAbsent(worldId, k -> new HashMap<>())
+                        .computeIfAbsent(chunkKey(unpackX(position) >> 4, unpackZ(position) >> 4), k -> new HashMap<>())
+                        .put(position, new Shop(owner, title));
+            }
+        } catch (IOException e) {
+            logger.warn("An error occurred while loading the shop index!", e);
+        }
+    }
+
+    private static long chunkKey(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Pack a block position into a long, 26 bits for x and z and 12 bits for y.
+     */
+    private static long packPosition(int x, int y, int z) {
+        return ((x & 0x3FFFFFFL) << 38) | ((z & 0x3FFFFFFL) << 12) | (y & 0xFFFL);
+    }
+
+    private static int unpackX(long position) {
+        return (int) (position >> 38);
+    }
+
+    private static int unpackZ(long position) {
+        return (int) (position << 26 >> 38);
+    }
+}
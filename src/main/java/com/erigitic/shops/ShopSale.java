@@ -0,0 +1,113 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.erigitic.shops;
+
+import java.math.BigDecimal;
+import java.util.UUID;
+
+/**
+ * A purchase made from a chest shop.
+ */
+public class ShopSale {
+
+    private final UUID worldId;
+    private final int x;
+    private final int y;
+    private final int z;
+    private final UUID owner;
+    private final UUID buyer;
+    private final String itemId;
+    private final int quantity;
+    private final BigDecimal price;
+    private final long timestamp;
+
+    /**
+     * Constructor for the ShopSale class.
+     *
+     * @param worldId {@link UUID} of the shop's world
+     * @param x Block x of the shop
+     * @param y Block y of the shop
+     * @param z Block z of the shop
+     * @param owner {@link UUID} of the shop owner
+     * @param buyer {@link UUID} of the buyer
+     * @param itemId Id of the item type that was sold
+     * @param quantity Number of items sold
+     * @param price Total price paid
+     * @param timestamp Time of the sale in milliseconds since the epoch
+     */
+    public ShopSale(UUID worldId, int x, int y, int z, UUID owner, UUID buyer, String itemId, int quantity, BigDecimal price, long timestamp) {
+        this.worldId = worldId;
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.owner = owner;
+        this.buyer = buyer;
+        this.itemId = itemId;
+        this.quantity = quantity;
+        this.price = price;
+        this.timestamp = timestamp;
+    }
+
+    public UUID getWorldId() {
+        return worldId;
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+
+    public int getZ() {
+        return z;
+    }
+
+    public UUID getOwner() {
+        return owner;
+    }
+
+    public UUID getBuyer() {
+        return buyer;
+    }
+
+    public String getItemId() {
+        return itemId;
+    }
+
+    public int getQuantity() {
+        return quantity;
+    }
+
+    public BigDecimal getPrice() {
+        return price;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+}
@@ -0,0 +1,486 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.erigitic.shops;
+
+import com.erigitic.main.TotalEconomy;
+import com.erigitic.sql.SqlManager;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import org.slf4j.Logger;
+import org.spongepowered.api.Sponge;
+
+/**
+ * Records the sales of chest shops. Sales are put in a bounded buffer from the server thread, and a background task
+ * writes them in batches to the shop_sales table in database mode, or appends them to a sales file otherwise. Recording
+ * a sale never does any I/O; when the buffer is full the sale is dropped and a warning is logged.
+ *
+ * <p>The sales file is bounded: once it grows past its maximum size it replaces the previous generation, so at most two
+ * generations are kept. Each record carries its length and a checksum. A record left half written by a crash is cut off
+ * when the ledger starts, and readers stop at the first record that doesn't check out.</p>
+ *
+ * <p>Sales file layout: magic and format version, then for each sale the record length, the record and its CRC32. A
+ * record holds the world, x, y, z, owner, buyer, item id, quantity, price and timestamp.</p>
+ */
+public class ShopSalesLedger {
+
+    private static final int BUFFER_SIZE = 4096;
+    private static final int WRITE_INTERVAL = 5;
+
+    private static final int MAGIC = 0x54455353;
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int MAX_RECORD_SIZE = 1024;
+    private static final long MAX_FILE_SIZE = 8L * 1024 * 1024;
+
+    private final TotalEconomy totalEconomy;
+    private final Logger logger;
+    private final SqlManager sqlManager;
+    private final Path salesFile;
+    private final Path oldSalesFile;
+
+    private final BlockingQueue<ShopSale> buffer = new ArrayBlockingQueue<>(BUFFER_SIZE);
+    private final AtomicInteger droppedSales = new AtomicInteger();
+
+    // Held by readers of the sales files, the files are only rotated while nobody reads them
+    private final ReadWriteLock fileLock = new ReentrantReadWriteLock();
+
+    /**
+     * Constructor for the ShopSalesLedger class.
+     *
+     * @param totalEconomy Main plugin class
+     * @param logger Logger
+     * @param salesFile File the sales are appended to when the database isn't in use
+     */
+    public ShopSalesLedger(TotalEconomy totalEconomy, Logger logger, Path salesFile) {
+        this.totalEconomy = totalEconomy;
+        this.logger = logger;
+        this.salesFile = salesFile;
+
+        oldSalesFile = salesFile.resolveSibling(salesFile.getFileName() + ".old");
+        sqlManager = totalEconomy.isDatabaseEnabled() ? totalEconomy.getSqlManager() : null;
+
+        if (sqlManager != null) {
+            sqlManager.createTable("shop_sales", "id bigint NOT NULL AUTO_INCREMENT,"
+                    + "world varchar(36) NOT NULL,"
+                    + "x int NOT NULL,"
+                    + "y int NOT NULL,"
+                    + "z int NOT NULL,"
+                    + "owner varchar(36) NOT NULL,"
+                    + "buyer varchar(36) NOT NULL,"
+                    + "item varchar(100) NOT NULL,"
+                    + "quantity int NOT NULL,"
+                    + "price decimal(19,2) NOT NULL,"
+                    + "time bigint NOT NULL,"
+                    + "PRIMARY KEY (id)"
+            );
+
+            sqlManager.createIndex("shop_sales", "shop_sales_owner_time_idx", "owner, time");
+        } else {
+            repairSalesFile();
+        }
+    }
+
+    /**
+     * Start the task that writes the buffered sales.
+     */
+    public void startWriteTask() {
+        Sponge.getScheduler().createTaskBuilder()
+                .interval(WRITE_INTERVAL, TimeUnit.SECONDS)
+                .async()
+                .execute(this::flush)
+                .name("Total Economy - Write shop sales")
+                .submit(totalEconomy);
+    }
+
+    /**
+     * Record a sale. Never blocks.
+     *
+     * @param sale The sale
+     */
+    public void record(ShopSale sale) {
+        if (!buffer.offer(sale)) {
+            droppedSales.incrementAndGet();
+        }
+    }
+
+    /**
+     * Write every buffered sale. Synchronized so batches are written in order.
+     */
+    public synchronized void flush() {
+        int dropped = droppedSales.getAndSet(0);
+
+        if (dropped > 0) {
+            logger.warn("Dropped " + dropped + " shop sales, the sales buffer was full!");
+        }
+
+        List<ShopSale> batch = new ArrayList<>();
+
+        while (buffer.drainTo(batch, BUFFER_SIZE) > 0) {
+            try {
+                if (sqlManager != null) {
+                    writeToDatabase(batch);
+                } else {
+                    writeToFile(batch);
+                }
+            } catch (IOException | SQLException e) {
+                logger.warn("An error occurred while writing " + batch.size() + " shop sales!", e);
+            }
+
+            batch.clear();
+        }
+    }
+
+    /**
+     * Get the most recent sales of a shop owner. Reads from storage, so it must not be called from the server thread.
+     * Buffered sales are written first, the read itself doesn't hold up later writes.
+     *
+     * @param owner {@link UUID} of the shop owner
+     * @param limit Largest number of sales to return
+     * @return List The sales, most recent first
+     */
+    public List<ShopSale> getRecentSales(UUID owner, int limit) {
+        try {
+            if (sqlManager != null) {
+                flush();
+
+                return readFromDatabase(owner, limit);
+            }
+
+            return readFromFile(owner, limit);
+        } catch (IOException | SQLException e) {
+            logger.warn("An error occurred while reading the shop sales of " + owner + "!", e);
+        }
+
+        return new ArrayList<>();
+    }
+
+    private void writeToDatabase(List<ShopSale> sales) throws SQLException {
+        try (Connection conn = sqlManager.dataSource.getConnection();
+             PreparedStatement statement = conn.prepareStatement("INSERT INTO shop_sales (world, x, y, z, owner, buyer, item, quantity, price, time) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)")) {
+            for (ShopSale sale : sales) {
+                statement.setString(1, sale.getWorldId().toString());
+                statement.setInt(2, sale.getX());
+                statement.setInt(3, sale.getY());
+                statement.setInt(4, sale.getZ());
+                statement.setString(5, sale.getOwner().toString());
+                statement.setString(6, sale.getBuyer().toString());
+                statement.setString(7, sale.getItemId());
+                statement.setInt(8, sale.getQuantity());
+                statement.setBigDecimal(9, sale.getPrice());
+                statement.setLong(10, sale.getTimestamp());
+                statement.addBatch();
+            }
+
+            statement.executeBatch();
+        }
+    }
+
+    private List<ShopSale> readFromDatabase(UUID owner, int limit) throws SQLException {
+        List<ShopSale> sales = new ArrayList<>();
+
+        try (Connection conn = sqlManager.dataSource.getConnection();
+             PreparedStatement statement = conn.prepareStatement("SELECT world, x, y, z, buyer, item, quantity, price, time FROM shop_sales WHERE owner=? ORDER BY time DESC LIMIT ?")) {
+            statement.setString(1, owner.toString());
+            statement.setInt(2, limit);
+
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    sales.add(new ShopSale(
+                            UUID.fromString(resultSet.getString("world")),
+                            resultSet.getInt("x"),
+                            resultSet.getInt("y"),
+                            resultSet.getInt("z"),
+                            owner,
+                            UUID.fromString(resultSet.getString("buyer")),
+                            resultSet.getString("item"),
+                            resultSet.getInt("quantity"),
+                            resultSet.getBigDecimal("price"),
+                            resultSet.getLong("time")
+                    ));
+                }
+            }
+        }
+
+        return sales;
+    }
+
+    /**
+     * Append a batch of sales to the sales file in a single write. A write that fails part way is cut off again, so the
+     * next batch starts on a record boundary.
+     */
+    private void writeToFile(List<ShopSale> sales) throws IOException {
+        rotateIfFull();
+
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(records);
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        CRC32 crc = new CRC32();
+
+        if (getSize(salesFile) == 0) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+        }
+
+        for (ShopSale sale : sales) {
+            record.reset();
+            encode(new DataOutputStream(record), sale);
+
+            if (record.size() > MAX_RECORD_SIZE) {
+                logger.warn("Skipping a shop sale of " + sale.getItemId() + ", it is too large to be recorded!");
+
+                continue;
+            }
+
+            byte[] bytes = record.toByteArray();
+
+            crc.reset();
+            crc.update(bytes, 0, bytes.length);
+
+            out.writeInt(bytes.length);
+            out.write(bytes);
+            out.writeInt((int) crc.getValue());
+        }
+
+        try (FileChannel channel = FileChannel.open(salesFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            long start = channel.size();
+            ByteBuffer data = ByteBuffer.wrap(records.toByteArray());
+
+            channel.position(start);
+
+            try {
+                while (data.hasRemaining()) {
+                    channel.write(data);
+                }
+            } catch (IOException e) {
+                channel.truncate(start);
+
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Start a new sales file once the current one is full, replacing the previous generation. Skipped while the files
+     * are being read, the next write tries again.
+     */
+    private void rotateIfFull() throws IOException {
+        if (getSize(salesFile) < MAX_FILE_SIZE || !fileLock.writeLock().tryLock()) {
+            return;
+        }
+
+        try {
+            Files.move(salesFile, oldSalesFile, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            fileLock.writeLock().unlock();
+        }
+    }
+
+    private List<ShopSale> readFromFile(UUID owner, int limit) throws IOException {
+        Deque<ShopSale> sales = new ArrayDeque<>();
+        Lock readLock = fileLock.readLock();
+        long oldSize;
+        long currentSize;
+
+        // Only the records written up to now are read, so appends made during the read are never seen half written
+        synchronized (this) {
+            flush();
+            readLock.lock();
+
+            try {
+                oldSize = getSize(oldSalesFile);
+                currentSize = getSize(salesFile);
+            } catch (IOException e) {
+                readLock.unlock();
+
+                throw e;
+            }
+        }
+
+        Consumer<ShopSale> collector = sale -> {
+            if (sale.getOwner().equals(owner)) {
+                sales.addFirst(sale);
+
+                if (sales.size() > limit) {
+                    sales.removeLast();
+                }
+            }
+        };
+
+        try {
+            readRecords(oldSalesFile, oldSize, collector);
+            readRecords(salesFile, currentSize, collector);
+        } finally {
+            readLock.unlock();
+        }
+
+        return new ArrayList<>(sales);
+    }
+
+    /**
+     * Read the records of a sales file up to a size, stopping at the first record that is cut off or doesn't match its
+     * checksum.
+     *
+     * @param file The sales file
+     * @param size Number of bytes of the file to read
+     * @param consumer Receives each sale
+     * @return long The size of the valid part of the file, -1 if it isn't a sales file
+     */
+    private long readRecords(Path file, long size, Consumer<ShopSale> consumer) throws IOException {
+        if (size == 0) {
+            return 0;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (size < HEADER_SIZE || in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                return -1;
+            }
+
+            long offset = HEADER_SIZE;
+            CRC32 crc = new CRC32();
+
+            while (offset + 8 <= size) {
+                int length = in.readInt();
+
+                if (length <= 0 || length > MAX_RECORD_SIZE || offset + 8 + length > size) {
+                    break;
+                }
+
+                byte[] bytes = new byte[length];
+                in.readFully(bytes);
+
+                crc.reset();
+                crc.update(bytes, 0, length);
+
+                if (in.readInt() != (int) crc.getValue()) {
+                    break;
+                }
+
+                consumer.accept(decode(bytes));
+                offset += 8 + length;
+            }
+
+            return offset;
+        }
+    }
+
+    /**
+     * Cut off a record left half written by a crash, so new records aren't appended behind it. A file that isn't a
+     * sales file is moved aside.
+     */
+    private void repairSalesFile() {
+        try {
+            long size = getSize(salesFile);
+            long validSize = readRecords(salesFile, size, sale -> { });
+
+            if (validSize < 0) {
+                Path invalidFile = salesFile.resolveSibling(salesFile.getFileName() + ".invalid");
+
+                logger.warn("Moving " + salesFile.getFileName() + " aside to " + invalidFile.getFileName() + ", it isn't a shop sales file!");
+                Files.move(salesFile, invalidFile, StandardCopyOption.REPLACE_EXISTING);
+            } else if (validSize < size) {
+                logger.warn("Discarding " + (size - validSize) + " bytes of partially written shop sales.");
+
+                try (FileChannel channel = FileChannel.open(salesFile, StandardOpenOption.WRITE)) {
+                    channel.truncate(validSize);
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("An error occurred while checking the shop sales file!", e);
+        }
+    }
+
+    private void encode(DataOutputStream out, ShopSale sale) throws IOException {
+        writeUniqueId(out, sale.getWorldId());
+        out.writeInt(sale.getX());
+        out.writeInt(sale.getY());
+        out.writeInt(sale.getZ());
+        writeUniqueId(out, sale.getOwner());
+        writeUniqueId(out, sale.getBuyer());
+        out.writeUTF(sale.getItemId());
+        out.writeInt(sale.getQuantity());
+        out.writeUTF(sale.getPrice().toPlainString());
+        out.writeLong(sale.getTimestamp());
+    }
+
+    private ShopSale decode(byte[] bytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+
+        return new ShopSale(
+                readUniqueId(in),
+                in.readInt(),
+                in.readInt(),
+                in.readInt(),
+                readUniqueId(in),
+                readUniqueId(in),
+                in.readUTF(),
+                in.readInt(),
+                new BigDecimal(in.readUTF()),
+                in.readLong()
+        );
+    }
+
+    private long getSize(Path file) throws IOException {
+        return Files.exists(file) ? Files.size(file) : 0;
+    }
+
+    private void writeUniqueId(DataOutputStream out, UUID uuid) throws IOException {
+        out.writeLong(uuid.getMostSignificantBits());
+        out.writeLong(uuid.getLeastSignificantBits());
+    }
+
+    private UUID readUniqueId(DataInputStream in) throws IOException {
+        return new UUID(in.readLong(), in.readLong());
+    }
+}
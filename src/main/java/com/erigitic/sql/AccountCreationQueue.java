@@ -0,0 +1,272 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.erigitic.sql;
+
+import com.erigitic.config.BalanceLeaderboard;
+import com.erigitic.config.TECurrency;
+import com.erigitic.main.TotalEconomy;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.spongepowered.api.Sponge;
+import org.spongepowered.api.service.economy.Currency;
+
+/**
+ * Coalesces the creation of new player accounts. Players that join are queued, and a background task creates the
+ * accounts of every queued player that doesn't have one yet in a single multi-row insert with the starting balances
+ * included. Once the accounts of a batch exist, they are handed to a listener so the first economy call of a joining
+ * player doesn't have to look the account up on the server thread.
+ */
+public class AccountCreationQueue {
+
+    // Largest number of accounts written by a single statement
+    private static final int MAX_BATCH_SIZE = 500;
+
+    private final TotalEconomy totalEconomy;
+    private final SqlManager sqlManager;
+    private final Logger logger;
+    private final BalanceLedger accountLedger;
+    private final BalanceLeaderboard balanceLeaderboard;
+    private final Consumer<UUID> accountReadyListener;
+
+    private final Set<UUID> pending = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Constructor for the AccountCreationQueue class.
+     *
+     * @param totalEconomy Main plugin class
+     * @param sqlManager The {@link SqlManager} used to create the accounts
+     * @param logger Logger
+     * @param accountLedger The ledger new accounts are cached in, null if write-behind is disabled
+     * @param balanceLeaderboard The leaderboard new accounts are ranked in
+     * @param accountReadyListener Called from the flush task with every queued player whose account exists
+     */
+    public AccountCreationQueue(TotalEconomy totalEconomy, SqlManager sqlManager, Logger logger, BalanceLedger accountLedger, BalanceLeaderboard balanceLeaderboard, Consumer<UUID> accountReadyListener) {
+        this.totalEconomy = totalEconomy;
+        this.sqlManager = sqlManager;
+        this.logger = logger;
+        this.accountLedger = accountLedger;
+        this.balanceLeaderboard = balanceLeaderboard;
+        this.accountReadyListener = accountReadyListener;
+    }
+
+    /**
+     * Start the background task that creates the queued accounts.
+     *
+     * @param interval Milliseconds between each run
+     */
+    public void startFlushTask(long interval) {
+        Sponge.getScheduler().createTaskBuilder()
+                .async()
+                .interval(interval, TimeUnit.MILLISECONDS)
+                .execute(this::flush)
+                .name("Total Economy - Create accounts")
+                .submit(totalEconomy);
+    }
+
+    /**
+     * Queue the account of a player to be created if it doesn't exist.
+     *
+     * @param uuid {@link UUID} of the player
+     */
+    public void enqueue(UUID uuid) {
+        pending.add(uuid);
+    }
+
+    /**
+     * Determines if the account of a player is still waiting to be created.
+     *
+     * @param uuid {@link UUID} of the player
+     * @return boolean If the account is queued
+     */
+    public boolean isPending(UUID uuid) {
+        return pending.contains(uuid);
+    }
+
+    /**
+     * Create the accounts of every queued player that doesn't have one yet. Players stay queued until their account has
+     * been written, so a caller seeing a player as pending can flush to be sure the account exists.
+     */
+    public synchronized void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        List<UUID> batch = new ArrayList<>(pending);
+
+        try {
+            for (int from = 0; from < batch.size(); from += MAX_BATCH_SIZE) {
+                List<String> uids = new ArrayList<>();
+
+                for (UUID uuid : batch.subList(from, Math.min(from + MAX_BATCH_SIZE, batch.size()))) {
+                    uids.add(uuid.toString());
+                }
+
+                Set<String> existing = getExistingAccounts(uids);
+                List<String> missing = new ArrayList<>(uids);
+                missing.removeAll(existing);
+
+                boolean created = missing.isEmpty() || createAccounts(missing);
+
+                for (String uid : uids) {
+                    if (created || existing.contains(uid)) {
+                        accountReadyListener.accept(UUID.fromString(uid));
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            logger.warn("An error occurred while looking up queued accounts!", e);
+        } finally {
+            // Players whose account failed to be created get it created on their first economy call instead
+            pending.removeAll(batch);
+        }
+    }
+
+    /**
+     * Create new accounts with their starting balances in a single transaction. Accounts that already exist are left
+     * untouched. Job progress gets its rows when a player first gains experience in a job.
+     *
+     * @param uids The uids of the accounts to create
+     * @return boolean If the accounts were created
+     */
+    public boolean createAccounts(Collection<String> uids) {
+        List<TECurrency> currencies = new ArrayList<>();
+        StringBuilder accountColumns = new StringBuilder("uid, job, job_notifications");
+
+        for (Currency currency : totalEconomy.getCurrencies()) {
+            TECurrency teCurrency = (TECurrency) currency;
+
+            currencies.add(teCurrency);
+            accountColumns.append(", `").append(teCurrency.getName().toLowerCase()).append("_balance`");
+        }
+
+        String accountRow = getRowPlaceholders(currencies.size() + 3);
+
+        try (Connection conn = sqlManager.dataSource.getConnection()) {
+            conn.setAutoCommit(false);
+
+            try (PreparedStatement accounts = conn.prepareStatement(getInsertStatement("accounts", accountColumns.toString(), accountRow, uids.size()))) {
+                int accountIndex = 1;
+
+                for (String uid : uids) {
+                    accounts.setString(accountIndex++, uid);
+                    accounts.setString(accountIndex++, "unemployed");
+                    accounts.setBoolean(accountIndex++, totalEconomy.isJobNotificationEnabled());
+
+                    for (TECurrency currency : currencies) {
+                        accounts.setBigDecimal(accountIndex++, currency.getStartingBalance());
+                    }
+                }
+
+                accounts.executeUpdate();
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            logger.warn("An error occurred while creating " + uids.size() + " accounts!", e);
+
+            return false;
+        }
+
+        // The starting balances were just written, so the ledger doesn't need to read them back
+        if (accountLedger != null) {
+            for (String uid : uids) {
+                Map<String, BigDecimal> balances = new HashMap<>();
+
+                for (TECurrency currency : currencies) {
+                    balances.put(currency.getName().toLowerCase(), currency.getStartingBalance());
+                }
+
+                accountLedger.cacheAccount(uid, balances);
+            }
+        }
+
+        for (String uid : uids) {
+            for (TECurrency currency : currencies) {
+                balanceLeaderboard.addAccount(uid, currency.getName().toLowerCase(), currency.getStartingBalance());
+            }
+        }
+
+        return true;
+    }
+
+    private Set<String> getExistingAccounts(List<String> uids) throws SQLException {
+        Set<String> existing = new HashSet<>();
+
+        try (Connection conn = sqlManager.dataSource.getConnection();
+             PreparedStatement statement = conn.prepareStatement("SELECT uid FROM accounts WHERE uid IN " + getRowPlaceholders(uids.size()))) {
+            for (int i = 0; i < uids.size(); i++) {
+                statement.setString(i + 1, uids.get(i));
+            }
+
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    existing.add(resultSet.getString("uid"));
+                }
+            }
+        }
+
+        return existing;
+    }
+
+    private String getInsertStatement(String table, String columns, String row, int rowCount) {
+        StringBuilder statement = new StringBuilder("INSERT IGNORE INTO ").append(table).append(" (").append(columns).append(") VALUES ");
+
+        for (int i = 0; i < rowCount; i++) {
+            statement.append(i == 0 ? "" : ",").append(row);
+        }
+
+        return statement.toString();
+    }
+
+    private String getRowPlaceholders(int columnCount) {
+        StringBuilder row = new StringBuilder("(");
+
+        for (int i = 0; i < columnCount; i++) {
+            row.append(i == 0 ? "?" : ",?");
+        }
+
+        return row.append(")").toString();
+    }
+}
@@ -0,0 +1,501 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.erigitic.sql;
+
+import com.erigitic.config.TECurrency;
+import com.erigitic.main.TotalEconomy;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import org.slf4j.Logger;
+import org.spongepowered.api.Sponge;
+import org.spongepowered.api.scheduler.Task;
+import org.spongepowered.api.service.economy.Currency;
+import org.spongepowered.api.service.economy.transaction.ResultType;
+
+/**
+ * Write-behind cache for the balance columns of a single account table. Balances of resident accounts are read and
+ * written in memory, and dirty balances are written back to the database in batched updates on a background task.
+ * Accounts that haven't been used for a while are dropped from memory once their balances are written, so accounts
+ * touched through payments, shops or balance top don't stay resident for the whole uptime of the server.
+ *
+ * <p>Flushes write the balance held in memory over the one in the database, so the ledger must only be used when this
+ * server is the only one writing to the database.</p>
+ */
+public class BalanceLedger {
+
+    // Milliseconds an account may go unused before it is dropped from memory
+    private static final long IDLE_EVICT_AFTER = TimeUnit.MINUTES.toMillis(10);
+
+    private final TotalEconomy totalEconomy;
+    private final SqlManager sqlManager;
+    private final Logger logger;
+    private final String table;
+
+    private final Map<String, LedgerEntry> entries = new ConcurrentHashMap<>();
+
+    private Task flushTask;
+
+    /**
+     * Constructor for the BalanceLedger class.
+     *
+     * @param totalEconomy Main plugin class
+     * @param sqlManager The {@link SqlManager} used to load and flush balances
+     * @param logger Logger
+     * @param table The table holding the balances, either "accounts" or "virtual_accounts"
+     */
+    public BalanceLedger(TotalEconomy totalEconomy, SqlManager sqlManager, Logger logger, String table) {
+        this.totalEconomy = totalEconomy;
+        this.sqlManager = sqlManager;
+        this.logger = logger;
+        this.table = table;
+    }
+
+    /**
+     * Start the background task that flushes dirty balances to the database.
+     *
+     * @param interval Seconds between each flush
+     */
+    public void startFlushTask(int interval) {
+        flushTask = Sponge.getScheduler().createTaskBuilder()
+                .async()
+                .interval(interval, TimeUnit.SECONDS)
+                .execute(this::flush)
+                .name("Total Economy - Flush " + table)
+                .submit(totalEconomy);
+    }
+
+    /**
+     * Stop the background flush task. Does not flush remaining balances, call {@link #flush()} for that.
+     */
+    public void stopFlushTask() {
+        if (flushTask != null) {
+            flushTask.cancel();
+            flushTask = null;
+        }
+    }
+
+    /**
+     * Determines if a balance exists for the passed in account and currency.
+     *
+     * @param uid The uid of the account
+     * @param currencyName Lowercase name of the currency
+     * @return boolean If a balance exists
+     */
+    public boolean hasBalance(String uid, String currencyName) {
+        Optional<LedgerEntry> entryOpt = getEntry(uid);
+
+        if (entryOpt.isPresent()) {
+            LedgerEntry entry = entryOpt.get();
+
+            synchronized (entry) {
+                return entry.balances.containsKey(currencyName);
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Gets the balance of an account for the passed in currency.
+     *
+     * @param uid The uid of the account
+     * @param currencyName Lowercase name of the currency
+     * @return Optional The balance, empty if the account or balance does not exist
+     */
+    public Optional<BigDecimal> getBalance(String uid, String currencyName) {
+        Optional<LedgerEntry> entryOpt = getEntry(uid);
+
+        if (entryOpt.isPresent()) {
+            LedgerEntry entry = entryOpt.get();
+
+            synchronized (entry) {
+                return Optional.ofNullable(entry.balances.get(currencyName));
+            }
+        }
+
+        return Optional.empty();
+    }
+
+    /**
+     * Sets the balance of an account. The new balance is written to the database on the next flush.
+     *
+     * @param uid The uid of the account
+     * @param currencyName Lowercase name of the currency
+     * @param amount The new balance
+     * @return boolean If the balance was set, false if the account or balance does not exist
+     */
+    public boolean setBalance(String uid, String currencyName, BigDecimal amount) {
+        return withEntry(uid, false, entry -> {
+            if (!entry.balances.containsKey(currencyName)) {
+                return false;
+            }
+
+            entry.write(currencyName, amount);
+
+            return true;
+        });
+    }
+
+    /**
+     * Atomically add to or remove from the balance of an account. The balance is never allowed to go below zero.
+     *
+     * @param uid The uid of the account
+     * @param currencyName Lowercase name of the currency
+     * @param delta The amount to add, negative to remove
+     * @param cap The money cap, or null if there is none
+     * @return ResultType SUCCESS, ACCOUNT_NO_FUNDS if the balance is too low, or FAILED if the balance does not exist
+     */
+    public ResultType adjustBalance(String uid, String currencyName, BigDecimal delta, BigDecimal cap) {
+        return withEntry(uid, ResultType.FAILED, entry -> {
+            BigDecimal balance = entry.balances.get(currencyName);
+
+            if (balance == null) {
+                return ResultType.FAILED;
+            }
+
+            BigDecimal newBalance = balance.add(delta);
+
+            if (newBalance.compareTo(BigDecimal.ZERO) < 0) {
+                return ResultType.ACCOUNT_NO_FUNDS;
+            }
+
+            entry.write(currencyName, applyCap(newBalance, cap));
+
+            return ResultType.SUCCESS;
+        });
+    }
+
+    /**
+     * Atomically move money between two accounts. Both accounts are locked, in a deterministic order, for the duration
+     * of the transfer.
+     *
+     * @param fromLedger The ledger holding the account the money is taken from
+     * @param fromUid The uid of the account the money is taken from
+     * @param toLedger The ledger holding the account the money is given to
+     * @param toUid The uid of the account the money is given to
+     * @param currencyName Lowercase name of the currency
+     * @param amount The amount to transfer
+     * @param cap The money cap, or null if there is none
+     * @return ResultType SUCCESS, ACCOUNT_NO_FUNDS if the sender can't afford it, or FAILED if a balance does not exist
+     */
+    public static ResultType transfer(BalanceLedger fromLedger, String fromUid, BalanceLedger toLedger, String toUid, String currencyName, BigDecimal amount, BigDecimal cap) {
+        while (true) {
+            Optional<LedgerEntry> fromOpt = fromLedger.getEntry(fromUid);
+            Optional<LedgerEntry> toOpt = toLedger.getEntry(toUid);
+
+            if (!fromOpt.isPresent() || !toOpt.isPresent()) {
+                return ResultType.FAILED;
+            }
+
+            LedgerEntry from = fromOpt.get();
+            LedgerEntry to = toOpt.get();
+            boolean fromFirst = (fromLedger.table + ':' + fromUid).compareTo(toLedger.table + ':' + toUid) <= 0;
+
+            synchronized (fromFirst ? from : to) {
+                synchronized (fromFirst ? to : from) {
+                    // One of the entries was evicted after we got it, start over with fresh entries
+                    if (from.removed || to.removed) {
+                        continue;
+                    }
+
+                    BigDecimal fromBalance = from.balances.get(currencyName);
+                    BigDecimal toBalance = to.balances.get(currencyName);
+
+                    if (fromBalance == null || toBalance == null) {
+                        return ResultType.FAILED;
+                    }
+
+                    BigDecimal newFromBalance = fromBalance.subtract(amount);
+
+                    if (newFromBalance.compareTo(BigDecimal.ZERO) < 0) {
+                        return ResultType.ACCOUNT_NO_FUNDS;
+                    }
+
+                    from.write(currencyName, newFromBalance);
+                    to.write(currencyName, applyCap(to.balances.get(currencyName).add(amount), cap));
+
+                    return ResultType.SUCCESS;
+                }
+            }
+        }
+    }
+
+    private static BigDecimal applyCap(BigDecimal balance, BigDecimal cap) {
+        return cap != null ? balance.min(cap) : balance;
+    }
+
+    /**
+     * Run an action on the entry of an account while holding its lock. Handles the entry being evicted between looking
+     * it up and locking it.
+     *
+     * @param uid The uid of the account
+     * @param missing Value returned when the account does not exist
+     * @param action The action to run
+     * @param <T> The type of the result
+     * @return T The result of the action
+     */
+    private <T> T withEntry(String uid, T missing, Function<LedgerEntry, T> action) {
+        while (true) {
+            Optional<LedgerEntry> entryOpt = getEntry(uid);
+
+            if (!entryOpt.isPresent()) {
+                return missing;
+            }
+
+            LedgerEntry entry = entryOpt.get();
+
+            synchronized (entry) {
+                // The entry was evicted after we got it, grab the fresh one so the write isn't lost
+                if (!entry.removed) {
+                    return action.apply(entry);
+                }
+            }
+        }
+    }
+
+    /**
+     * Store the balances of a newly created account so the first lookup doesn't need to go to the database.
+     *
+     * @param uid The uid of the account
+     * @param balances Map of lowercase currency names to balances
+     */
+    public void cacheAccount(String uid, Map<String, BigDecimal> balances) {
+        LedgerEntry entry = new LedgerEntry();
+        entry.balances.putAll(balances);
+
+        entries.putIfAbsent(uid, entry);
+    }
+
+    /**
+     * Load the balances of an account into memory ahead of its first use. Must not be called from the server thread.
+     *
+     * @param uid The uid of the account
+     */
+    public void preload(String uid) {
+        getEntry(uid);
+    }
+
+    /**
+     * Mark an account for removal from memory. The account stays resident until its dirty balances have been flushed,
+     * and is kept if it is written to again before then.
+     *
+     * @param uid The uid of the account
+     */
+    public void evict(String uid) {
+        LedgerEntry entry = entries.get(uid);
+
+        if (entry != null) {
+            synchronized (entry) {
+                entry.evict = true;
+            }
+        }
+    }
+
+    /**
+     * Write all dirty balances to the database using one batched update per currency. Balances that fail to be written
+     * are marked dirty again and will be retried on the next flush. Afterwards, clean accounts that were evicted or
+     * have been idle for a while are dropped from memory.
+     */
+    public synchronized void flush() {
+        Map<String, List<Object[]>> updates = new HashMap<>();
+
+        for (Map.Entry<String, LedgerEntry> mapEntry : entries.entrySet()) {
+            LedgerEntry entry = mapEntry.getValue();
+
+            synchronized (entry) {
+                for (String currencyName : entry.dirty) {
+                    updates.computeIfAbsent(currencyName, k -> new ArrayList<>())
+                            .add(new Object[] {mapEntry.getKey(), entry.balances.get(currencyName)});
+                }
+
+                entry.dirty.clear();
+            }
+        }
+
+        if (!updates.isEmpty()) {
+            try (Connection conn = sqlManager.dataSource.getConnection()) {
+                conn.setAutoCommit(false);
+
+                try {
+                    for (Map.Entry<String, List<Object[]>> update : updates.entrySet()) {
+                        try (PreparedStatement statement = conn.prepareStatement("UPDATE " + table + " SET `" + update.getKey() + "_balance` = ? WHERE uid = ?")) {
+                            for (Object[] row : update.getValue()) {
+                                statement.setBigDecimal(1, ((BigDecimal) row[1]).setScale(2, BigDecimal.ROUND_DOWN));
+                                statement.setString(2, (String) row[0]);
+                                statement.addBatch();
+                            }
+
+                            statement.executeBatch();
+                        }
+                    }
+
+                    conn.commit();
+                } catch (SQLException e) {
+                    conn.rollback();
+
+                    throw e;
+                } finally {
+                    conn.setAutoCommit(true);
+                }
+            } catch (SQLException e) {
+                logger.warn("An error occurred while flushing balances to the " + table + " table! Retrying on the next flush.", e);
+
+                redirty(updates);
+
+                return;
+            }
+        }
+
+        long now = System.currentTimeMillis();
+
+        entries.entrySet().removeIf(mapEntry -> {
+            LedgerEntry entry = mapEntry.getValue();
+
+            synchronized (entry) {
+                entry.removed = entry.dirty.isEmpty() && (entry.evict || now - entry.lastAccess > IDLE_EVICT_AFTER);
+
+                return entry.removed;
+            }
+        });
+    }
+
+    /**
+     * Mark the balances of a failed flush as dirty again, unless they were changed in the meantime.
+     *
+     * @param updates The balances that failed to be written
+     */
+    private void redirty(Map<String, List<Object[]>> updates) {
+        for (Map.Entry<String, List<Object[]>> update : updates.entrySet()) {
+            for (Object[] row : update.getValue()) {
+                LedgerEntry entry = entries.get((String) row[0]);
+
+                if (entry != null) {
+                    synchronized (entry) {
+                        entry.dirty.add(update.getKey());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the entry of an account, loading it from the database if it isn't resident.
+     *
+     * @param uid The uid of the account
+     * @return Optional The entry, empty if the account doesn't exist
+     */
+    private Optional<LedgerEntry> getEntry(String uid) {
+        LedgerEntry entry = entries.get(uid);
+
+        if (entry != null) {
+            entry.lastAccess = System.currentTimeMillis();
+
+            return Optional.of(entry);
+        }
+
+        Optional<LedgerEntry> loadedOpt = loadEntry(uid);
+
+        if (loadedOpt.isPresent()) {
+            LedgerEntry existing = entries.putIfAbsent(uid, loadedOpt.get());
+
+            return Optional.of(existing != null ? existing : loadedOpt.get());
+        }
+
+        return Optional.empty();
+    }
+
+    /**
+     * Load every balance of an account in a single query.
+     *
+     * @param uid The uid of the account
+     * @return Optional The loaded entry, empty if the account doesn't exist
+     */
+    private Optional<LedgerEntry> loadEntry(String uid) {
+        Set<String> currencyNames = new HashSet<>();
+        List<String> columns = new ArrayList<>();
+
+        for (Currency currency : totalEconomy.getCurrencies()) {
+            String currencyName = ((TECurrency) currency).getName().toLowerCase();
+
+            currencyNames.add(currencyName);
+            columns.add("`" + currencyName + "_balance`");
+        }
+
+        try (Connection conn = sqlManager.dataSource.getConnection();
+             PreparedStatement statement = conn.prepareStatement("SELECT " + String.join(",", columns) + " FROM " + table + " WHERE uid = ?")) {
+            statement.setString(1, uid);
+
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (!resultSet.next()) {
+                    return Optional.empty();
+                }
+
+                LedgerEntry entry = new LedgerEntry();
+
+                for (String currencyName : currencyNames) {
+                    BigDecimal balance = resultSet.getBigDecimal(currencyName + "_balance");
+
+                    if (balance != null) {
+                        entry.balances.put(currencyName, balance);
+                    }
+                }
+
+                return Optional.of(entry);
+            }
+        } catch (SQLException e) {
+            logger.warn("An error occurred while loading balances from the " + table + " table!", e);
+        }
+
+        return Optional.empty();
+    }
+
+    private static class LedgerEntry {
+        private final Map<String, BigDecimal> balances = new HashMap<>();
+        private final Set<String> dirty = new HashSet<>();
+        private boolean evict = false;
+        private boolean removed = false;
+        private volatile long lastAccess = System.currentTimeMillis();
+
+        private void write(String currencyName, BigDecimal balance) {
+            balances.put(currencyName, balance.setScale(2, BigDecimal.ROUND_DOWN));
+            dirty.add(currencyName);
+            evict = false;
+        }
+    }
+}
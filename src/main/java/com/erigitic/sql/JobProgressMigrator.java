@@ -0,0 +1,129 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.erigitic.sql;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import org.slf4j.Logger;
+
+/**
+ * Moves job levels and experience from the old per-job column tables (levels and experience) into the job_progress
+ * table, which has one row per player and job. Only progress that differs from the defaults is copied, and the old
+ * tables are renamed afterwards so the migration runs once.
+ */
+public class JobProgressMigrator {
+
+    private final SqlManager sqlManager;
+    private final Logger logger;
+
+    /**
+     * Constructor for the JobProgressMigrator class.
+     *
+     * @param sqlManager The {@link SqlManager} of the database to migrate
+     * @param logger Logger
+     */
+    public JobProgressMigrator(SqlManager sqlManager, Logger logger) {
+        this.sqlManager = sqlManager;
+        this.logger = logger;
+    }
+
+    /**
+     * Migrate the old job tables if they still exist.
+     */
+    public void migrate() {
+        try (Connection conn = sqlManager.dataSource.getConnection();
+             Statement statement = conn.createStatement()) {
+            List<String> levelJobs = getJobColumns(statement, "levels");
+            List<String> expJobs = getJobColumns(statement, "experience");
+
+            if (levelJobs == null || expJobs == null) {
+                return;
+            }
+
+            logger.info("Migrating job levels and experience to the job_progress table");
+
+            conn.setAutoCommit(false);
+
+            try {
+                for (String job : levelJobs) {
+                    if (!expJobs.contains(job)) {
+                        continue;
+                    }
+
+                    // Ignored duplicates make a migration that was interrupted before the rename safe to run again
+                    statement.executeUpdate("INSERT IGNORE INTO job_progress (uid, job, level, exp) "
+                            + "SELECT l.uid, '" + job + "', MAX(l.`" + job + "`), MAX(e.`" + job + "`) "
+                            + "FROM levels l JOIN experience e ON e.uid = l.uid "
+                            + "GROUP BY l.uid HAVING MAX(l.`" + job + "`) <> 1 OR MAX(e.`" + job + "`) <> 0");
+                }
+
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+
+            statement.executeUpdate("ALTER TABLE levels RENAME TO levels_legacy");
+            statement.executeUpdate("ALTER TABLE experience RENAME TO experience_legacy");
+        } catch (SQLException e) {
+            logger.warn("An error occurred while migrating the job levels and experience!", e);
+        }
+    }
+
+    /**
+     * Get the job columns of an old job table.
+     *
+     * @param statement Statement to query with
+     * @param table Name of the table
+     * @return List The job columns, null if the table doesn't exist
+     */
+    private List<String> getJobColumns(Statement statement, String table) {
+        try (ResultSet resultSet = statement.executeQuery("SELECT * FROM " + table + " WHERE 1=0")) {
+            ResultSetMetaData metaData = resultSet.getMetaData();
+            List<String> jobs = new ArrayList<>();
+
+            for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                String column = metaData.getColumnLabel(i).toLowerCase();
+
+                // Column names end up in the statement, so anything that isn't a plain job name is left behind
+                if (!column.equals("uid") && column.matches("[a-z0-9_]+")) {
+                    jobs.add(column);
+                }
+            }
+
+            return jobs;
+        } catch (SQLException e) {
+            return null;
+        }
+    }
+}
@@ -27,23 +27,58 @@ package com.erigitic.sql;
 
 import com.erigitic.main.TotalEconomy;
 import com.google.common.util.concurrent.UncheckedExecutionException;
+import java.io.File;
+import java.math.BigDecimal;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import javax.sql.DataSource;
 import org.slf4j.Logger;
 import org.spongepowered.api.Sponge;
+import org.spongepowered.api.service.economy.transaction.ResultType;
 import org.spongepowered.api.service.sql.SqlService;
 
 public class SqlManager {
+
+    /**
+     * Connector properties that have the driver prepare each statement template once per connection on the server and
+     * reuse it, instead of parsing the statement again on every call. See {@link SqlQuery}.
+     */
+    private static final String STATEMENT_CACHE_PROPERTIES = "&useServerPrepStmts=true&cachePrepStmts=true&prepStmtCacheSize=250&prepStmtCacheSqlLimit=2048";
+
+    /**
+     * Connection properties of the embedded H2 database. MySQL mode keeps the statements written for MySQL working
+     * unchanged.
+     */
+    private static final String H2_PROPERTIES = ";MODE=MySQL";
+
+    // Error code MySQL reports when an index with the same name already exists
+    private static final int MYSQL_DUPLICATE_KEY_NAME = 1061;
+
     private Logger logger;
     public DataSource dataSource;
     private SqlService sql;
 
+    private boolean embedded;
+
     public SqlManager(TotalEconomy totalEconomy, Logger logger) {
         this.logger = logger;
 
+        embedded = totalEconomy.getDatabaseEngine().equals("h2");
+
         try {
-            dataSource = getDataSource("jdbc:" + totalEconomy.getDatabaseUrl() + "?user=" + totalEconomy.getDatabaseUser() + "&password=" + totalEconomy.getDatabasePassword());
+            if (embedded) {
+                File databaseFile = new File(totalEconomy.getConfigDir(), totalEconomy.getDatabaseFile());
+
+                dataSource = getDataSource("jdbc:h2:" + databaseFile.getAbsolutePath() + H2_PROPERTIES);
+            } else {
+                dataSource = getDataSource("jdbc:" + totalEconomy.getDatabaseUrl() + "?user=" + totalEconomy.getDatabaseUser() + "&password=" + totalEconomy.getDatabasePassword() + STATEMENT_CACHE_PROPERTIES);
+            }
         } catch (SQLException e) {
             logger.warn("Error getting data source!");
         } catch (UncheckedExecutionException e) {
@@ -74,14 +109,9 @@ public class SqlManager {
      * @return boolean Result of the query
      */
     public boolean createTable(String tableName, String cols) {
-        try {
-            Connection conn = dataSource.getConnection();
-
-            boolean result =  conn.prepareStatement("CREATE TABLE IF NOT EXISTS " + tableName + " (" + cols + ")").execute();
-
-            conn.close();
-
-            return result;
+        try (Connection conn = dataSource.getConnection();
+             Statement statement = conn.createStatement()) {
+            return statement.execute("CREATE TABLE IF NOT EXISTS " + tableName + " (" + cols + ")");
         } catch (SQLException e) {
             logger.warn("[TE] An error occurred while creating a table!");
             e.printStackTrace();
@@ -89,4 +119,196 @@ public class SqlManager {
 
         return false;
     }
+
+    /**
+     * Create an index on a table if it doesn't exist yet.
+     *
+     * @param tableName Name of the table to index
+     * @param indexName Name of the index, unique within the database
+     * @param cols The indexed columns
+     */
+    public void createIndex(String tableName, String indexName, String cols) {
+        // MySQL has no IF NOT EXISTS for indexes, an existing index is reported as a duplicate key name instead
+        String createIndex = embedded ? "CREATE INDEX IF NOT EXISTS " : "CREATE INDEX ";
+
+        try (Connection conn = dataSource.getConnection();
+             Statement statement = conn.createStatement()) {
+            statement.execute(createIndex + indexName + " ON " + tableName + " (" + cols + ")");
+        } catch (SQLException e) {
+            if (embedded || e.getErrorCode() != MYSQL_DUPLICATE_KEY_NAME) {
+                logger.warn("[TE] An error occurred while creating the " + indexName + " index!");
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Whether the database is the embedded H2 database.
+     *
+     * @return boolean If the embedded database is in use
+     */
+    public boolean isEmbedded() {
+        return embedded;
+    }
+
+    /**
+     * Atomically add to or remove from a balance in a single statement. The balance is never allowed to go below zero
+     * and is capped at the money cap by the database.
+     *
+     * @param table The table holding the account
+     * @param uid The uid of the account
+     * @param currencyName Lowercase name of the currency
+     * @param delta The amount to add, negative to remove
+     * @param cap The money cap, or null if there is none
+     * @return ResultType SUCCESS, ACCOUNT_NO_FUNDS if the balance is too low, or FAILED
+     */
+    public ResultType adjustBalance(String table, String uid, String currencyName, BigDecimal delta, BigDecimal cap) {
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement statement = conn.prepareStatement(getAdjustBalanceStatement(table, currencyName, cap))) {
+            bindAdjustBalance(statement, uid, delta, cap);
+
+            if (statement.executeUpdate() > 0) {
+                return ResultType.SUCCESS;
+            }
+
+            // Nothing matched, so either the balance is too low or the account doesn't exist
+            return delta.compareTo(BigDecimal.ZERO) < 0 ? ResultType.ACCOUNT_NO_FUNDS : ResultType.FAILED;
+        } catch (SQLException e) {
+            logger.warn("An error occurred while updating a balance in the " + table + " table!", e);
+        }
+
+        return ResultType.FAILED;
+    }
+
+    /**
+     * Add to many balances of a table in a single transaction, using one batched statement. Each balance is capped at
+     * the money cap by the database.
+     *
+     * @param table The table holding the accounts
+     * @param deltas The amount to add to each account, keyed by uid
+     * @param currencyName Lowercase name of the currency
+     * @param cap The money cap, or null if there is none
+     * @return Map The result of each account, keyed by uid. All FAILED if the transaction failed.
+     */
+    public Map<String, ResultType> adjustBalances(String table, Map<String, BigDecimal> deltas, String currencyName, BigDecimal cap) {
+        Map<String, ResultType> results = new HashMap<>();
+        List<String> uids = new ArrayList<>(deltas.keySet());
+
+        try (Connection conn = dataSource.getConnection()) {
+            conn.setAutoCommit(false);
+
+            try (PreparedStatement statement = conn.prepareStatement(getAdjustBalanceStatement(table, currencyName, cap))) {
+                for (String uid : uids) {
+                    bindAdjustBalance(statement, uid, deltas.get(uid), cap);
+                    statement.addBatch();
+                }
+
+                int[] updateCounts = statement.executeBatch();
+                conn.commit();
+
+                for (int i = 0; i < uids.size(); i++) {
+                    String uid = uids.get(i);
+                    boolean updated = updateCounts[i] > 0 || updateCounts[i] == Statement.SUCCESS_NO_INFO;
+
+                    if (updated) {
+                        results.put(uid, ResultType.SUCCESS);
+                    } else {
+                        results.put(uid, deltas.get(uid).compareTo(BigDecimal.ZERO) < 0 ? ResultType.ACCOUNT_NO_FUNDS : ResultType.FAILED);
+                    }
+                }
+
+                return results;
+            } catch (SQLException e) {
+                conn.rollback();
+
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            logger.warn("An error occurred while updating " + uids.size() + " balances in the " + table + " table!", e);
+        }
+
+        for (String uid : uids) {
+            results.put(uid, ResultType.FAILED);
+        }
+
+        return results;
+    }
+
+    /**
+     * Move money between two accounts. Both legs run in one transaction, so either both balances change or neither
+     * does. The legs are always run in the same order for a pair of accounts to avoid deadlocks between opposite
+     * transfers.
+     *
+     * @param fromTable The table holding the account the money is taken from
+     * @param fromUid The uid of the account the money is taken from
+     * @param toTable The table holding the account the money is given to
+     * @param toUid The uid of the account the money is given to
+     * @param currencyName Lowercase name of the currency
+     * @param amount The amount to transfer
+     * @param cap The money cap, or null if there is none
+     * @return ResultType SUCCESS, ACCOUNT_NO_FUNDS if the sender can't afford it, or FAILED
+     */
+    public ResultType transferBalance(String fromTable, String fromUid, String toTable, String toUid, String currencyName, BigDecimal amount, BigDecimal cap) {
+        boolean withdrawFirst = (fromTable + ':' + fromUid).compareTo(toTable + ':' + toUid) <= 0;
+
+        try (Connection conn = dataSource.getConnection()) {
+            conn.setAutoCommit(false);
+
+            try (PreparedStatement withdraw = conn.prepareStatement(getAdjustBalanceStatement(fromTable, currencyName, null));
+                 PreparedStatement deposit = conn.prepareStatement(getAdjustBalanceStatement(toTable, currencyName, cap))) {
+                bindAdjustBalance(withdraw, fromUid, amount.negate(), null);
+                bindAdjustBalance(deposit, toUid, amount, cap);
+
+                int deposited = withdrawFirst ? 1 : deposit.executeUpdate();
+                int withdrawn = deposited > 0 ? withdraw.executeUpdate() : 0;
+
+                if (withdrawFirst && withdrawn > 0) {
+                    deposited = deposit.executeUpdate();
+                }
+
+                if (withdrawn <= 0 || deposited <= 0) {
+                    conn.rollback();
+
+                    // The withdrawal is the only leg that can fail because of the balance
+                    return deposited > 0 ? ResultType.ACCOUNT_NO_FUNDS : ResultType.FAILED;
+                }
+
+                conn.commit();
+
+                return ResultType.SUCCESS;
+            } catch (SQLException e) {
+                conn.rollback();
+
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            logger.warn("An error occurred while transferring money between " + fromUid + " and " + toUid + "!", e);
+        }
+
+        return ResultType.FAILED;
+    }
+
+    private String getAdjustBalanceStatement(String table, String currencyName, BigDecimal cap) {
+        String column = "`" + currencyName + "_balance`";
+        String newBalance = cap != null ? "LEAST(" + column + " + ?, ?)" : column + " + ?";
+
+        return "UPDATE " + table + " SET " + column + " = " + newBalance + " WHERE uid = ? AND " + column + " + ? >= 0";
+    }
+
+    private void bindAdjustBalance(PreparedStatement statement, String uid, BigDecimal delta, BigDecimal cap) throws SQLException {
+        int index = 1;
+
+        statement.setBigDecimal(index++, delta);
+
+        if (cap != null) {
+            statement.setBigDecimal(index++, cap);
+        }
+
+        statement.setString(index++, uid);
+        statement.setBigDecimal(index, delta);
+    }
 }
@@ -27,19 +27,37 @@ package com.erigitic.sql;
 
 import java.math.BigDecimal;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
-import java.util.Optional;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import javax.sql.DataSource;
 
+/**
+ * A parameter bound SQL query. Values passed to the builder are never spliced into the statement, they are bound to
+ * placeholders instead, so every operation (select balance by uid, update job exp by uid, ...) always produces the same
+ * statement template. The driver caches the prepared statement of each template per connection (see
+ * {@link SqlManager}), which saves parsing the statement again on every call.
+ *
+ * <p>Results are read into memory as soon as the query runs so the connection, statement, and result set are closed
+ * before the query is returned.</p>
+ */
 public class SqlQuery {
+
     private String statement;
+    private List<Object> parameters;
     private DataSource dataSource;
-    private ResultSet resultSet;
+    private List<Object[]> rows = Collections.emptyList();
+    private String[] columns = new String[0];
+    private int cursor = 0;
     private int rowsAffected = 0;
 
     private SqlQuery(Builder builder) {
-        statement = builder.statement;
+        statement = builder.statement.toString();
+        parameters = builder.parameters;
         dataSource = builder.dataSource;
 
         if (builder.update) {
@@ -53,17 +71,35 @@ public class SqlQuery {
         return new Builder(dataSource);
     }
 
+    /**
+     * Executes statements that return rows (select). The rows are read into memory.
+     */
     public void executeQuery() {
-        try {
-            Connection conn = dataSource.getConnection();
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement preparedStatement = prepare(conn);
+             ResultSet resultSet = preparedStatement.executeQuery()) {
+            ResultSetMetaData metaData = resultSet.getMetaData();
+            int columnCount = metaData.getColumnCount();
+
+            columns = new String[columnCount];
+
+            for (int i = 0; i < columnCount; i++) {
+                columns[i] = metaData.getColumnLabel(i + 1);
+            }
+
+            rows = new ArrayList<>();
 
-            Optional<ResultSet> resultSetOpt = Optional.of(conn.prepareStatement(statement).executeQuery());
+            while (resultSet.next()) {
+                Object[] row = new Object[columnCount];
 
-            if (resultSetOpt.isPresent()) {
-                resultSet = resultSetOpt.get();
+                for (int i = 0; i < columnCount; i++) {
+                    row[i] = resultSet.getObject(i + 1);
+                }
+
+                rows.add(row);
             }
 
-            conn.close();
+            cursor = 0;
         } catch (SQLException e) {
             e.printStackTrace();
         }
@@ -75,12 +111,9 @@ public class SqlQuery {
      * @return int number of rows affected by the query
      */
     public int executeUpdate() {
-        try {
-            Connection conn = dataSource.getConnection();
-
-            rowsAffected = conn.prepareStatement(statement).executeUpdate();
-
-            conn.close();
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement preparedStatement = prepare(conn)) {
+            rowsAffected = preparedStatement.executeUpdate();
 
             return rowsAffected;
         } catch (SQLException e) {
@@ -90,21 +123,30 @@ public class SqlQuery {
         return 0;
     }
 
+    /**
+     * Prepare the statement and bind the parameters to their placeholders.
+     *
+     * @param conn The connection to prepare the statement on
+     * @return PreparedStatement The prepared statement
+     * @throws SQLException Thrown when the statement could not be prepared
+     */
+    private PreparedStatement prepare(Connection conn) throws SQLException {
+        PreparedStatement preparedStatement = conn.prepareStatement(statement);
+
+        for (int i = 0; i < parameters.size(); i++) {
+            preparedStatement.setObject(i + 1, parameters.get(i));
+        }
+
+        return preparedStatement;
+    }
+
     /**
      * Determines if a record was returned by an SQL query.
      *
      * @return boolean Does the record exist
      */
     public boolean recordExists() {
-        try {
-            if (resultSet.isBeforeFirst()) {
-                return true;
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
-
-        return false;
+        return !rows.isEmpty();
     }
 
     /**
@@ -113,12 +155,8 @@ public class SqlQuery {
      * @return boolean value of column
      */
     public boolean getBoolean() {
-        try {
-            if (resultSet.next()) {
-                return resultSet.getBoolean(1);
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
+        if (cursor < rows.size()) {
+            return toBoolean(rows.get(cursor++)[0], false);
         }
 
         throw new NullPointerException("[SQL] Could not retrieve boolean from database!");
@@ -131,12 +169,8 @@ public class SqlQuery {
      * @return boolean value of column
      */
     public boolean getBoolean(boolean def) {
-        try {
-            if (resultSet.next()) {
-                return resultSet.getBoolean(1);
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
+        if (cursor < rows.size()) {
+            return toBoolean(rows.get(cursor++)[0], def);
         }
 
         return def;
@@ -148,12 +182,8 @@ public class SqlQuery {
      * @return int value of column
      */
     public int getInt() {
-        try {
-            if (resultSet.next()) {
-                return resultSet.getInt(1);
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
+        if (cursor < rows.size()) {
+            return toInt(rows.get(cursor++)[0], 0);
         }
 
         throw new NullPointerException("[SQL] Could not retrieve integer from database!");
@@ -166,12 +196,8 @@ public class SqlQuery {
      * @return int value of column
      */
     public int getInt(int def) {
-        try {
-            if (resultSet.next()) {
-                return resultSet.getInt(1);
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
+        if (cursor < rows.size()) {
+            return toInt(rows.get(cursor++)[0], def);
         }
 
         return def;
@@ -183,12 +209,12 @@ public class SqlQuery {
      * @return BigDecimal value of column
      */
     public BigDecimal getBigDecimal() {
-        try {
-            if (resultSet.next()) {
-                return resultSet.getBigDecimal(1).max(new BigDecimal(Double.MAX_VALUE));
+        if (cursor < rows.size()) {
+            BigDecimal value = toBigDecimal(rows.get(cursor++)[0]);
+
+            if (value != null) {
+                return value.max(new BigDecimal(Double.MAX_VALUE));
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
         }
 
         throw new NullPointerException("[SQL] Could not retrieve BigDecimal from database!");
@@ -201,12 +227,8 @@ public class SqlQuery {
      * @return BigDecimal value of column
      */
     public BigDecimal getBigDecimal(BigDecimal def) {
-        try {
-            if (resultSet.next()) {
-                return resultSet.getBigDecimal(1);
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
+        if (cursor < rows.size()) {
+            return toBigDecimal(rows.get(cursor++)[0]);
         }
 
         return def;
@@ -218,12 +240,10 @@ public class SqlQuery {
      * @return string value of column
      */
     public String getString() {
-        try {
-            if (resultSet.next()) {
-                return resultSet.getString(1);
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
+        if (cursor < rows.size()) {
+            Object value = rows.get(cursor++)[0];
+
+            return value != null ? value.toString() : null;
         }
 
         throw new NullPointerException("[SQL] Could not retrieve string from database!");
@@ -236,17 +256,76 @@ public class SqlQuery {
      * @return string value of column
      */
     public String getString(String def) {
-        try {
-            if (resultSet.next()) {
-                return resultSet.getString(1);
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
+        if (cursor < rows.size()) {
+            Object value = rows.get(cursor++)[0];
+
+            return value != null ? value.toString() : null;
         }
 
         return def;
     }
 
+    /**
+     * Get the number of rows returned by a query.
+     *
+     * @return int Number of rows returned
+     */
+    public int getRowCount() {
+        return rows.size();
+    }
+
+    /**
+     * Gets a string from a column of a returned row.
+     *
+     * @param row Index of the row
+     * @param column Label of the column
+     * @param def Default value returned when the value is null or the column doesn't exist
+     * @return String Value of the column
+     */
+    public String getString(int row, String column, String def) {
+        Object value = getValue(row, column);
+
+        return value != null ? value.toString() : def;
+    }
+
+    /**
+     * Gets an int from a column of a returned row.
+     *
+     * @param row Index of the row
+     * @param column Label of the column
+     * @param def Default value returned when the value is null or the column doesn't exist
+     * @return int Value of the column
+     */
+    public int getInt(int row, String column, int def) {
+        return toInt(getValue(row, column), def);
+    }
+
+    /**
+     * Gets a boolean from a column of a returned row.
+     *
+     * @param row Index of the row
+     * @param column Label of the column
+     * @param def Default value returned when the value is null or the column doesn't exist
+     * @return boolean Value of the column
+     */
+    public boolean getBoolean(int row, String column, boolean def) {
+        return toBoolean(getValue(row, column), def);
+    }
+
+    /**
+     * Gets a BigDecimal from a column of a returned row.
+     *
+     * @param row Index of the row
+     * @param column Label of the column
+     * @param def Default value returned when the value is null or the column doesn't exist
+     * @return BigDecimal Value of the column
+     */
+    public BigDecimal getBigDecimal(int row, String column, BigDecimal def) {
+        BigDecimal value = toBigDecimal(getValue(row, column));
+
+        return value != null ? value : def;
+    }
+
     /**
      * Get the number of rows that were affected by a query.
      *
@@ -256,9 +335,52 @@ public class SqlQuery {
         return rowsAffected;
     }
 
+    private Object getValue(int row, String column) {
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i].equalsIgnoreCase(column)) {
+                return rows.get(row)[i];
+            }
+        }
+
+        return null;
+    }
+
+    private static boolean toBoolean(Object value, boolean def) {
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        } else if (value instanceof Number) {
+            return ((Number) value).intValue() != 0;
+        } else if (value != null) {
+            return value.toString().equals("1") || Boolean.parseBoolean(value.toString());
+        }
+
+        return def;
+    }
+
+    private static int toInt(Object value, int def) {
+        if (value instanceof Number) {
+            return ((Number) value).intValue();
+        } else if (value != null) {
+            return Integer.parseInt(value.toString());
+        }
+
+        return def;
+    }
+
+    private static BigDecimal toBigDecimal(Object value) {
+        if (value instanceof BigDecimal) {
+            return (BigDecimal) value;
+        } else if (value != null) {
+            return new BigDecimal(value.toString());
+        }
+
+        return null;
+    }
+
     public static class Builder {
         private DataSource dataSource;
-        private String statement = "";
+        private StringBuilder statement = new StringBuilder();
+        private List<Object> parameters = new ArrayList<>();
 
         private boolean update = false;
 
@@ -266,67 +388,109 @@ public class SqlQuery {
             this.dataSource = dataSource;
         }
 
-        public Builder select(String column) {
-            statement += "SELECT " + column;
+        public Builder select(String... columns) {
+            statement.append("SELECT ").append(String.join(",", columns));
 
             return this;
         }
 
         public Builder from(String table) {
-            statement += " FROM " + table;
+            statement.append(" FROM ").append(table);
 
             return this;
         }
 
         public Builder where(String comp) {
-            statement += " WHERE " + comp;
+            statement.append(" WHERE ").append(comp);
 
             return this;
         }
 
+        /**
+         * Compare or assign the previous column to a value. The value is bound to a placeholder.
+         *
+         * @param val The value
+         * @return Builder This builder
+         */
         public Builder equals(String val) {
-            statement += "='" + val + "'";
+            return bind(val);
+        }
+
+        /**
+         * Compare or assign the previous column to a number. The value is bound to a placeholder.
+         *
+         * @param val The value
+         * @return Builder This builder
+         */
+        public Builder equals(Number val) {
+            return bind(val);
+        }
+
+        /**
+         * Compare or assign the previous column to a boolean. The value is bound to a placeholder.
+         *
+         * @param val The value
+         * @return Builder This builder
+         */
+        public Builder equals(boolean val) {
+            return bind(val);
+        }
+
+        private Builder bind(Object val) {
+            statement.append("=?");
+            parameters.add(val);
 
             return this;
         }
 
         public Builder and(String comp) {
-            statement += " AND " + comp;
+            statement.append(" AND ").append(comp);
 
             return this;
         }
 
         public Builder insert(String table) {
-            statement += "INSERT IGNORE INTO " + table;
+            update = true;
+            statement.append("INSERT IGNORE INTO ").append(table);
 
             return this;
         }
 
         public Builder columns(String... columns) {
             // Join all the values with a comma deliminator and surround with ()
-            String columnsJoined = " (" + String.join(",", columns) + ")";
-            statement += columnsJoined;
+            statement.append(" (").append(String.join(",", columns)).append(")");
 
             return this;
         }
 
-        public Builder values(String... values) {
-            String valuesJoined = "('" + String.join("','", values) + "')";
+        /**
+         * Add the values of an insert. Each value is bound to a placeholder.
+         *
+         * @param values The values to insert
+         * @return Builder This builder
+         */
+        public Builder values(Object... values) {
+            statement.append(" VALUES (");
+
+            for (int i = 0; i < values.length; i++) {
+                statement.append(i == 0 ? "?" : ",?");
+                parameters.add(values[i]);
+            }
 
-            statement += " VALUES " + valuesJoined;
+            statement.append(")");
 
             return this;
         }
 
         public Builder update(String table) {
             update = true;
-            statement += "UPDATE " + table;
+            statement.append("UPDATE ").append(table);
 
             return this;
         }
 
         public Builder set(String column) {
-            statement += " SET " + column;
+            statement.append(" SET ").append(column);
 
             return this;
         }
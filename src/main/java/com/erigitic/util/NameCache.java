@@ -0,0 +1,234 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.erigitic.util;
+
+import com.erigitic.main.TotalEconomy;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.spongepowered.api.Sponge;
+import org.spongepowered.api.entity.living.player.User;
+
+/**
+ * Remembers the names of players by their {@link UUID} so economy displays don't have to look offline players up in
+ * the {@link org.spongepowered.api.service.user.UserStorageService} every time. Names are learned when players join
+ * and from lookups, kept in a file between restarts, and looked up again in the background once they get old.
+ */
+public class NameCache {
+
+    private static final int MAX_NAMES = 20000;
+    private static final long REFRESH_AFTER = TimeUnit.DAYS.toMillis(1);
+
+    private final TotalEconomy totalEconomy;
+    private final Logger logger;
+    private final Path namesFile;
+
+    private final Cache<UUID, Name> names = CacheBuilder.newBuilder()
+            .maximumSize(MAX_NAMES)
+            .build();
+    private final Set<UUID> pendingLookups = ConcurrentHashMap.newKeySet();
+    private volatile boolean dirty = false;
+
+    /**
+     * Constructor for the NameCache class.
+     *
+     * @param totalEconomy Main plugin class
+     * @param logger Logger
+     * @param namesFile File the names are kept in between restarts
+     */
+    public NameCache(TotalEconomy totalEconomy, Logger logger, Path namesFile) {
+        this.totalEconomy = totalEconomy;
+        this.logger = logger;
+        this.namesFile = namesFile;
+
+        load();
+    }
+
+    /**
+     * Start the timer that writes new names to the names file.
+     *
+     * @param interval Seconds between writes
+     */
+    public void startSaveTask(int interval) {
+        Sponge.getScheduler().createTaskBuilder()
+                .interval(interval, TimeUnit.SECONDS)
+                .async()
+                .execute(this::save)
+                .name("Total Economy - Save names")
+                .submit(totalEconomy);
+    }
+
+    /**
+     * Remember the current name of a player.
+     *
+     * @param uuid {@link UUID} of the player
+     * @param name The name of the player
+     */
+    public void put(UUID uuid, String name) {
+        Name cached = names.getIfPresent(uuid);
+
+        if (cached == null || !cached.name.equals(name) || cached.isOld()) {
+            names.put(uuid, new Name(name, System.currentTimeMillis()));
+            dirty = true;
+        }
+    }
+
+    /**
+     * Get the name of a player without blocking. Unknown names are looked up in the background, so a later call can
+     * find them.
+     *
+     * @param uuid {@link UUID} of the player
+     * @return Optional The name, empty if it isn't known yet
+     */
+    public Optional<String> getCachedName(UUID uuid) {
+        Name cached = names.getIfPresent(uuid);
+
+        if (cached == null || cached.isOld()) {
+            refreshAsync(uuid);
+        }
+
+        return cached != null ? Optional.of(cached.name) : Optional.empty();
+    }
+
+    /**
+     * Get the name of a player, looking it up in the user storage if it isn't known. Must not be called from the main
+     * thread when the name may be unknown.
+     *
+     * @param uuid {@link UUID} of the player
+     * @return Optional The name, empty if the player is unknown to the server
+     */
+    public Optional<String> getName(UUID uuid) {
+        Name cached = names.getIfPresent(uuid);
+
+        if (cached != null) {
+            if (cached.isOld()) {
+                refreshAsync(uuid);
+            }
+
+            return Optional.of(cached.name);
+        }
+
+        return lookup(uuid);
+    }
+
+    private void refreshAsync(UUID uuid) {
+        if (pendingLookups.add(uuid)) {
+            totalEconomy.getAccountManager().supplyAsync(() -> lookup(uuid))
+                    .whenComplete((name, throwable) -> pendingLookups.remove(uuid));
+        }
+    }
+
+    private Optional<String> lookup(UUID uuid) {
+        if (totalEconomy.getUserStorageService() == null) {
+            return Optional.empty();
+        }
+
+        Optional<String> name = totalEconomy.getUserStorageService().get(uuid).map(User::getName);
+
+        name.ifPresent(n -> put(uuid, n));
+
+        return name;
+    }
+
+    private void load() {
+        if (!Files.exists(namesFile)) {
+            return;
+        }
+
+        try (BufferedReader reader = Files.newBufferedReader(namesFile, StandardCharsets.UTF_8)) {
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\t");
+
+                if (parts.length == 3) {
+                    try {
+                        names.put(UUID.fromString(parts[0]), new Name(parts[1], Long.parseLong(parts[2])));
+                    } catch (IllegalArgumentException e) {
+                        logger.warn("Skipping malformed line in the names file: " + line);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("An error occurred while loading the names file!", e);
+        }
+    }
+
+    /**
+     * Write the names to the names file if any changed since the last write.
+     */
+    public synchronized void save() {
+        if (!dirty) {
+            return;
+        }
+
+        dirty = false;
+
+        try {
+            FileUtils.replaceFile(namesFile, out -> {
+                Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+
+                for (Map.Entry<UUID, Name> entry : new ArrayList<>(names.asMap().entrySet())) {
+                    writer.write(entry.getKey() + "\t" + entry.getValue().name + "\t" + entry.getValue().resolvedAt + System.lineSeparator());
+                }
+
+                writer.flush();
+            });
+        } catch (IOException e) {
+            dirty = true;
+            logger.warn("An error occurred while saving the names file!", e);
+        }
+    }
+
+    private static class Name {
+
+        private final String name;
+        private final long resolvedAt;
+
+        private Name(String name, long resolvedAt) {
+            this.name = name;
+            this.resolvedAt = resolvedAt;
+        }
+
+        private boolean isOld() {
+            return System.currentTimeMillis() - resolvedAt > REFRESH_AFTER;
+        }
+    }
+}
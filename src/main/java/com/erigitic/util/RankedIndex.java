@@ -0,0 +1,350 @@
+/*
+ * This file is part of Total Economy, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) Eric Grandt <https://www.ericgrandt.com>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.erigitic.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Keeps keys ranked by a score, highest first, with ties ordered by key. Backed by a treap that tracks the size of
+ * every subtree, so updates, rank lookups and finding the start of a page all take O(log n). A page of k entries is
+ * read in O(log n + k).
+ *
+ * @param <K> Type of the ranked keys
+ * @param <S> Type of the scores
+ */
+public class RankedIndex<K extends Comparable<K>, S extends Comparable<S>> {
+
+    private final Map<K, Node<K, S>> nodes = new HashMap<>();
+    private Node<K, S> root;
+    private long version;
+
+    /**
+     * Set the score of a key, adding the key if it isn't ranked yet.
+     *
+     * @param key The key
+     * @param score The new score
+     */
+    public synchronized void put(K key, S score) {
+        Node<K, S> node = nodes.get(key);
+
+        if (node != null) {
+            if (node.score.compareTo(score) == 0) {
+                return;
+            }
+
+            root = delete(root, node.key, node.score);
+        }
+
+        node = new Node<>(key, score);
+        nodes.put(key, node);
+        root = insert(root, node);
+        version++;
+    }
+
+    /**
+     * Add a key with a score, unless the key is already ranked.
+     *
+     * @param key The key
+     * @param score The score
+     */
+    public synchronized void putIfAbsent(K key, S score) {
+        if (!nodes.containsKey(key)) {
+            put(key, score);
+        }
+    }
+
+    /**
+     * Remove a key from the ranking.
+     *
+     * @param key The key
+     */
+    public synchronized void remove(K key) {
+        Node<K, S> node = nodes.remove(key);
+
+        if (node != null) {
+            root = delete(root, node.key, node.score);
+            version++;
+        }
+    }
+
+    /**
+     * Remove every key from the ranking.
+     */
+    public synchronized void clear() {
+        nodes.clear();
+        root = null;
+        version++;
+    }
+
+    /**
+     * Get the version of the ranking, which goes up by one with every change to it.
+     *
+     * @return long The version
+     */
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * Get the score of a key.
+     *
+     * @param key The key
+     * @return Optional The score, empty if the key isn't ranked
+     */
+    public synchronized Optional<S> getScore(K key) {
+        Node<K, S> node = nodes.get(key);
+
+        return node != null ? Optional.of(node.score) : Optional.empty();
+    }
+
+    /**
+     * Get the rank of a key, starting at 1 for the highest score.
+     *
+     * @param key The key
+     * @return int The rank, 0 if the key isn't ranked
+     */
+    public synchronized int getRank(K key) {
+        Node<K, S> target = nodes.get(key);
+
+        if (target == null) {
+            return 0;
+        }
+
+        Node<K, S> node = root;
+        int rank = 1;
+
+        while (node != null) {
+            int compare = compare(target.key, target.score, node);
+
+            if (compare < 0) {
+                node = node.left;
+            } else {
+                rank += size(node.left);
+
+                if (compare == 0) {
+                    return rank;
+                }
+
+                rank++;
+                node = node.right;
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * Get the number of ranked keys.
+     *
+     * @return int The number of ranked keys
+     */
+    public synchronized int size() {
+        return size(root);
+    }
+
+    /**
+     * Get a page of the ranking.
+     *
+     * @param offset Number of entries to skip, from the highest score
+     * @param limit Largest number of entries to return
+     * @return List The entries, highest score first
+     */
+    public synchronized List<Entry<K, S>> getRange(int offset, int limit) {
+        List<Entry<K, S>> entries = new ArrayList<>(Math.max(0, Math.min(limit, size(root) - offset)));
+
+        collect(root, Math.max(0, offset), limit, entries);
+
+        return entries;
+    }
+
+    private void collect(Node<K, S> node, int offset, int limit, List<Entry<K, S>> entries) {
+        if (node == null || entries.size() >= limit) {
+            return;
+        }
+
+        int leftSize = size(node.left);
+
+        if (offset < leftSize) {
+            collect(node.left, offset, limit, entries);
+        }
+
+        if (offset <= leftSize && entries.size() < limit) {
+            entries.add(new Entry<>(node.key, node.score));
+        }
+
+        collect(node.right, Math.max(0, offset - leftSize - 1), limit, entries);
+    }
+
+    private Node<K, S> insert(Node<K, S> node, Node<K, S> inserted) {
+        if (node == null) {
+            return inserted;
+        }
+
+        if (compare(inserted.key, inserted.score, node) < 0) {
+            node.left = insert(node.left, inserted);
+
+            if (node.left.priority > node.priority) {
+                node = rotateRight(node);
+            }
+        } else {
+            node.right = insert(node.right, inserted);
+
+            if (node.right.priority > node.priority) {
+                node = rotateLeft(node);
+            }
+        }
+
+        update(node);
+
+        return node;
+    }
+
+    private Node<K, S> delete(Node<K, S> node, K key, S score) {
+        if (node == null) {
+            return null;
+        }
+
+        int compare = compare(key, score, node);
+
+        if (compare < 0) {
+            node.left = delete(node.left, key, score);
+        } else if (compare > 0) {
+            node.right = delete(node.right, key, score);
+        } else {
+            return merge(node.left, node.right);
+        }
+
+        update(node);
+
+        return node;
+    }
+
+    private Node<K, S> merge(Node<K, S> left, Node<K, S> right) {
+        if (left == null) {
+            return right;
+        }
+
+        if (right == null) {
+            return left;
+        }
+
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            update(left);
+
+            return left;
+        }
+
+        right.left = merge(left, right.left);
+        update(right);
+
+        return right;
+    }
+
+    private Node<K, S> rotateRight(Node<K, S> node) {
+        Node<K, S> left = node.left;
+
+        node.left = left.right;
+        left.right = node;
+        update(node);
+        update(left);
+
+        return left;
+    }
+
+    private Node<K, S> rotateLeft(Node<K, S> node) {
+        Node<K, S> right = node.right;
+
+        node.right = right.left;
+        right.left = node;
+        update(node);
+        update(right);
+
+        return right;
+    }
+
+    /**
+     * Order of an entry relative to a node, higher scores first and ties broken by key.
+     */
+    private int compare(K key, S score, Node<K, S> node) {
+        int compare = node.score.compareTo(score);
+
+        return compare != 0 ? compare : key.compareTo(node.key);
+    }
+
+    private void update(Node<K, S> node) {
+        node.size = size(node.left) + size(node.right) + 1;
+    }
+
+    private int size(Node<K, S> node) {
+        return node != null ? node.size : 0;
+    }
+
+    private static class Node<K, S> {
+
+        private final K key;
+        private final S score;
+        private final int priority = ThreadLocalRandom.current().nextInt();
+        private Node<K, S> left;
+        private Node<K, S> right;
+        private int size = 1;
+
+        private Node(K key, S score) {
+            this.key = key;
+            this.score = score;
+        }
+    }
+
+    /**
+     * A ranked key and its score.
+     *
+     * @param <K> Type of the key
+     * @param <S> Type of the score
+     */
+    public static class Entry<K, S> {
+
+        private final K key;
+        private final S score;
+
+        private Entry(K key, S score) {
+            this.key = key;
+            this.score = score;
+        }
+
+        public K getKey() {
+            return key;
+        }
+
+        public S getScore() {
+            return score;
+        }
+    }
+}